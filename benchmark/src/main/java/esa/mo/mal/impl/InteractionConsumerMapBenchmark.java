@@ -0,0 +1,103 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl;
+
+import esa.mo.mal.impl.benchmark.BenchmarkListener;
+import esa.mo.mal.impl.benchmark.LoopbackMessage;
+import esa.mo.mal.impl.benchmark.LoopbackMessageBody;
+import esa.mo.mal.impl.benchmark.LoopbackMessageHeader;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contention benchmark of the consumer transaction table on its own. Every operation creates a REQUEST transaction,
+ * delivers its response and, for the synchronous variant, collects the result, so with several threads all of them
+ * hit the same InteractionConsumerMap concurrently without any transport or provider work in between.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteractionConsumerMapBenchmark
+{
+  private final InteractionConsumerMap icmap = new InteractionConsumerMap(null);
+  private final BenchmarkListener listener = new BenchmarkListener();
+  private final Object[] responseBody = new Object[]
+  {
+    new UInteger(42)
+  };
+
+  /**
+   * Asynchronous REQUEST, the response is passed to the listener.
+   *
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public void asyncRequest() throws MALInteractionException, MALException
+  {
+    final Long transId = icmap.createTransaction(InteractionType._REQUEST_INDEX, false, listener);
+
+    icmap.handleStage(createResponse(transId));
+  }
+
+  /**
+   * Synchronous REQUEST, the response is collected by waitForResponse.
+   *
+   * @return the response message.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessage syncRequest() throws MALInteractionException, MALException
+  {
+    final Long transId = icmap.createTransaction(InteractionType._REQUEST_INDEX, true, null);
+
+    icmap.handleStage(createResponse(transId));
+
+    return icmap.waitForResponse(transId);
+  }
+
+  private MALMessage createResponse(final Long transId)
+  {
+    return new LoopbackMessage(new LoopbackMessageHeader(null, null, null, null, null, null, null, null, null, null,
+            InteractionType.REQUEST, MALRequestOperation.REQUEST_RESPONSE_STAGE, transId,
+            null, null, null, null, Boolean.FALSE),
+            new LoopbackMessageBody(false, responseBody),
+            null);
+  }
+}
@@ -0,0 +1,181 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.MessageReceive;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.provider.MALProvider;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how the processing of a batch of received messages scales with the number of receive lanes. Each batch
+ * holds SEND messages from many different consumers to a provider whose handler does a fixed amount of work, so
+ * with lanes the messages of different consumers are handled in parallel. Each benchmark thread plays the part of a
+ * transport delivery thread, the single threaded results show the scaling with lanes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchDispatchBenchmark
+{
+  private static final int BATCH_SIZE = 256;
+  private static final int CONSUMER_COUNT = 64;
+  /**
+   * Number of receive lanes, 0 processes the batch sequentially.
+   */
+  @Param(
+          {
+            "0", "1", "2", "4", "8", "16"
+          })
+  public int lanes;
+  /**
+   * Amount of work done by the provider handler for each message, in JMH CPU tokens.
+   */
+  @Param(
+          {
+            "1000"
+          })
+  public long work;
+  private final MALMessage[] batch = new MALMessage[BATCH_SIZE];
+  private BenchmarkFixture fixture;
+  private MessageReceive receiver;
+  private MALEndpoint providerEndpoint;
+
+  /**
+   * Creates the provider and the batch of messages.
+   *
+   * @throws MALException on error.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws MALException
+  {
+    final Map<String, String> props = new HashMap<String, String>();
+    props.put(MessageReceive.PARALLELISM_PROPERTY, String.valueOf(lanes));
+
+    fixture = new BenchmarkFixture(props, false);
+    final MALProvider provider = fixture.createProvider("busyProvider", new BusyProviderHandler(work), false);
+
+    receiver = fixture.getContext().getReceivingInterface();
+    providerEndpoint = fixture.getContext().getTransport(LoopbackTransportFactory.PROTOCOL)
+            .getEndpoint(provider.getURI());
+
+    for (int i = 0; i < BATCH_SIZE; i++)
+    {
+      final LoopbackMessageHeader hdr = new LoopbackMessageHeader(
+              new URI(LoopbackTransportFactory.PROTOCOL + "://consumer" + (i % CONSUMER_COUNT)),
+              BenchmarkFixture.AUTHENTICATION_ID,
+              provider.getURI(),
+              new Time(System.currentTimeMillis()),
+              QoSLevel.BESTEFFORT,
+              new UInteger(1),
+              BenchmarkFixture.DOMAIN,
+              BenchmarkFixture.NETWORK_ZONE,
+              SessionType.LIVE,
+              BenchmarkFixture.SESSION_NAME,
+              InteractionType.SEND,
+              MALSendOperation.SEND_STAGE,
+              (long) i,
+              BenchmarkService.AREA_NUMBER,
+              BenchmarkService.SERVICE_NUMBER,
+              BenchmarkService.SEND_OP.getNumber(),
+              BenchmarkService.AREA_VERSION,
+              Boolean.FALSE);
+
+      batch[i] = new LoopbackMessage(hdr, new LoopbackMessageBody(false, new Object[]
+      {
+        new UInteger(i)
+      }), new HashMap());
+    }
+  }
+
+  /**
+   * Closes the MAL context.
+   *
+   * @throws MALException on error.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws MALException
+  {
+    fixture.close();
+  }
+
+  /**
+   * Delivers one batch, returns once every message of it has been handled.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void onMessages()
+  {
+    receiver.onMessages(providerEndpoint, batch);
+  }
+
+  /**
+   * Provider handler that does a fixed amount of CPU work for every SEND.
+   */
+  private static final class BusyProviderHandler extends BenchmarkProviderHandler
+  {
+    private final long work;
+
+    private BusyProviderHandler(final long work)
+    {
+      this.work = work;
+    }
+
+    @Override
+    public void handleSend(final MALInteraction interaction, final MALMessageBody body)
+            throws MALInteractionException, MALException
+    {
+      Blackhole.consumeCPU(work);
+    }
+  }
+}
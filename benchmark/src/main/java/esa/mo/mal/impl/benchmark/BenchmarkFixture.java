@@ -0,0 +1,166 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.MALContextImpl;
+import java.util.HashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.provider.MALInteractionHandler;
+import org.ccsds.moims.mo.mal.provider.MALProvider;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+
+/**
+ * Wires a MAL context, a provider of the benchmark service and its consumers together over the loopback transport.
+ */
+public class BenchmarkFixture
+{
+  /**
+   * Domain used by all benchmark components.
+   */
+  public static final IdentifierList DOMAIN = new IdentifierList();
+  /**
+   * Network zone used by all benchmark components.
+   */
+  public static final Identifier NETWORK_ZONE = new Identifier("GROUND");
+  /**
+   * Session name used by all benchmark components.
+   */
+  public static final Identifier SESSION_NAME = new Identifier("LIVE");
+  /**
+   * Authentication identifier used by all benchmark components.
+   */
+  public static final Blob AUTHENTICATION_ID = new Blob(new byte[0]);
+
+  static
+  {
+    DOMAIN.add(new Identifier("esa"));
+    DOMAIN.add(new Identifier("bench"));
+  }
+
+  private final MALContextImpl context;
+  private final MALProvider provider;
+
+  /**
+   * Constructor, creates the context and the provider.
+   *
+   * @param properties Initial properties of the MAL context, may be null.
+   * @param isPublisher True if the provider should also publish, i.e. have a broker.
+   * @throws MALException on error.
+   */
+  public BenchmarkFixture(final Map properties, final boolean isPublisher) throws MALException
+  {
+    LoopbackTransportFactory.register();
+    BenchmarkService.init();
+
+    context = new MALContextImpl(null, (null == properties) ? new HashMap() : properties);
+    provider = createProvider("provider", new BenchmarkProviderHandler(), isPublisher);
+  }
+
+  /**
+   * Returns the MAL context.
+   *
+   * @return the context.
+   */
+  public MALContextImpl getContext()
+  {
+    return context;
+  }
+
+  /**
+   * Returns the provider.
+   *
+   * @return the provider.
+   */
+  public MALProvider getProvider()
+  {
+    return provider;
+  }
+
+  /**
+   * Creates a new provider of the benchmark service.
+   *
+   * @param localName The local name of the provider endpoint.
+   * @param handler The interaction handler of the provider.
+   * @param isPublisher True if the provider should also publish.
+   * @return the new provider.
+   * @throws MALException on error.
+   */
+  public final MALProvider createProvider(final String localName,
+          final MALInteractionHandler handler,
+          final boolean isPublisher) throws MALException
+  {
+    return context.createProviderManager().createProvider(localName,
+            LoopbackTransportFactory.PROTOCOL,
+            BenchmarkService.SERVICE,
+            AUTHENTICATION_ID,
+            handler,
+            new QoSLevel[]
+            {
+              QoSLevel.BESTEFFORT
+            },
+            new UInteger(1),
+            new HashMap(),
+            isPublisher,
+            null);
+  }
+
+  /**
+   * Creates a new consumer of the benchmark service connected to the provider.
+   *
+   * @return the new consumer.
+   * @throws MALException on error.
+   */
+  public MALConsumer createConsumer() throws MALException
+  {
+    final URI brokerUri = provider.isPublisher() ? provider.getBrokerURI() : null;
+
+    return context.createConsumerManager().createConsumer((String) null,
+            provider.getURI(),
+            brokerUri,
+            BenchmarkService.SERVICE,
+            AUTHENTICATION_ID,
+            DOMAIN,
+            NETWORK_ZONE,
+            SessionType.LIVE,
+            SESSION_NAME,
+            QoSLevel.BESTEFFORT,
+            new HashMap(),
+            new UInteger(0));
+  }
+
+  /**
+   * Closes the MAL context and everything created from it.
+   *
+   * @throws MALException on error.
+   */
+  public void close() throws MALException
+  {
+    context.close();
+  }
+}
@@ -0,0 +1,203 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
+
+/**
+ * Consumer side interaction listener of the benchmarks, only counts what it receives.
+ */
+public class BenchmarkListener implements MALInteractionListener
+{
+  private final AtomicLong responses = new AtomicLong();
+  private final AtomicLong notifies = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+
+  /**
+   * Returns the number of final responses received.
+   *
+   * @return the count.
+   */
+  public long getResponseCount()
+  {
+    return responses.get();
+  }
+
+  /**
+   * Returns the number of notify messages received.
+   *
+   * @return the count.
+   */
+  public long getNotifyCount()
+  {
+    return notifies.get();
+  }
+
+  /**
+   * Returns the number of errors received.
+   *
+   * @return the count.
+   */
+  public long getErrorCount()
+  {
+    return errors.get();
+  }
+
+  @Override
+  public void registerAckReceived(final MALMessageHeader header, final Map qosProperties)
+          throws MALException
+  {
+    // not counted
+  }
+
+  @Override
+  public void registerErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void deregisterAckReceived(final MALMessageHeader header, final Map qosProperties)
+          throws MALException
+  {
+    // not counted
+  }
+
+  @Override
+  public void invokeAckErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void invokeAckReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    // not counted
+  }
+
+  @Override
+  public void invokeResponseErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void invokeResponseReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    responses.incrementAndGet();
+  }
+
+  @Override
+  public void notifyErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void notifyReceived(final MALMessageHeader header, final MALNotifyBody body, final Map qosProperties)
+          throws MALException
+  {
+    notifies.incrementAndGet();
+  }
+
+  @Override
+  public void progressAckErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void progressAckReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    // not counted
+  }
+
+  @Override
+  public void progressResponseErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void progressResponseReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    responses.incrementAndGet();
+  }
+
+  @Override
+  public void progressUpdateErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void progressUpdateReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    // not counted
+  }
+
+  @Override
+  public void requestErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+
+  @Override
+  public void requestResponseReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    responses.incrementAndGet();
+  }
+
+  @Override
+  public void submitAckReceived(final MALMessageHeader header, final Map qosProperties)
+          throws MALException
+  {
+    responses.incrementAndGet();
+  }
+
+  @Override
+  public void submitErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    errors.incrementAndGet();
+  }
+}
@@ -0,0 +1,92 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.provider.MALInteractionHandler;
+import org.ccsds.moims.mo.mal.provider.MALInvoke;
+import org.ccsds.moims.mo.mal.provider.MALProgress;
+import org.ccsds.moims.mo.mal.provider.MALProvider;
+import org.ccsds.moims.mo.mal.provider.MALRequest;
+import org.ccsds.moims.mo.mal.provider.MALSubmit;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+
+/**
+ * Provider side of the benchmark service, echoes the request value back in every return stage.
+ */
+public class BenchmarkProviderHandler implements MALInteractionHandler
+{
+  @Override
+  public void malInitialize(final MALProvider provider) throws MALException
+  {
+    // nothing to do
+  }
+
+  @Override
+  public void handleSend(final MALInteraction interaction, final MALMessageBody body)
+          throws MALInteractionException, MALException
+  {
+    // nothing to return
+  }
+
+  @Override
+  public void handleSubmit(final MALSubmit interaction, final MALMessageBody body)
+          throws MALInteractionException, MALException
+  {
+    interaction.sendAcknowledgement();
+  }
+
+  @Override
+  public void handleRequest(final MALRequest interaction, final MALMessageBody body)
+          throws MALInteractionException, MALException
+  {
+    interaction.sendResponse(body.getBodyElement(0, null));
+  }
+
+  @Override
+  public void handleInvoke(final MALInvoke interaction, final MALMessageBody body)
+          throws MALInteractionException, MALException
+  {
+    final Object value = body.getBodyElement(0, null);
+
+    interaction.sendAcknowledgement(value);
+    interaction.sendResponse(value);
+  }
+
+  @Override
+  public void handleProgress(final MALProgress interaction, final MALMessageBody body)
+          throws MALInteractionException, MALException
+  {
+    final Object value = body.getBodyElement(0, null);
+
+    interaction.sendAcknowledgement(value);
+    interaction.sendUpdate(value);
+    interaction.sendResponse(value);
+  }
+
+  @Override
+  public void malFinalize(final MALProvider provider) throws MALException
+  {
+    // nothing to do
+  }
+}
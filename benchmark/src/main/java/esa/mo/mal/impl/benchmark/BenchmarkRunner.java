@@ -0,0 +1,90 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, first for throughput (operations per second) and then in sample mode
+ * for the latency percentiles (p50, p99 and so on). The GC profiler is always enabled so every result also reports
+ * the bytes allocated per operation (gc.alloc.rate.norm).
+ *
+ * Any arguments are passed on to JMH, e.g. a regular expression to select the benchmarks. The thread counts can be
+ * changed with the system property benchmark.threads, a comma separated list that defaults to 1,2,4,8,16,32,64.
+ */
+public final class BenchmarkRunner
+{
+  /**
+   * Thread count property.
+   */
+  public static final String THREADS_PROPERTY = "benchmark.threads";
+  private static final String DEFAULT_THREADS = "1,2,4,8,16,32,64";
+
+  private BenchmarkRunner()
+  {
+    // utility class
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args JMH command line arguments.
+   * @throws RunnerException on error.
+   * @throws CommandLineOptionException if the arguments cannot be parsed.
+   */
+  public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+  {
+    final Options cmdLine = new CommandLineOptions(args);
+
+    for (String count : System.getProperty(THREADS_PROPERTY, DEFAULT_THREADS).split(","))
+    {
+      final int threads = Integer.parseInt(count.trim());
+
+      run(cmdLine, threads, Mode.Throughput, TimeUnit.SECONDS);
+      run(cmdLine, threads, Mode.SampleTime, TimeUnit.MICROSECONDS);
+    }
+  }
+
+  private static void run(final Options cmdLine, final int threads, final Mode mode, final TimeUnit unit)
+          throws RunnerException
+  {
+    final Options opts = new OptionsBuilder()
+            .parent(cmdLine)
+            .threads(threads)
+            .mode(mode)
+            .timeUnit(unit)
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result("mal-" + mode.name() + "-" + threads + "t.json")
+            .build();
+
+    new Runner(opts).run();
+  }
+}
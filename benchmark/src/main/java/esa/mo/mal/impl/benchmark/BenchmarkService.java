@@ -0,0 +1,149 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInvokeOperation;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.MALSubmitOperation;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+
+/**
+ * Definition of the benchmark area and service, one operation per interaction pattern.
+ */
+public final class BenchmarkService
+{
+  /**
+   * Area number of the benchmark area.
+   */
+  public static final UShort AREA_NUMBER = new UShort(250);
+  /**
+   * Version of the benchmark area.
+   */
+  public static final UOctet AREA_VERSION = new UOctet((short) 1);
+  /**
+   * Service number of the benchmark service.
+   */
+  public static final UShort SERVICE_NUMBER = new UShort(1);
+  /**
+   * The benchmark area.
+   */
+  public static final MALArea AREA = new MALArea(AREA_NUMBER, new Identifier("Benchmark"), AREA_VERSION);
+  /**
+   * The benchmark service.
+   */
+  public static final MALService SERVICE = new MALService(SERVICE_NUMBER, new Identifier("Bench"));
+  /**
+   * The SEND operation.
+   */
+  public static final MALSendOperation SEND_OP = new MALSendOperation(new UShort(1),
+          new Identifier("send"), false, new UShort(1),
+          stage(MALSendOperation._SEND_STAGE, UInteger.SHORT_FORM));
+  /**
+   * The SUBMIT operation.
+   */
+  public static final MALSubmitOperation SUBMIT_OP = new MALSubmitOperation(new UShort(2),
+          new Identifier("submit"), false, new UShort(1),
+          stage(MALSubmitOperation._SUBMIT_STAGE, UInteger.SHORT_FORM));
+  /**
+   * The REQUEST operation.
+   */
+  public static final MALRequestOperation REQUEST_OP = new MALRequestOperation(new UShort(3),
+          new Identifier("request"), false, new UShort(1),
+          stage(MALRequestOperation._REQUEST_STAGE, UInteger.SHORT_FORM),
+          stage(MALRequestOperation._REQUEST_RESPONSE_STAGE, UInteger.SHORT_FORM));
+  /**
+   * The INVOKE operation.
+   */
+  public static final MALInvokeOperation INVOKE_OP = new MALInvokeOperation(new UShort(4),
+          new Identifier("invoke"), false, new UShort(1),
+          stage(MALInvokeOperation._INVOKE_STAGE, UInteger.SHORT_FORM),
+          stage(MALInvokeOperation._INVOKE_ACK_STAGE, UInteger.SHORT_FORM),
+          stage(MALInvokeOperation._INVOKE_RESPONSE_STAGE, UInteger.SHORT_FORM));
+  /**
+   * The PROGRESS operation.
+   */
+  public static final MALProgressOperation PROGRESS_OP = new MALProgressOperation(new UShort(5),
+          new Identifier("progress"), false, new UShort(1),
+          stage(MALProgressOperation._PROGRESS_STAGE, UInteger.SHORT_FORM),
+          stage(MALProgressOperation._PROGRESS_ACK_STAGE, UInteger.SHORT_FORM),
+          stage(MALProgressOperation._PROGRESS_UPDATE_STAGE, UInteger.SHORT_FORM),
+          stage(MALProgressOperation._PROGRESS_RESPONSE_STAGE, UInteger.SHORT_FORM));
+  /**
+   * The PUBSUB operation.
+   */
+  public static final MALPubSubOperation MONITOR_OP = new MALPubSubOperation(new UShort(6),
+          new Identifier("monitor"), false, new UShort(1),
+          new Object[]
+          {
+            UIntegerList.SHORT_FORM
+          },
+          new Object[0]);
+  private static boolean initialised = false;
+
+  private BenchmarkService()
+  {
+    // utility class
+  }
+
+  /**
+   * Registers the benchmark area with the MAL, only the first call has any effect.
+   *
+   * @throws MALException on error.
+   */
+  public static synchronized void init() throws MALException
+  {
+    if (!initialised)
+    {
+      SERVICE.addSendOperation(SEND_OP);
+      SERVICE.addSubmitOperation(SUBMIT_OP);
+      SERVICE.addRequestOperation(REQUEST_OP);
+      SERVICE.addInvokeOperation(INVOKE_OP);
+      SERVICE.addProgressOperation(PROGRESS_OP);
+      SERVICE.addPubSubOperation(MONITOR_OP);
+      AREA.addService(SERVICE);
+      MALContextFactory.registerArea(AREA);
+
+      initialised = true;
+    }
+  }
+
+  private static MALOperationStage stage(final byte number, final Object shortForm)
+  {
+    return new MALOperationStage(new UOctet(number),
+            new Object[]
+            {
+              shortForm
+            },
+            new Object[0]);
+  }
+}
@@ -0,0 +1,106 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Minimal interaction that only carries the message header, which is all the broker handler uses. Used by the
+ * benchmarks that drive a broker handler directly, without any transport.
+ */
+final class BrokerInteraction implements MALInteraction
+{
+  private static final URI BROKER_URI = new URI(LoopbackTransportFactory.PROTOCOL + "://broker");
+  private final MALMessageHeader header;
+
+  private BrokerInteraction(final MALMessageHeader header)
+  {
+    this.header = header;
+  }
+
+  /**
+   * Creates an interaction for a PUBSUB message from the given consumer or provider to the broker.
+   *
+   * @param from Name of the sender, used as the URI from.
+   * @param stage The interaction stage.
+   * @return the new interaction.
+   */
+  static BrokerInteraction create(final String from, final UOctet stage)
+  {
+    return new BrokerInteraction(new LoopbackMessageHeader(new URI(LoopbackTransportFactory.PROTOCOL + "://" + from),
+            BenchmarkFixture.AUTHENTICATION_ID,
+            BROKER_URI,
+            new Time(System.currentTimeMillis()),
+            QoSLevel.BESTEFFORT,
+            new UInteger(1),
+            BenchmarkFixture.DOMAIN,
+            BenchmarkFixture.NETWORK_ZONE,
+            SessionType.LIVE,
+            BenchmarkFixture.SESSION_NAME,
+            InteractionType.PUBSUB,
+            stage,
+            1L,
+            BenchmarkService.AREA_NUMBER,
+            BenchmarkService.SERVICE_NUMBER,
+            BenchmarkService.MONITOR_OP.getNumber(),
+            BenchmarkService.AREA_VERSION,
+            Boolean.FALSE));
+  }
+
+  @Override
+  public MALMessageHeader getMessageHeader()
+  {
+    return header;
+  }
+
+  @Override
+  public MALOperation getOperation()
+  {
+    return BenchmarkService.MONITOR_OP;
+  }
+
+  @Override
+  public Object getQoSProperty(final String name)
+  {
+    return null;
+  }
+
+  @Override
+  public void setQoSProperty(final String name, final Object value)
+  {
+  }
+
+  @Override
+  public Map<String, Object> getQoSProperties()
+  {
+    return null;
+  }
+}
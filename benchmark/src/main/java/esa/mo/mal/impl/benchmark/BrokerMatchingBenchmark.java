@@ -0,0 +1,196 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.broker.MALBrokerHandlerImpl;
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyQueue;
+import esa.mo.mal.impl.broker.ParallelNotifyTask;
+import esa.mo.mal.impl.broker.indexed.IndexedBrokerHandler;
+import esa.mo.mal.impl.broker.sharded.ShardedBrokerHandler;
+import esa.mo.mal.impl.broker.simple.SimpleBrokerHandler;
+import esa.mo.mal.impl.util.DispatchExecutors;
+import esa.mo.mal.impl.util.MALClose;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the subscription matching of a PUBLISH in the broker handler alone, without any transport, comparing the
+ * simple handler that checks every subscription with the indexed handler and the sharded handler. Each consumer holds
+ * an equal share of the subscriptions, one entity key each, plus one wildcard subscription. Run with several threads
+ * to see the sharded handler spread concurrent publishes over its shards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerMatchingBenchmark
+{
+  private static final int CONSUMER_COUNT = 100;
+  private static final int UPDATE_COUNT = 8;
+
+  /**
+   * The broker handler class.
+   */
+  @Param(
+          {
+            "simple", "indexed", "sharded"
+          })
+  public String handler;
+
+  /**
+   * Total number of subscriptions held by the broker.
+   */
+  @Param(
+          {
+            "1000", "100000"
+          })
+  public int subscriptions;
+
+  /**
+   * Number of consumers above which the simple handler checks the consumers in parallel, zero to disable.
+   */
+  @Param(
+          {
+            "0", "64"
+          })
+  public int parallelThreshold;
+
+  private MALBrokerHandlerImpl brokerHandler;
+  private MALInteraction publishInteraction;
+  private LoopbackMessageBody publishBody;
+
+  /**
+   * Creates the broker handler, registers the provider and the consumer subscriptions, and builds the publish.
+   *
+   * @throws Exception on error.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    BenchmarkService.init();
+
+    // no broker bindings are attached, so every NOTIFY would be logged as having no consumer
+    MALBrokerImpl.LOGGER.setLevel(java.util.logging.Level.SEVERE);
+    System.setProperty(NotifyQueue.DISPATCH_PROPERTY, DispatchExecutors.INLINE);
+    System.setProperty(ParallelNotifyTask.THRESHOLD_PROPERTY, String.valueOf(parallelThreshold));
+
+    final Class cls = "sharded".equals(handler) ? ShardedBrokerHandler.class
+            : "indexed".equals(handler) ? IndexedBrokerHandler.class : SimpleBrokerHandler.class;
+    brokerHandler = (MALBrokerHandlerImpl) cls.getConstructor(MALClose.class).newInstance((Object) null);
+
+    final EntityKeyList providerKeys = new EntityKeyList();
+    providerKeys.add(new EntityKey(new Identifier("*"), 0L, 0L, 0L));
+    brokerHandler.handlePublishRegister(BrokerInteraction.create("provider",
+            MALPubSubOperation.PUBLISH_REGISTER_STAGE), new LoopbackMessageBody(false, new Object[]
+            {
+              providerKeys
+            }));
+
+    final int perConsumer = Math.max(1, subscriptions / CONSUMER_COUNT);
+    for (int c = 0; c < CONSUMER_COUNT; ++c)
+    {
+      final MALInteraction interaction
+              = BrokerInteraction.create("consumer" + c, MALPubSubOperation.REGISTER_STAGE);
+
+      for (int s = 0; s < perConsumer; ++s)
+      {
+        register(interaction, "sub" + s, "param" + (c * perConsumer + s));
+      }
+
+      register(interaction, "all", "*");
+    }
+
+    final Random random = new Random(1);
+    final UpdateHeaderList hdrList = new UpdateHeaderList();
+    final UIntegerList values = new UIntegerList();
+    for (int i = 0; i < UPDATE_COUNT; ++i)
+    {
+      final String key = "param" + random.nextInt(perConsumer * CONSUMER_COUNT);
+      hdrList.add(new UpdateHeader(new Time(System.currentTimeMillis()), new URI("provider"), UpdateType.UPDATE,
+              new EntityKey(new Identifier(key), 0L, 0L, 0L)));
+      values.add(new UInteger(i));
+    }
+
+    publishInteraction = BrokerInteraction.create("provider", MALPubSubOperation.PUBLISH_STAGE);
+    publishBody = new LoopbackMessageBody(false, new Object[]
+    {
+      hdrList, values
+    });
+  }
+
+  /**
+   * Matches one PUBLISH of several updates against all subscriptions.
+   *
+   * @throws MALException on error.
+   * @throws MALInteractionException on error.
+   */
+  @Benchmark
+  public void publish() throws MALException, MALInteractionException
+  {
+    brokerHandler.handlePublish(publishInteraction, publishBody);
+  }
+
+  private void register(final MALInteraction interaction, final String subId, final String key)
+          throws MALException, MALInteractionException
+  {
+    final EntityKeyList keys = new EntityKeyList();
+    keys.add(new EntityKey(new Identifier(key), 0L, 0L, 0L));
+    final EntityRequestList requests = new EntityRequestList();
+    requests.add(new EntityRequest(null, false, false, false, false, keys));
+
+    brokerHandler.handleRegister(interaction, new LoopbackMessageBody(false, new Object[]
+    {
+      new Subscription(new Identifier(subId), requests)
+    }));
+  }
+}
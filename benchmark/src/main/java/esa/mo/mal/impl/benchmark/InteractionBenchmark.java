@@ -0,0 +1,193 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.MessageReceive;
+import esa.mo.mal.impl.consumer.MALFutureConsumer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end benchmarks of the SEND, SUBMIT, REQUEST, INVOKE and PROGRESS patterns. All benchmark threads share a
+ * single consumer so that the consumer side transaction handling is contended as it is in a real application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteractionBenchmark
+{
+  /**
+   * How the provider handlers are dispatched, see MessageReceive.DISPATCH_PROPERTY.
+   */
+  @Param(
+          {
+            "inline", "virtual", "8"
+          })
+  public String dispatch;
+  private final UInteger value = new UInteger(42);
+  private BenchmarkFixture fixture;
+  private MALConsumer consumer;
+  private BenchmarkListener listener;
+
+  /**
+   * Creates the provider, with the selected dispatch mode, and the shared consumer.
+   *
+   * @throws MALException on error.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws MALException
+  {
+    final Map<String, String> props = new HashMap<String, String>();
+    props.put(MessageReceive.DISPATCH_PROPERTY, dispatch);
+
+    fixture = new BenchmarkFixture(props, false);
+    consumer = fixture.createConsumer();
+    listener = new BenchmarkListener();
+  }
+
+  /**
+   * Closes the MAL context.
+   *
+   * @throws MALException on error.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws MALException
+  {
+    fixture.close();
+  }
+
+  /**
+   * SEND, one message from consumer to provider.
+   *
+   * @return the sent message.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessage send() throws MALInteractionException, MALException
+  {
+    return consumer.send(BenchmarkService.SEND_OP, value);
+  }
+
+  /**
+   * Synchronous SUBMIT, returns once the acknowledgement has been received.
+   *
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public void submit() throws MALInteractionException, MALException
+  {
+    consumer.submit(BenchmarkService.SUBMIT_OP, value);
+  }
+
+  /**
+   * Synchronous REQUEST, returns once the response has been received.
+   *
+   * @return the response body.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessageBody request() throws MALInteractionException, MALException
+  {
+    return consumer.request(BenchmarkService.REQUEST_OP, value);
+  }
+
+  /**
+   * Asynchronous REQUEST, the response is delivered to the listener.
+   *
+   * @return the sent message.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessage asyncRequest() throws MALInteractionException, MALException
+  {
+    return consumer.asyncRequest(BenchmarkService.REQUEST_OP, listener, value);
+  }
+
+  /**
+   * Future based REQUEST, waits on the returned future for the response.
+   *
+   * @return the response body.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   * @throws InterruptedException if interrupted while waiting.
+   * @throws ExecutionException if the interaction failed.
+   */
+  @Benchmark
+  public MALMessageBody futureRequest()
+          throws MALInteractionException, MALException, InterruptedException, ExecutionException
+  {
+    return ((MALFutureConsumer) consumer).requestAsync(BenchmarkService.REQUEST_OP, value).get();
+  }
+
+  /**
+   * Synchronous INVOKE, acknowledgement and response.
+   *
+   * @return the acknowledgement body.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessageBody invoke() throws MALInteractionException, MALException
+  {
+    return consumer.invoke(BenchmarkService.INVOKE_OP, listener, value);
+  }
+
+  /**
+   * Synchronous PROGRESS, acknowledgement, one update and response.
+   *
+   * @return the acknowledgement body.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessageBody progress() throws MALInteractionException, MALException
+  {
+    return consumer.progress(BenchmarkService.PROGRESS_OP, listener, value);
+  }
+}
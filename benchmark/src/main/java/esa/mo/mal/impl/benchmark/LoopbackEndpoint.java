@@ -0,0 +1,281 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
+import org.ccsds.moims.mo.mal.transport.MALTransmitMultipleErrorException;
+
+/**
+ * In-memory endpoint. Sending a message hands it straight to the listener of the destination endpoint on the
+ * calling thread, so a complete interaction executes without any transport threads or encoding in the way.
+ */
+public class LoopbackEndpoint implements MALEndpoint
+{
+  private final LoopbackTransport transport;
+  private final String localName;
+  private final URI uri;
+  private volatile MALMessageListener listener = null;
+  private volatile boolean deliveryStarted = false;
+
+  /**
+   * Constructor.
+   *
+   * @param transport The parent transport.
+   * @param localName The local name of this endpoint.
+   * @param uri The URI of this endpoint.
+   */
+  public LoopbackEndpoint(final LoopbackTransport transport, final String localName, final URI uri)
+  {
+    this.transport = transport;
+    this.localName = localName;
+    this.uri = uri;
+  }
+
+  @Override
+  public void startMessageDelivery() throws MALException
+  {
+    deliveryStarted = true;
+  }
+
+  @Override
+  public void stopMessageDelivery() throws MALException
+  {
+    deliveryStarted = false;
+  }
+
+  @Override
+  public String getLocalName()
+  {
+    return localName;
+  }
+
+  @Override
+  public URI getURI()
+  {
+    return uri;
+  }
+
+  @Override
+  public MALMessage createMessage(final Blob authenticationId,
+          final URI uriTo,
+          final Time timestamp,
+          final QoSLevel qosLevel,
+          final UInteger priority,
+          final IdentifierList domain,
+          final Identifier networkZone,
+          final SessionType session,
+          final Identifier sessionName,
+          final InteractionType interactionType,
+          final UOctet interactionStage,
+          final Long transactionId,
+          final UShort serviceArea,
+          final UShort service,
+          final UShort operation,
+          final UOctet serviceVersion,
+          final Boolean isErrorMessage,
+          final Map qosProperties,
+          final Object... body) throws IllegalArgumentException, MALException
+  {
+    return new LoopbackMessage(new LoopbackMessageHeader(uri, authenticationId, uriTo, timestamp, qosLevel,
+            priority, domain, networkZone, session, sessionName, interactionType, interactionStage, transactionId,
+            serviceArea, service, operation, serviceVersion, isErrorMessage),
+            createBody(interactionType, interactionStage, body),
+            qosProperties);
+  }
+
+  @Override
+  public MALMessage createMessage(final Blob authenticationId,
+          final URI uriTo,
+          final Time timestamp,
+          final QoSLevel qosLevel,
+          final UInteger priority,
+          final IdentifierList domain,
+          final Identifier networkZone,
+          final SessionType session,
+          final Identifier sessionName,
+          final InteractionType interactionType,
+          final UOctet interactionStage,
+          final Long transactionId,
+          final UShort serviceArea,
+          final UShort service,
+          final UShort operation,
+          final UOctet serviceVersion,
+          final Boolean isErrorMessage,
+          final Map qosProperties,
+          final MALEncodedBody body) throws IllegalArgumentException, MALException
+  {
+    return new LoopbackMessage(new LoopbackMessageHeader(uri, authenticationId, uriTo, timestamp, qosLevel,
+            priority, domain, networkZone, session, sessionName, interactionType, interactionStage, transactionId,
+            serviceArea, service, operation, serviceVersion, isErrorMessage),
+            new LoopbackMessageBody(body),
+            qosProperties);
+  }
+
+  @Override
+  public MALMessage createMessage(final Blob authenticationId,
+          final URI uriTo,
+          final Time timestamp,
+          final QoSLevel qosLevel,
+          final UInteger priority,
+          final IdentifierList domain,
+          final Identifier networkZone,
+          final SessionType session,
+          final Identifier sessionName,
+          final Long transactionId,
+          final Boolean isErrorMessage,
+          final MALOperation op,
+          final UOctet interactionStage,
+          final Map qosProperties,
+          final Object... body) throws IllegalArgumentException, MALException
+  {
+    return createMessage(authenticationId, uriTo, timestamp, qosLevel, priority, domain, networkZone, session,
+            sessionName, op.getInteractionType(), interactionStage, transactionId,
+            op.getService().getArea().getNumber(), op.getService().getNumber(), op.getNumber(),
+            op.getService().getArea().getVersion(), isErrorMessage, qosProperties, body);
+  }
+
+  @Override
+  public MALMessage createMessage(final Blob authenticationId,
+          final URI uriTo,
+          final Time timestamp,
+          final QoSLevel qosLevel,
+          final UInteger priority,
+          final IdentifierList domain,
+          final Identifier networkZone,
+          final SessionType session,
+          final Identifier sessionName,
+          final Long transactionId,
+          final Boolean isErrorMessage,
+          final MALOperation op,
+          final UOctet interactionStage,
+          final Map qosProperties,
+          final MALEncodedBody body) throws IllegalArgumentException, MALException
+  {
+    return createMessage(authenticationId, uriTo, timestamp, qosLevel, priority, domain, networkZone, session,
+            sessionName, op.getInteractionType(), interactionStage, transactionId,
+            op.getService().getArea().getNumber(), op.getService().getNumber(), op.getNumber(),
+            op.getService().getArea().getVersion(), isErrorMessage, qosProperties, body);
+  }
+
+  @Override
+  public void sendMessage(final MALMessage msg) throws IllegalArgumentException, MALTransmitErrorException,
+          MALException
+  {
+    final LoopbackEndpoint dest = transport.lookupEndpoint(msg.getHeader().getURITo());
+
+    if ((null == dest) || !dest.deliver(msg))
+    {
+      throw new MALTransmitErrorException(msg.getHeader(),
+              new MALStandardError(MALHelper.DESTINATION_UNKNOWN_ERROR_NUMBER, msg.getHeader().getURITo()),
+              msg.getQoSProperties());
+    }
+  }
+
+  @Override
+  public void sendMessages(final MALMessage[] msgList) throws IllegalArgumentException,
+          MALTransmitMultipleErrorException, MALException
+  {
+    final List<MALTransmitErrorException> errors = new ArrayList<MALTransmitErrorException>();
+
+    for (MALMessage msg : msgList)
+    {
+      try
+      {
+        sendMessage(msg);
+      }
+      catch (MALTransmitErrorException ex)
+      {
+        errors.add(ex);
+      }
+    }
+
+    if (!errors.isEmpty())
+    {
+      throw new MALTransmitMultipleErrorException(errors.toArray(new MALTransmitErrorException[errors.size()]));
+    }
+  }
+
+  @Override
+  public void setMessageListener(final MALMessageListener listener) throws MALException
+  {
+    this.listener = listener;
+  }
+
+  @Override
+  public void close() throws MALException
+  {
+    deliveryStarted = false;
+    transport.removeEndpoint(this);
+  }
+
+  /**
+   * Passes a message to the listener of this endpoint.
+   *
+   * @param msg The message to deliver.
+   * @return True if the message was accepted.
+   */
+  protected boolean deliver(final MALMessage msg)
+  {
+    final MALMessageListener lst = listener;
+
+    if (deliveryStarted && (null != lst))
+    {
+      lst.onMessage(this, msg);
+      return true;
+    }
+
+    return false;
+  }
+
+  private static MALMessageBody createBody(final InteractionType interactionType,
+          final UOctet interactionStage,
+          final Object[] body)
+  {
+    final boolean isNotify = (InteractionType._PUBSUB_INDEX == interactionType.getOrdinal())
+            && (MALPubSubOperation._NOTIFY_STAGE == interactionStage.getValue());
+
+    return new LoopbackMessageBody(isNotify, body);
+  }
+}
@@ -0,0 +1,75 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Message of the loopback transport.
+ */
+public class LoopbackMessage implements MALMessage
+{
+  private final MALMessageHeader header;
+  private final MALMessageBody body;
+  private final Map qosProperties;
+
+  /**
+   * Constructor.
+   *
+   * @param header Message header.
+   * @param body Message body.
+   * @param qosProperties Message QoS properties.
+   */
+  public LoopbackMessage(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+  {
+    this.header = header;
+    this.body = body;
+    this.qosProperties = qosProperties;
+  }
+
+  @Override
+  public MALMessageHeader getHeader()
+  {
+    return header;
+  }
+
+  @Override
+  public MALMessageBody getBody()
+  {
+    return body;
+  }
+
+  @Override
+  public Map getQoSProperties()
+  {
+    return qosProperties;
+  }
+
+  @Override
+  public void free() throws MALException
+  {
+    // nothing to do
+  }
+}
@@ -0,0 +1,172 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.List;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALDeregisterBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
+import org.ccsds.moims.mo.mal.transport.MALPublishRegisterBody;
+import org.ccsds.moims.mo.mal.transport.MALRegisterBody;
+
+/**
+ * Message body of the loopback transport. The body elements are passed by reference, nothing is encoded, so the
+ * benchmarks measure the cost of the MAL layer rather than of an encoder. A single class implements all of the
+ * specialised body interfaces, the interaction stage of the message decides where the publish/notify update
+ * lists start.
+ */
+public class LoopbackMessageBody implements MALErrorBody,
+        MALNotifyBody,
+        MALRegisterBody,
+        MALPublishRegisterBody,
+        MALDeregisterBody
+{
+  private final Object[] body;
+  private final MALEncodedBody encodedBody;
+  private final int updateHeaderIndex;
+
+  /**
+   * Constructor.
+   *
+   * @param isNotify True if the body is of a NOTIFY message, i.e. it starts with a subscription identifier.
+   * @param body The body elements.
+   */
+  public LoopbackMessageBody(final boolean isNotify, final Object[] body)
+  {
+    this.body = body;
+    this.encodedBody = null;
+    this.updateHeaderIndex = isNotify ? 1 : 0;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param encodedBody The already encoded body.
+   */
+  public LoopbackMessageBody(final MALEncodedBody encodedBody)
+  {
+    this.body = new Object[0];
+    this.encodedBody = encodedBody;
+    this.updateHeaderIndex = 0;
+  }
+
+  @Override
+  public int getElementCount()
+  {
+    return body.length;
+  }
+
+  @Override
+  public Object getBodyElement(final int index, final Object element) throws MALException
+  {
+    return body[index];
+  }
+
+  @Override
+  public MALEncodedElement getEncodedBodyElement(final int index) throws MALException
+  {
+    return null;
+  }
+
+  @Override
+  public MALEncodedBody getEncodedBody() throws MALException
+  {
+    return encodedBody;
+  }
+
+  @Override
+  public MALStandardError getError() throws MALException
+  {
+    return new MALStandardError((UInteger) body[0], (1 < body.length) ? body[1] : null);
+  }
+
+  @Override
+  public Identifier getSubscriptionId() throws MALException
+  {
+    return (Identifier) body[0];
+  }
+
+  @Override
+  public UpdateHeaderList getUpdateHeaderList() throws MALException
+  {
+    return (UpdateHeaderList) body[updateHeaderIndex];
+  }
+
+  @Override
+  public List[] getUpdateLists(final List... updateLists) throws MALException
+  {
+    final int firstList = updateHeaderIndex + 1;
+    final List[] rv = new List[body.length - firstList];
+
+    for (int i = 0; i < rv.length; i++)
+    {
+      rv[i] = (List) body[firstList + i];
+    }
+
+    return rv;
+  }
+
+  @Override
+  public List getUpdateList(final int listIndex, final List updateList) throws MALException
+  {
+    return (List) body[updateHeaderIndex + 1 + listIndex];
+  }
+
+  @Override
+  public Object getUpdate(final int listIndex, final int updateIndex) throws MALException
+  {
+    return getUpdateList(listIndex, null).get(updateIndex);
+  }
+
+  @Override
+  public MALEncodedElement getEncodedUpdate(final int listIndex, final int updateIndex) throws MALException
+  {
+    return null;
+  }
+
+  @Override
+  public Subscription getSubscription() throws MALException
+  {
+    return (Subscription) body[0];
+  }
+
+  @Override
+  public EntityKeyList getEntityKeyList() throws MALException
+  {
+    return (EntityKeyList) body[0];
+  }
+
+  @Override
+  public IdentifierList getIdentifierList() throws MALException
+  {
+    return (IdentifierList) body[0];
+  }
+}
@@ -0,0 +1,164 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALTransport;
+
+/**
+ * In-memory transport that connects endpoints of the same JVM directly. It does not provide its own broker so the
+ * MAL level broker implementation is the one exercised by the publish/subscribe benchmarks.
+ */
+public class LoopbackTransport implements MALTransport
+{
+  private final String protocol;
+  private final AtomicInteger endpointCount = new AtomicInteger();
+  private final Map<String, LoopbackEndpoint> endpointsByName = new ConcurrentHashMap<String, LoopbackEndpoint>();
+  private final Map<String, LoopbackEndpoint> endpointsByUri = new ConcurrentHashMap<String, LoopbackEndpoint>();
+
+  /**
+   * Constructor.
+   *
+   * @param protocol The protocol string of this transport.
+   */
+  public LoopbackTransport(final String protocol)
+  {
+    this.protocol = protocol;
+  }
+
+  @Override
+  public MALEndpoint createEndpoint(final String localName, final Map qosProperties)
+          throws IllegalArgumentException, MALException
+  {
+    final String name = (null == localName) ? "endpoint" + endpointCount.incrementAndGet() : localName;
+    LoopbackEndpoint endpoint = endpointsByName.get(name);
+
+    if (null == endpoint)
+    {
+      endpoint = new LoopbackEndpoint(this, name, new URI(protocol + "://" + name));
+      endpointsByName.put(name, endpoint);
+      endpointsByUri.put(endpoint.getURI().getValue(), endpoint);
+    }
+
+    return endpoint;
+  }
+
+  @Override
+  public MALEndpoint getEndpoint(final String localName) throws IllegalArgumentException, MALException
+  {
+    return endpointsByName.get(localName);
+  }
+
+  @Override
+  public MALEndpoint getEndpoint(final URI uri) throws IllegalArgumentException, MALException
+  {
+    return lookupEndpoint(uri);
+  }
+
+  @Override
+  public void deleteEndpoint(final String localName) throws IllegalArgumentException, MALException
+  {
+    final LoopbackEndpoint endpoint = endpointsByName.get(localName);
+
+    if (null != endpoint)
+    {
+      endpoint.close();
+    }
+  }
+
+  @Override
+  public MALBrokerBinding createBroker(final String localName,
+          final Blob authenticationId,
+          final QoSLevel[] expectedQos,
+          final UInteger priorityLevelNumber,
+          final Map defaultQoSProperties) throws IllegalArgumentException, MALException
+  {
+    // no transport level broker, the MAL one is used instead
+    return null;
+  }
+
+  @Override
+  public MALBrokerBinding createBroker(final MALEndpoint endpoint,
+          final Blob authenticationId,
+          final QoSLevel[] qosLevels,
+          final UInteger priorities,
+          final Map properties) throws IllegalArgumentException, MALException
+  {
+    // no transport level broker, the MAL one is used instead
+    return null;
+  }
+
+  @Override
+  public boolean isSupportedQoSLevel(final QoSLevel qos)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean isSupportedInteractionType(final InteractionType type)
+  {
+    return true;
+  }
+
+  @Override
+  public void close() throws MALException
+  {
+    endpointsByName.clear();
+    endpointsByUri.clear();
+  }
+
+  /**
+   * Returns the endpoint with the supplied URI.
+   *
+   * @param uri The endpoint URI.
+   * @return The endpoint or null if not known.
+   */
+  protected LoopbackEndpoint lookupEndpoint(final URI uri)
+  {
+    if ((null == uri) || (null == uri.getValue()))
+    {
+      return null;
+    }
+
+    return endpointsByUri.get(uri.getValue());
+  }
+
+  /**
+   * Removes an endpoint from this transport.
+   *
+   * @param endpoint The endpoint to remove.
+   */
+  protected void removeEndpoint(final LoopbackEndpoint endpoint)
+  {
+    endpointsByName.remove(endpoint.getLocalName());
+    endpointsByUri.remove(endpoint.getURI().getValue());
+  }
+}
@@ -0,0 +1,76 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALContext;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.transport.MALTransport;
+import org.ccsds.moims.mo.mal.transport.MALTransportFactory;
+
+/**
+ * Factory for the in-memory loopback transport.
+ */
+public class LoopbackTransportFactory extends MALTransportFactory
+{
+  /**
+   * The protocol string used by the loopback transport.
+   */
+  public static final String PROTOCOL = "loop";
+  private static final Object MUTEX = new Object();
+  private final String protocol;
+  private LoopbackTransport transport = null;
+
+  /**
+   * Constructor.
+   *
+   * @param protocol The protocol string.
+   */
+  public LoopbackTransportFactory(final String protocol)
+  {
+    super(protocol);
+
+    this.protocol = protocol;
+  }
+
+  /**
+   * Registers this factory with the MAL transport factory lookup mechanism.
+   */
+  public static void register()
+  {
+    System.setProperty("org.ccsds.moims.mo.mal.transport.protocol." + PROTOCOL,
+            LoopbackTransportFactory.class.getName());
+  }
+
+  @Override
+  public MALTransport createTransport(final MALContext malContext, final Map properties) throws MALException
+  {
+    synchronized (MUTEX)
+    {
+      if (null == transport)
+      {
+        transport = new LoopbackTransport(protocol);
+      }
+
+      return transport;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.util.OperationCache;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares resolving the operation of a received message through the area, service and operation tables with the
+ * operation cache, for both a known and an unknown operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationLookupBenchmark
+{
+  private MALMessageHeader known;
+  private MALMessageHeader unknown;
+
+  /**
+   * Registers the benchmark area and creates the headers.
+   *
+   * @throws MALException on error.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws MALException
+  {
+    BenchmarkService.init();
+    known = createHeader(BenchmarkService.REQUEST_OP.getNumber());
+    unknown = createHeader(new UShort(99));
+  }
+
+  /**
+   * Resolves the operation through the MALContextFactory tables.
+   *
+   * @return the operation.
+   */
+  @Benchmark
+  public MALOperation uncached()
+  {
+    return MALContextFactory.lookupArea(known.getServiceArea(), known.getAreaVersion())
+            .getServiceByNumber(known.getService())
+            .getOperationByNumber(known.getOperation());
+  }
+
+  /**
+   * Resolves the operation through the cache.
+   *
+   * @return the operation.
+   * @throws MALInteractionException on error.
+   */
+  @Benchmark
+  public MALOperation cached() throws MALInteractionException
+  {
+    return OperationCache.lookup(known);
+  }
+
+  /**
+   * Resolves an unknown operation through the cache, producing the UNSUPPORTED_OPERATION error.
+   *
+   * @return the error.
+   */
+  @Benchmark
+  public Object cachedUnknown()
+  {
+    try
+    {
+      return OperationCache.lookup(unknown);
+    }
+    catch (MALInteractionException ex)
+    {
+      return ex.getStandardError();
+    }
+  }
+
+  private static MALMessageHeader createHeader(final UShort operation)
+  {
+    return new LoopbackMessageHeader(new URI(LoopbackTransportFactory.PROTOCOL + "://consumer"),
+            BenchmarkFixture.AUTHENTICATION_ID,
+            new URI(LoopbackTransportFactory.PROTOCOL + "://provider"),
+            new Time(System.currentTimeMillis()),
+            QoSLevel.BESTEFFORT,
+            new UInteger(1),
+            BenchmarkFixture.DOMAIN,
+            BenchmarkFixture.NETWORK_ZONE,
+            SessionType.LIVE,
+            BenchmarkFixture.SESSION_NAME,
+            InteractionType.REQUEST,
+            MALRequestOperation.REQUEST_STAGE,
+            1L,
+            BenchmarkService.AREA_NUMBER,
+            BenchmarkService.SERVICE_NUMBER,
+            operation,
+            BenchmarkService.AREA_VERSION,
+            Boolean.FALSE);
+  }
+}
@@ -0,0 +1,207 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.broker.NotifyQueue;
+import esa.mo.mal.impl.broker.NotifyScheduler;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.provider.MALPublishInteractionListener;
+import org.ccsds.moims.mo.mal.provider.MALPublisher;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end benchmark of the PUBSUB pattern, one PUBLISH through the MAL broker fanned out as NOTIFY messages to a
+ * configurable number of subscribed consumers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PubSubBenchmark
+{
+  /**
+   * Number of subscribed consumers.
+   */
+  @Param(
+          {
+            "1", "16", "256"
+          })
+  public int subscribers;
+
+  /**
+   * How the broker sends the NOTIFY messages, on the publishing thread or queued per consumer.
+   */
+  @Param(
+          {
+            "inline", "virtual"
+          })
+  public String notifyDispatch;
+
+  /**
+   * Maximum number of queued NOTIFY deliveries run at once by the class of service scheduler, zero disables it.
+   */
+  @Param(
+          {
+            "0", "4"
+          })
+  public int schedulerThreads;
+  private final UpdateHeaderList updateHeaders = new UpdateHeaderList();
+  private final UIntegerList updates = new UIntegerList();
+  private BenchmarkFixture fixture;
+  private MALPublisher publisher;
+  private BenchmarkListener listener;
+
+  /**
+   * Creates the publisher and registers the subscribers.
+   *
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws MALInteractionException, MALException
+  {
+    System.setProperty(NotifyQueue.DISPATCH_PROPERTY, notifyDispatch);
+    System.setProperty(NotifyScheduler.THREADS_PROPERTY, String.valueOf(schedulerThreads));
+    fixture = new BenchmarkFixture(null, true);
+    listener = new BenchmarkListener();
+
+    final EntityKeyList keys = new EntityKeyList();
+    keys.add(new EntityKey(new Identifier("*"), 0L, 0L, 0L));
+
+    publisher = fixture.getProvider().createPublisher(BenchmarkService.MONITOR_OP,
+            BenchmarkFixture.DOMAIN,
+            BenchmarkFixture.NETWORK_ZONE,
+            SessionType.LIVE,
+            BenchmarkFixture.SESSION_NAME,
+            QoSLevel.BESTEFFORT,
+            new HashMap(),
+            new UInteger(0));
+    publisher.register(keys, new PublishListener());
+
+    for (int i = 0; i < subscribers; i++)
+    {
+      final MALConsumer consumer = fixture.createConsumer();
+      final EntityRequestList requests = new EntityRequestList();
+      requests.add(new EntityRequest(null, true, true, true, false, keys));
+      consumer.register(BenchmarkService.MONITOR_OP, new Subscription(new Identifier("sub" + i), requests),
+              listener);
+    }
+
+    updateHeaders.add(new UpdateHeader(new Time(System.currentTimeMillis()),
+            fixture.getProvider().getURI(),
+            UpdateType.UPDATE,
+            new EntityKey(new Identifier("param"), 1L, 0L, 0L)));
+    updates.add(new UInteger(42));
+  }
+
+  /**
+   * Closes the MAL context.
+   *
+   * @throws MALException on error.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws MALException
+  {
+    fixture.close();
+  }
+
+  /**
+   * One PUBLISH of a single update.
+   *
+   * @return the sent message.
+   * @throws MALInteractionException on error.
+   * @throws MALException on error.
+   */
+  @Benchmark
+  public MALMessage publish() throws MALInteractionException, MALException
+  {
+    return publisher.publish(updateHeaders, updates);
+  }
+
+  private static final class PublishListener implements MALPublishInteractionListener
+  {
+    @Override
+    public void publishRegisterAckReceived(final MALMessageHeader header, final Map qosProperties)
+            throws MALException
+    {
+      // nothing to do
+    }
+
+    @Override
+    public void publishRegisterErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body,
+            final Map qosProperties) throws MALException
+    {
+      // nothing to do
+    }
+
+    @Override
+    public void publishErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body,
+            final Map qosProperties) throws MALException
+    {
+      // nothing to do
+    }
+
+    @Override
+    public void publishDeregisterAckReceived(final MALMessageHeader header, final Map qosProperties)
+            throws MALException
+    {
+      // nothing to do
+    }
+  }
+}
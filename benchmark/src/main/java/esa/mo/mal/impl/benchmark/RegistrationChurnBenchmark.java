@@ -0,0 +1,161 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.benchmark;
+
+import esa.mo.mal.impl.broker.MALBrokerHandlerImpl;
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyQueue;
+import esa.mo.mal.impl.broker.indexed.IndexedBrokerHandler;
+import esa.mo.mal.impl.broker.sharded.ShardedBrokerHandler;
+import esa.mo.mal.impl.broker.simple.SimpleBrokerHandler;
+import esa.mo.mal.impl.util.DispatchExecutors;
+import esa.mo.mal.impl.util.MALClose;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a REGISTER and DEREGISTER in the broker handler alone, without any transport, for a consumer
+ * that already holds many subscriptions. Each benchmark operation adds one subscription, replaces it with different
+ * keys, and removes it again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationChurnBenchmark
+{
+  private static final int KEYS_PER_SUBSCRIPTION = 4;
+
+  /**
+   * The broker handler class.
+   */
+  @Param(
+          {
+            "simple", "indexed", "sharded"
+          })
+  public String handler;
+
+  /**
+   * Number of subscriptions already held by the consumer.
+   */
+  @Param(
+          {
+            "1000", "10000"
+          })
+  public int subscriptions;
+
+  private MALBrokerHandlerImpl brokerHandler;
+  private MALInteraction registerInteraction;
+  private MALInteraction deregisterInteraction;
+  private LoopbackMessageBody firstBody;
+  private LoopbackMessageBody secondBody;
+  private LoopbackMessageBody deregisterBody;
+
+  /**
+   * Creates the broker handler and registers the existing subscriptions of the consumer.
+   *
+   * @throws Exception on error.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    BenchmarkService.init();
+
+    MALBrokerImpl.LOGGER.setLevel(java.util.logging.Level.SEVERE);
+    System.setProperty(NotifyQueue.DISPATCH_PROPERTY, DispatchExecutors.INLINE);
+
+    final Class cls = "sharded".equals(handler) ? ShardedBrokerHandler.class
+            : "indexed".equals(handler) ? IndexedBrokerHandler.class : SimpleBrokerHandler.class;
+    brokerHandler = (MALBrokerHandlerImpl) cls.getConstructor(MALClose.class).newInstance((Object) null);
+
+    registerInteraction = BrokerInteraction.create("consumer", MALPubSubOperation.REGISTER_STAGE);
+    deregisterInteraction = BrokerInteraction.create("consumer", MALPubSubOperation.DEREGISTER_STAGE);
+
+    for (int s = 0; s < subscriptions; ++s)
+    {
+      brokerHandler.handleRegister(registerInteraction, createRegisterBody("sub" + s, "param" + s));
+    }
+
+    firstBody = createRegisterBody("churn", "churnA");
+    secondBody = createRegisterBody("churn", "churnB");
+
+    final IdentifierList ids = new IdentifierList();
+    ids.add(new Identifier("churn"));
+    deregisterBody = new LoopbackMessageBody(false, new Object[]
+    {
+      ids
+    });
+  }
+
+  /**
+   * Registers a subscription, replaces it, and deregisters it.
+   *
+   * @throws MALException on error.
+   * @throws MALInteractionException on error.
+   */
+  @Benchmark
+  public void churn() throws MALException, MALInteractionException
+  {
+    brokerHandler.handleRegister(registerInteraction, firstBody);
+    brokerHandler.handleRegister(registerInteraction, secondBody);
+    brokerHandler.handleDeregister(deregisterInteraction, deregisterBody);
+  }
+
+  private static LoopbackMessageBody createRegisterBody(final String subId, final String keyPrefix)
+  {
+    final EntityKeyList keys = new EntityKeyList();
+    for (int k = 0; k < KEYS_PER_SUBSCRIPTION; ++k)
+    {
+      keys.add(new EntityKey(new Identifier(keyPrefix + "_" + k), 0L, 0L, 0L));
+    }
+    final EntityRequestList requests = new EntityRequestList();
+    requests.add(new EntityRequest(null, false, false, false, false, keys));
+
+    return new LoopbackMessageBody(false, new Object[]
+    {
+      new Subscription(new Identifier(subId), requests)
+    });
+  }
+}
@@ -28,8 +28,16 @@ import esa.mo.mal.impl.state.OperationResponseHolder;
 import esa.mo.mal.impl.state.SubmitOperationHandler;
 import esa.mo.mal.impl.state.PubSubOperationHandler;
 import esa.mo.mal.impl.state.ProgressOperationHandler;
-import java.util.HashMap;
+import esa.mo.mal.impl.util.DispatchExecutors;
+import esa.mo.mal.impl.util.HashedWheelTimer;
+import esa.mo.mal.impl.util.StructureHelper;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.*;
 import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
@@ -46,246 +54,347 @@ import org.ccsds.moims.mo.mal.transport.*;
  *
  * When a new interaction is created, an interaction handler class is created which is responsible for ensuring the correct stages
  * are received in the correct order.
+ *
+ * The maps are concurrent so that unrelated transactions never contend, the stages of a single transaction are serialised
+ * on its handler.
+ *
+ * Interactions can be given a deadline, in milliseconds, with the TIMEOUT_PROPERTY either in the QoS properties of the
+ * consumer or in the properties of the MAL context (or as a system property). An interaction that has not completed by
+ * its deadline is removed by a timer wheel and the listener, or the blocked caller, receives a DELIVERY_TIMEDOUT error.
+ * The error is reported on a separate thread so that a slow listener does not hold up the other deadlines.
  */
 class InteractionConsumerMap
 {
-  private final Map<Long, BaseOperationHandler> transMap
-          = new HashMap<Long, BaseOperationHandler>();
-
-  private final Map<Long, OperationResponseHolder> syncOpResponseMap
-          = new HashMap<Long, OperationResponseHolder>();
+  /**
+   * The property that holds the interaction deadline in milliseconds, zero or not present means no deadline.
+   */
+  static final String TIMEOUT_PROPERTY = "org.ccsds.moims.mo.mal.interaction.timeout";
+  private static final long TIMER_TICK_MILLIS = 10;
+  private static final int TIMER_WHEEL_SIZE = 1024;
+
+  private final long defaultTimeout;
+  private final HashedWheelTimer timer = new HashedWheelTimer("MAL interaction deadlines",
+          TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE);
+  private final ExecutorService expiryExecutor = Executors.newCachedThreadPool(
+          DispatchExecutors.daemonThreadFactory("MAL interaction expiry"));
+  private final AtomicLong expiredCount = new AtomicLong();
+
+  private final ConcurrentMap<Long, BaseOperationHandler> transMap
+          = new ConcurrentHashMap<Long, BaseOperationHandler>();
+
+  private final ConcurrentMap<Long, OperationResponseHolder> syncOpResponseMap
+          = new ConcurrentHashMap<Long, OperationResponseHolder>();
+
+  /**
+   * Constructor.
+   *
+   * @param properties The properties of the MAL context, may be null.
+   */
+  InteractionConsumerMap(final Map properties)
+  {
+    this.defaultTimeout = StructureHelper.getLongProperty(properties, TIMEOUT_PROPERTY,
+            StructureHelper.getLongProperty(System.getProperties(), TIMEOUT_PROPERTY, 0));
+  }
 
   Long createTransaction(final int interactionType,
           final boolean syncOperation,
           final MALInteractionListener listener) throws MALInteractionException
   {
-    synchronized (transMap)
+    BaseOperationHandler handler = null;
+    OperationResponseHolder responseHandler = new OperationResponseHolder(listener);
+
+    switch (interactionType)
     {
-      final Long oTransId = InteractionTransaction.getTransactionId(transMap.keySet());
+      case InteractionType._SEND_INDEX:
+        // do nothing as no handler is required for SEND interaction
+        break;
+      case InteractionType._SUBMIT_INDEX:
+        handler = new SubmitOperationHandler(syncOperation, responseHandler);
+        break;
+      case InteractionType._REQUEST_INDEX:
+        handler = new RequestOperationHandler(syncOperation, responseHandler);
+        break;
+      case InteractionType._INVOKE_INDEX:
+        handler = new InvokeOperationHandler(syncOperation, responseHandler);
+        break;
+      case InteractionType._PROGRESS_INDEX:
+        handler = new ProgressOperationHandler(syncOperation, responseHandler);
+        break;
+      case InteractionType._PUBSUB_INDEX:
+        handler = new PubSubOperationHandler(syncOperation, responseHandler);
+        break;
+      default:
+        throw new MALInteractionException(new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER,
+                new Union("Pattern not supported")));
+    }
 
-      BaseOperationHandler handler = null;
-      OperationResponseHolder responseHandler = new OperationResponseHolder(listener);
+    if (null == handler)
+    {
+      return InteractionTransaction.getTransactionId();
+    }
 
-      switch (interactionType)
-      {
-        case InteractionType._SEND_INDEX:
-          // do nothing as no handler is required for SEND interaction
-          break;
-        case InteractionType._SUBMIT_INDEX:
-          handler = new SubmitOperationHandler(syncOperation, responseHandler);
-          break;
-        case InteractionType._REQUEST_INDEX:
-          handler = new RequestOperationHandler(syncOperation, responseHandler);
-          break;
-        case InteractionType._INVOKE_INDEX:
-          handler = new InvokeOperationHandler(syncOperation, responseHandler);
-          break;
-        case InteractionType._PROGRESS_INDEX:
-          handler = new ProgressOperationHandler(syncOperation, responseHandler);
-          break;
-        case InteractionType._PUBSUB_INDEX:
-          handler = new PubSubOperationHandler(syncOperation, responseHandler);
-          break;
-        default:
-          throw new MALInteractionException(new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER,
-                  new Union("Pattern not supported")));
-      }
+    return addTransaction(handler, syncOperation, responseHandler);
+  }
 
-      if (null != handler)
-      {
-        transMap.put(oTransId, handler);
+  Long createTransaction(final boolean syncOperation, final MALPublishInteractionListener listener)
+  {
+    OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
 
-        if (syncOperation)
-        {
-          synchronized (syncOpResponseMap)
-          {
-            syncOpResponseMap.put(oTransId, responseHandler);
-          }
-        }
-      }
+    return addTransaction(new PubSubOperationHandler(syncOperation, responseHolder), syncOperation, responseHolder);
+  }
 
-      return oTransId;
+  void continueTransaction(final int interactionType,
+          final UOctet lastInteractionStage,
+          final Long oTransId,
+          final MALInteractionListener listener) throws MALException, MALInteractionException
+  {
+    BaseOperationHandler handler = null;
+    OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
+
+    switch (interactionType)
+    {
+      case InteractionType._SUBMIT_INDEX:
+        handler = new SubmitOperationHandler(responseHolder);
+        break;
+      case InteractionType._REQUEST_INDEX:
+        handler = new RequestOperationHandler(responseHolder);
+        break;
+      case InteractionType._INVOKE_INDEX:
+        handler = new InvokeOperationHandler(lastInteractionStage, responseHolder);
+        break;
+      case InteractionType._PROGRESS_INDEX:
+        handler = new ProgressOperationHandler(lastInteractionStage, responseHolder);
+        break;
+      case InteractionType._PUBSUB_INDEX:
+        handler = new PubSubOperationHandler(responseHolder);
+        break;
+      default:
+        throw new MALInteractionException(new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER,
+                new Union("Pattern not supported")));
+    }
+
+    if (null != transMap.putIfAbsent(oTransId, handler))
+    {
+      throw new MALException("Transaction Id already in use and cannot be continued");
     }
   }
 
-  Long createTransaction(final boolean syncOperation, final MALPublishInteractionListener listener)
+  MALMessage waitForResponse(final Long id) throws MALInteractionException, MALException
   {
-    synchronized (transMap)
+    final OperationResponseHolder holder = syncOpResponseMap.get(id);
+
+    if (null == holder)
     {
-      final Long oTransId = InteractionTransaction.getTransactionId(transMap.keySet());
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "No key found in service maps to wait for response! {0}", id);
+      return null;
+    }
 
-      OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
-      transMap.put(oTransId, new PubSubOperationHandler(syncOperation, responseHolder));
+    // wait for the bat signal
+    holder.waitForResponseSignal();
 
-      if (syncOperation)
-      {
-        synchronized (syncOpResponseMap)
-        {
-          syncOpResponseMap.put(oTransId, responseHolder);
-        }
-      }
+    // delete entry from trans map
+    MALContextFactoryImpl.LOGGER.log(Level.FINE, "Removing handler from sync service map: {0}", id);
+    syncOpResponseMap.remove(id);
 
-      return oTransId;
-    }
+    // must have value now
+    return holder.getResult();
   }
 
-  void continueTransaction(final int interactionType,
-          final UOctet lastInteractionStage,
-          final Long oTransId,
-          final MALInteractionListener listener) throws MALException, MALInteractionException
+  void handleStage(final MALMessage msg) throws MALInteractionException, MALException
   {
-    synchronized (transMap)
+    final Long id = msg.getHeader().getTransactionId();
+    final BaseOperationHandler handler = transMap.get(id);
+
+    if (null == handler)
     {
-      if (transMap.containsKey(oTransId))
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "No key found in service maps to get listener! {0} {1}", new Object[]
       {
-        throw new MALException("Transaction Id already in use and cannot be continued");
-      }
+        id, msg.getHeader()
+      });
+      return;
+    }
 
-      BaseOperationHandler handler = null;
-      OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
+    // stages of the same transaction are serialised on the handler, unrelated transactions do not contend
+    handler.lock();
+    try
+    {
+      final MessageHandlerDetails dets = handler.handleStage(msg);
 
-      switch (interactionType)
+      // delete entry from trans map
+      if (handler.finished())
       {
-        case InteractionType._SUBMIT_INDEX:
-          handler = new SubmitOperationHandler(responseHolder);
-          break;
-        case InteractionType._REQUEST_INDEX:
-          handler = new RequestOperationHandler(responseHolder);
-          break;
-        case InteractionType._INVOKE_INDEX:
-          handler = new InvokeOperationHandler(lastInteractionStage, responseHolder);
-          break;
-        case InteractionType._PROGRESS_INDEX:
-          handler = new ProgressOperationHandler(lastInteractionStage, responseHolder);
-          break;
-        case InteractionType._PUBSUB_INDEX:
-          handler = new PubSubOperationHandler(responseHolder);
-          break;
-        default:
-          throw new MALInteractionException(new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER,
-                  new Union("Pattern not supported")));
+        MALContextFactoryImpl.LOGGER.log(Level.FINE, "Removing handler from service maps: {0}", id);
+        transMap.remove(id, handler);
+        handler.cancelDeadline();
       }
 
-      transMap.put(oTransId, handler);
+      handler.processStage(dets);
+    }
+    finally
+    {
+      handler.unlock();
     }
   }
 
-  MALMessage waitForResponse(final Long id) throws MALInteractionException, MALException
+  void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
   {
-    OperationResponseHolder holder = null;
+    final Long id = hdr.getTransactionId();
+    final BaseOperationHandler handler = transMap.remove(id);
 
-    synchronized (syncOpResponseMap)
+    if (null == handler)
     {
-      if (syncOpResponseMap.containsKey(id))
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "No key found in service maps to get listener! {0} {1}", new Object[]
       {
-        holder = syncOpResponseMap.get(id);
-      }
-      else
-      {
-        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "No key found in service maps to wait for response! {0}", id);
-      }
+        id, hdr
+      });
+      return;
     }
 
-    MALMessage retVal = null;
+    MALContextFactoryImpl.LOGGER.log(Level.FINE, "Removed handler from service maps: {0}", id);
+    handler.cancelDeadline();
 
-    // do the wait
-    if (null != holder)
+    handler.lock();
+    try
+    {
+      handler.handleError(hdr, err, qosMap);
+    }
+    finally
     {
-      // wait for the bat signal
-      holder.waitForResponseSignal();
+      handler.unlock();
+    }
+  }
 
-      // delete entry from trans map
-      synchronized (syncOpResponseMap)
-      {
-        MALContextFactoryImpl.LOGGER.log(Level.FINE, "Removing handler from sync service map: {0}", id);
-        syncOpResponseMap.remove(id);
-      }
+  /**
+   * Starts the deadline of a sent interaction, if it has one. Should the interaction already have completed nothing
+   * is done.
+   *
+   * @param hdr The header of the initiating message.
+   * @param qosProperties The QoS properties of the consumer, may override the context deadline.
+   */
+  void startDeadline(final MALMessageHeader hdr, final Map qosProperties)
+  {
+    final long timeout = StructureHelper.getLongProperty(qosProperties, TIMEOUT_PROPERTY, defaultTimeout);
+
+    if (0 < timeout)
+    {
+      final Long id = hdr.getTransactionId();
+      final BaseOperationHandler handler = transMap.get(id);
 
-      synchronized (holder)
+      if (null != handler)
       {
-        // must have value now
-        retVal = holder.getResult();
+        handler.setDeadline(timer.schedule(new DeadlineTask(id, handler, hdr, qosProperties), timeout));
       }
     }
+  }
 
-    return retVal;
+  /**
+   * Returns the number of interactions that have been removed because their deadline passed.
+   *
+   * @return the count.
+   */
+  long getExpiredTransactionCount()
+  {
+    return expiredCount.get();
   }
 
-  void handleStage(final MALMessage msg) throws MALInteractionException, MALException
+  /**
+   * Stops the deadline timer.
+   */
+  void close()
   {
-    final Long id = msg.getHeader().getTransactionId();
-    BaseOperationHandler handler = null;
-    MessageHandlerDetails dets = null;
+    timer.stop();
+    expiryExecutor.shutdown();
+  }
 
-    synchronized (transMap)
+  private void expireTransaction(final Long id,
+          final BaseOperationHandler handler,
+          final MALMessageHeader hdr,
+          final Map qosMap)
+  {
+    // only expire it if it is still the same pending interaction
+    if (transMap.remove(id, handler))
     {
-      if (transMap.containsKey(id))
-      {
-        handler = transMap.get(id);
-      }
-      else
+      expiredCount.incrementAndGet();
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Interaction deadline passed, removing transaction: {0} {1}",
+              new Object[]
+              {
+                id, hdr.getURITo()
+              });
+
+      try
       {
-        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "No key found in service maps to get listener! {0} {1}", new Object[]
+        // the handler may be busy and the listener slow, neither should hold up the wheel thread
+        expiryExecutor.execute(new Runnable()
         {
-          id, msg.getHeader()
+          @Override
+          public void run()
+          {
+            reportExpiry(handler, hdr, qosMap);
+          }
         });
       }
-
-      if (null != handler)
+      catch (RejectedExecutionException ex)
       {
-        dets = handler.handleStage(msg);
-
-        // delete entry from trans map
-        if (handler.finished())
-        {
-          MALContextFactoryImpl.LOGGER.log(Level.FINE, "Removing handler from service maps: {0}", id);
-          transMap.remove(id);
-        }
+        MALContextFactoryImpl.LOGGER.log(Level.FINE, "Context closed, not reporting expired transaction: {0}", id);
       }
     }
+  }
 
-    if (null != handler)
+  private static void reportExpiry(final BaseOperationHandler handler,
+          final MALMessageHeader hdr,
+          final Map qosMap)
+  {
+    handler.lock();
+    try
     {
-      synchronized (handler)
-      {
-        handler.processStage(dets);
-      }
+      handler.handleError(hdr, new MALStandardError(MALHelper.DELIVERY_TIMEDOUT_ERROR_NUMBER,
+              new Union("Interaction deadline passed")), qosMap);
+    }
+    finally
+    {
+      handler.unlock();
     }
   }
 
-  void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
+  private Long addTransaction(final BaseOperationHandler handler,
+          final boolean syncOperation,
+          final OperationResponseHolder responseHolder)
   {
-    final Long id = hdr.getTransactionId();
-    BaseOperationHandler handler = null;
+    Long oTransId;
 
-    synchronized (transMap)
+    // generated ids are unique, but a continued transaction may have claimed one with an externally supplied id
+    do
     {
-      if (transMap.containsKey(id))
-      {
-        handler = transMap.get(id);
-      }
-      else
-      {
-        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "No key found in service maps to get listener! {0} {1}", new Object[]
-        {
-          id, hdr
-        });
-      }
+      oTransId = InteractionTransaction.getTransactionId();
+    } while (null != transMap.putIfAbsent(oTransId, handler));
 
-      if (null != handler)
-      {
-        // delete entry from trans map
-        MALContextFactoryImpl.LOGGER.log(Level.FINE, "Removing handler from service maps: {0}", id);
-        transMap.remove(id);
-      }
+    if (syncOperation)
+    {
+      syncOpResponseMap.put(oTransId, responseHolder);
+    }
+
+    return oTransId;
+  }
+
+  private final class DeadlineTask implements Runnable
+  {
+    private final Long id;
+    private final BaseOperationHandler handler;
+    private final MALMessageHeader hdr;
+    private final Map qosMap;
+
+    DeadlineTask(final Long id, final BaseOperationHandler handler, final MALMessageHeader hdr, final Map qosMap)
+    {
+      this.id = id;
+      this.handler = handler;
+      this.hdr = hdr;
+      this.qosMap = qosMap;
     }
 
-    if (null != handler)
+    @Override
+    public void run()
     {
-      synchronized (handler)
-      {
-        handler.handleError(hdr, err, qosMap);
-      }
+      expireTransaction(id, handler, hdr, qosMap);
     }
   }
 }
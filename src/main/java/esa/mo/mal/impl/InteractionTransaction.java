@@ -20,7 +20,7 @@
  */
 package esa.mo.mal.impl;
 
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Singleton class that holds the transaction id counter used by the interaction maps.
@@ -35,46 +35,63 @@ abstract class InteractionTransaction
    * 
    * The transaction number is made up as follows:
    * <-- 40bits of time to millisecond resolution | 8 bits of RNG | 16 bits of transaction counter -->
+   *
+   * Ids are handed out from a single counter that only moves forward, so they are unique without any locking. Each
+   * thread takes a block of ids from the counter with one compare and set and then works through the block on its
+   * own. When a block is taken the counter is moved up to the current time magnitude if it has fallen behind it, so
+   * the time part stays close to the wall clock. Should more than 65536 ids be taken within one millisecond the
+   * counter simply carries into the RNG bits, the ids stay unique and increasing.
    */
   private static final long MAL_EPOCH = 1283299200000L;
-  private static final long MAX_OFFSET = 65535L;
   private static final long RANDOM_MASK = 0xFFL;
-
-  private static volatile long transMag;
-  private static volatile long transOffset;
+  private static final int BLOCK_SIZE = 64;
+  private static final long RANDOM_BITS = ((System.nanoTime()) & RANDOM_MASK) << 16;
+  private static final AtomicLong LAST_ISSUED = new AtomicLong(calculateTransactionIdMagnitude());
+  private static final ThreadLocal<long[]> THREAD_BLOCK = new ThreadLocal<long[]>()
+  {
+    @Override
+    protected long[] initialValue()
+    {
+      // next id to hand out, end of the block (exclusive)
+      return new long[2];
+    }
+  };
 
   private InteractionTransaction()
   {
   }
 
-  static
+  static Long getTransactionId()
   {
-    recalculateTransactionIdMagnitude();
+    final long[] block = THREAD_BLOCK.get();
+
+    if (block[0] >= block[1])
+    {
+      reserveBlock(block);
+    }
+
+    return block[0]++;
   }
 
-  static synchronized Long getTransactionId(Set<Long> keySet)
+  private static void reserveBlock(final long[] block)
   {
-    long lt;
-
-    do
+    while (true)
     {
-      ++transOffset;
+      final long last = LAST_ISSUED.get();
+      final long start = Math.max(last, calculateTransactionIdMagnitude());
+      final long end = start + BLOCK_SIZE;
 
-      if (transOffset > MAX_OFFSET)
+      if (LAST_ISSUED.compareAndSet(last, end))
       {
-        recalculateTransactionIdMagnitude();
+        block[0] = start + 1;
+        block[1] = end + 1;
+        return;
       }
-
-      lt = transMag + transOffset;
-    } while (keySet.contains(lt));
-
-    return lt;
+    }
   }
 
-  private static void recalculateTransactionIdMagnitude()
+  private static long calculateTransactionIdMagnitude()
   {
-    transMag = (System.currentTimeMillis() - MAL_EPOCH) << 24;
-    transMag += ((System.nanoTime()) & RANDOM_MASK) << 16;
-    transOffset = 0;
+    return ((System.currentTimeMillis() - MAL_EPOCH) << 24) + RANDOM_BITS;
   }
 }
@@ -47,7 +47,7 @@ public class MALContextImpl extends MALClose implements MALContext
 {
   private final Map initialProperties;
   private final MALAccessControl securityManager;
-  private final InteractionConsumerMap icmap = new InteractionConsumerMap();
+  private final InteractionConsumerMap icmap;
   private final InteractionPubSubMap ipsmap = new InteractionPubSubMap();
   private final Map<String, MALBrokerBindingImpl> brokerBindingMap = new HashMap<String, MALBrokerBindingImpl>();
   private final MessageReceive receiver;
@@ -64,6 +64,7 @@ public class MALContextImpl extends MALClose implements MALContext
     super(null);
 
     initialProperties = properties;
+    icmap = new InteractionConsumerMap(initialProperties);
 
     if (null != securityFactory)
     {
@@ -75,7 +76,7 @@ public class MALContextImpl extends MALClose implements MALContext
     }
 
     sender = new MessageSend(securityManager, icmap, ipsmap);
-    receiver = new MessageReceive(sender, securityManager, icmap, ipsmap, brokerBindingMap);
+    receiver = new MessageReceive(sender, securityManager, icmap, ipsmap, brokerBindingMap, initialProperties);
   }
 
   @Override
@@ -119,6 +120,8 @@ public class MALContextImpl extends MALClose implements MALContext
   {
     super.close();
 
+    receiver.close();
+    icmap.close();
     esa.mo.mal.impl.transport.TransportSingleton.close();
   }
 
@@ -149,6 +152,16 @@ public class MALContextImpl extends MALClose implements MALContext
     return receiver;
   }
 
+  /**
+   * Returns the number of consumer interactions that have been removed because their deadline passed.
+   *
+   * @return the count of expired interactions.
+   */
+  public long getExpiredInteractionCount()
+  {
+    return icmap.getExpiredTransactionCount();
+  }
+
   /**
    * Returns the active security manager.
    * @return the security manager.
@@ -21,48 +21,120 @@
 package esa.mo.mal.impl;
 
 import esa.mo.mal.impl.broker.MALBrokerBindingImpl;
+import esa.mo.mal.impl.consumer.MALNotifyBatchListener;
 import esa.mo.mal.impl.patterns.InvokeInteractionImpl;
 import esa.mo.mal.impl.patterns.ProgressInteractionImpl;
 import esa.mo.mal.impl.patterns.PubSubInteractionImpl;
 import esa.mo.mal.impl.patterns.RequestInteractionImpl;
 import esa.mo.mal.impl.patterns.SendInteractionImpl;
 import esa.mo.mal.impl.patterns.SubmitInteractionImpl;
+import esa.mo.mal.impl.util.DispatchExecutors;
+import esa.mo.mal.impl.util.OperationCache;
+import esa.mo.mal.impl.util.OrderedExecutor;
+import esa.mo.mal.impl.util.StructureHelper;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.*;
 import org.ccsds.moims.mo.mal.accesscontrol.MALAccessControl;
 import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
 import org.ccsds.moims.mo.mal.provider.*;
+import org.ccsds.moims.mo.mal.structures.Identifier;
 import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
 import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
 import org.ccsds.moims.mo.mal.structures.Union;
 import org.ccsds.moims.mo.mal.transport.*;
 
 /**
  * This class is the main class for handling received messages.
+ *
+ * By default the provider handlers are called on the transport thread that delivered the message. The DISPATCH_PROPERTY
+ * of the MAL context (or a system property of the same name) may instead select that the initial stage of SEND, SUBMIT,
+ * REQUEST, INVOKE and PROGRESS interactions is handed to a virtual thread ("virtual") or to a fixed pool of the given
+ * number of threads, so that a slow provider handler does not stall the other messages of the endpoint. Dispatched
+ * messages may then be processed in a different order to that in which they were received.
+ *
+ * Batches of messages passed to onMessages are processed one after another unless the PARALLELISM_PROPERTY gives a
+ * number of lanes, in which case the messages of a batch are spread over the lanes by an ordering key and onMessages
+ * returns once the whole batch has been processed. Messages with the same key are processed in the order received, the
+ * key being the transaction for consumer stages, the source URI and service for provider and broker stages, and the
+ * destination URI and operation for NOTIFY messages and the REGISTER_ACK and DEREGISTER_ACK messages of the consumer
+ * (which keeps every subscription of that consumer in order, with its acknowledgements).
+ *
+ * The NOTIFY messages of a batch are gathered per subscription, their listener is looked up once and they are passed
+ * to it together if it implements MALNotifyBatchListener.
  */
 public class MessageReceive implements MALMessageListener
 {
+  /**
+   * The property that selects how provider handlers are called: inline, virtual or a thread pool size.
+   */
+  public static final String DISPATCH_PROPERTY = "org.ccsds.moims.mo.mal.provider.dispatch";
+  /**
+   * The property that holds the number of lanes used to process a batch of messages in parallel, zero or not present
+   * means batches are processed sequentially.
+   */
+  public static final String PARALLELISM_PROPERTY = "org.ccsds.moims.mo.mal.receive.parallelism";
+  private static final int KEY_HASH_VALUE = 31;
   private final MessageSend sender;
   private final MALAccessControl securityManager;
   private final InteractionConsumerMap icmap;
   private final Map<String, MALBrokerBindingImpl> brokerBindingMap;
-  private final Map<EndPointPair, Address> providerEndpointMap = new HashMap();
+  private final ProviderEndpointRegistry providerEndpoints = new ProviderEndpointRegistry();
   private final InteractionPubSubMap ipsmap;
+  private final ExecutorService providerExecutor;
+  private final OrderedExecutor batchExecutor;
 
   MessageReceive(final MessageSend sender,
           final MALAccessControl securityManager,
           final InteractionConsumerMap imap,
           final InteractionPubSubMap psmap,
-          final Map<String, MALBrokerBindingImpl> brokerBindingMap)
+          final Map<String, MALBrokerBindingImpl> brokerBindingMap,
+          final Map properties)
   {
     this.sender = sender;
     this.securityManager = securityManager;
     this.icmap = imap;
     this.ipsmap = psmap;
     this.brokerBindingMap = brokerBindingMap;
+
+    Object mode = (null == properties) ? null : properties.get(DISPATCH_PROPERTY);
+    if (null == mode)
+    {
+      mode = System.getProperty(DISPATCH_PROPERTY);
+    }
+
+    this.providerExecutor = DispatchExecutors.createExecutor((null == mode) ? null : mode.toString(),
+            "MAL provider dispatch");
+
+    final long lanes = StructureHelper.getLongProperty(properties, PARALLELISM_PROPERTY,
+            StructureHelper.getLongProperty(System.getProperties(), PARALLELISM_PROPERTY, 0));
+    this.batchExecutor = (0 < lanes) ? new OrderedExecutor("MAL receive", (int) lanes) : null;
+  }
+
+  /**
+   * Stops the provider dispatch and batch executors, if there are any. Work already dispatched is allowed to complete.
+   */
+  void close()
+  {
+    if (null != providerExecutor)
+    {
+      providerExecutor.shutdown();
+    }
+
+    if (null != batchExecutor)
+    {
+      batchExecutor.shutdown();
+    }
   }
 
   @Override
@@ -85,9 +157,62 @@ public class MessageReceive implements MALMessageListener
   @Override
   public void onMessages(final MALEndpoint callingEndpoint, final MALMessage[] msgList)
   {
-    for (MALMessage msgList1 : msgList)
+    if ((2 > msgList.length) || ((null == batchExecutor) && !containsNotify(msgList)))
+    {
+      for (MALMessage msgList1 : msgList)
+      {
+        onMessage(callingEndpoint, msgList1);
+      }
+
+      return;
+    }
+
+    final List<BatchItem> items = groupBatch(callingEndpoint, msgList);
+
+    if (null == batchExecutor)
+    {
+      for (BatchItem item : items)
+      {
+        item.process();
+      }
+
+      return;
+    }
+
+    final CountDownLatch remaining = new CountDownLatch(items.size());
+
+    for (BatchItem item : items)
+    {
+      final Runnable task = new BatchMessageTask(item, remaining);
+
+      try
+      {
+        batchExecutor.execute(item.orderingKey(), task);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        // context is closing, process it here instead
+        task.run();
+      }
+    }
+
+    boolean interrupted = false;
+
+    while (0 < remaining.getCount())
     {
-      onMessage(callingEndpoint, msgList1);
+      try
+      {
+        remaining.await();
+      }
+      catch (InterruptedException ex)
+      {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted)
+    {
+      Thread.currentThread().interrupt();
     }
   }
 
@@ -119,14 +244,14 @@ public class MessageReceive implements MALMessageListener
       {
         case InteractionType._SEND_INDEX:
           address = lookupAddress(callingEndpoint, msg);
-          internalHandleSend(msg, address);
+          dispatchProviderStage(callingEndpoint, msg, address);
           break;
         case InteractionType._SUBMIT_INDEX:
           switch (stage)
           {
             case MALSubmitOperation._SUBMIT_STAGE:
               address = lookupAddress(callingEndpoint, msg);
-              internalHandleSubmit(msg, address);
+              dispatchProviderStage(callingEndpoint, msg, address);
               break;
             case MALSubmitOperation._SUBMIT_ACK_STAGE:
               icmap.handleStage(msg);
@@ -140,7 +265,7 @@ public class MessageReceive implements MALMessageListener
           {
             case MALRequestOperation._REQUEST_STAGE:
               address = lookupAddress(callingEndpoint, msg);
-              internalHandleRequest(msg, address);
+              dispatchProviderStage(callingEndpoint, msg, address);
               break;
             case MALRequestOperation._REQUEST_RESPONSE_STAGE:
               icmap.handleStage(msg);
@@ -154,7 +279,7 @@ public class MessageReceive implements MALMessageListener
           {
             case MALInvokeOperation._INVOKE_STAGE:
               address = lookupAddress(callingEndpoint, msg);
-              internalHandleInvoke(msg, address);
+              dispatchProviderStage(callingEndpoint, msg, address);
               break;
             case MALInvokeOperation._INVOKE_ACK_STAGE:
             case MALInvokeOperation._INVOKE_RESPONSE_STAGE:
@@ -169,7 +294,7 @@ public class MessageReceive implements MALMessageListener
           {
             case MALProgressOperation._PROGRESS_STAGE:
               address = lookupAddress(callingEndpoint, msg);
-              internalHandleProgress(msg, address);
+              dispatchProviderStage(callingEndpoint, msg, address);
               break;
             case MALProgressOperation._PROGRESS_ACK_STAGE:
             case MALProgressOperation._PROGRESS_UPDATE_STAGE:
@@ -223,66 +348,337 @@ public class MessageReceive implements MALMessageListener
     }
     catch (MALInteractionException ex)
     {
-      // try to determine address info if null
-      if (null == address)
+      returnInteractionError(callingEndpoint, msg, address, ex);
+    }
+    catch (MALException ex)
+    {
+      returnError(callingEndpoint, msg, address, ex);
+    }
+  }
+
+  private static boolean isNotify(final MALMessageHeader hdr)
+  {
+    return (InteractionType._PUBSUB_INDEX == hdr.getInteractionType().getOrdinal())
+            && (null != hdr.getInteractionStage())
+            && (MALPubSubOperation._NOTIFY_STAGE == hdr.getInteractionStage().getValue())
+            && !hdr.getIsErrorMessage();
+  }
+
+  private static boolean containsNotify(final MALMessage[] msgList)
+  {
+    for (MALMessage msg : msgList)
+    {
+      if (isNotify(msg.getHeader()))
       {
-        address = lookupAddress(callingEndpoint, msg);
+        return true;
       }
+    }
 
-      final UOctet rspnInteractionStage = calculateReturnStage(msg.getHeader());
+    return false;
+  }
 
-      if (null == rspnInteractionStage)
+  /**
+   * Splits a batch into the items to process, NOTIFY messages of the same subscription are gathered into one item at
+   * the position of the first of them, every other message is an item of its own. Any other message for the same
+   * consumer, such as a NOTIFY error or a DEREGISTER_ACK, closes the groups of that consumer so that the NOTIFY
+   * messages after it are not delivered before it.
+   */
+  private List<BatchItem> groupBatch(final MALEndpoint callingEndpoint, final MALMessage[] msgList)
+  {
+    final List<BatchItem> items = new ArrayList<BatchItem>(msgList.length);
+    Map<StringPair, NotifyGroup> groups = null;
+
+    for (MALMessage msg : msgList)
+    {
+      if (isNotify(msg.getHeader()))
       {
-        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unable to return error, already a return message ({0})", ex);
+        final MALMessage checked;
+
+        try
+        {
+          checked = securityManager.check(msg);
+        }
+        catch (MALInteractionException ex)
+        {
+          // the failure is passed on rather than checked again
+          closeGroups(groups, msg.getHeader().getURITo());
+          items.add(new FailedMessage(callingEndpoint, msg, ex));
+          continue;
+        }
+
+        final Identifier subId;
+
+        try
+        {
+          subId = ((MALNotifyBody) checked.getBody()).getSubscriptionId();
+        }
+        catch (MALException ex)
+        {
+          closeGroups(groups, msg.getHeader().getURITo());
+          items.add(new FailedMessage(callingEndpoint, checked, ex));
+          continue;
+        }
+
+        final StringPair key = new StringPair(checked.getHeader().getURITo().getValue(), subId.getValue());
+
+        if (null == groups)
+        {
+          groups = new HashMap<StringPair, NotifyGroup>();
+        }
+
+        NotifyGroup group = groups.get(key);
+
+        if (null == group)
+        {
+          group = new NotifyGroup(checked.getHeader().getURITo(), subId);
+          groups.put(key, group);
+          items.add(group);
+        }
+
+        group.messages.add(checked);
       }
       else
       {
-        sender.returnError(address,
-                msg.getHeader(),
-                rspnInteractionStage,
-                ex.getStandardError());
+        closeGroups(groups, msg.getHeader().getURITo());
+        items.add(new SingleMessage(callingEndpoint, msg));
       }
     }
-    catch (MALException ex)
+
+    return items;
+  }
+
+  /**
+   * Stops adding to the NOTIFY groups of a consumer, later NOTIFY messages start new groups.
+   */
+  private static void closeGroups(final Map<StringPair, NotifyGroup> groups, final URI uriTo)
+  {
+    if ((null != groups) && (null != uriTo))
+    {
+      final Iterator<StringPair> it = groups.keySet().iterator();
+
+      while (it.hasNext())
+      {
+        if (uriTo.getValue().equals(it.next().first))
+        {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  private void deliverNotifies(final URI uriTo, final Identifier subId, final List<MALMessage> notifies)
+  {
+    final MALInteractionListener rcv = ipsmap.getNotifyListener(uriTo, subId);
+
+    if (null == rcv)
     {
-      // try to determine address info if null
-      if (null == address)
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unknown notify consumer requested: {0}", uriTo);
+      return;
+    }
+
+    if (rcv instanceof MALNotifyBatchListener)
+    {
+      try
       {
-        address = lookupAddress(callingEndpoint, msg);
+        ((MALNotifyBatchListener) rcv).notifyBatchReceived(notifies);
+      }
+      catch (MALException ex)
+      {
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                "Error generated during handling of NOTIFY message, dropping: {0}", ex);
       }
 
-      final UOctet rspnInteractionStage = calculateReturnStage(msg.getHeader());
+      return;
+    }
 
-      if (null == rspnInteractionStage)
+    for (MALMessage msg : notifies)
+    {
+      try
       {
-        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unable to return error, already a return message ({0})", ex);
+        rcv.notifyReceived(msg.getHeader(), (MALNotifyBody) msg.getBody(), msg.getQoSProperties());
       }
-      else
+      catch (MALException ex)
       {
-        sender.returnError(address, msg.getHeader(), rspnInteractionStage, ex);
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                "Error generated during handling of NOTIFY message, dropping: {0}", ex);
       }
     }
   }
 
-  void registerProviderEndpoint(final String localURI, final MALService service, final Address address)
+  private static int orderingKey(final MALMessageHeader hdr)
   {
-    final EndPointPair key = new EndPointPair(localURI, service);
+    final short stage = (null == hdr.getInteractionStage()) ? -1 : hdr.getInteractionStage().getValue();
 
-    if (!providerEndpointMap.containsKey(key))
+    switch (hdr.getInteractionType().getOrdinal())
     {
-      MALContextFactoryImpl.LOGGER.log(Level.FINE, "registerProviderEndpoint for {0}", key);
-      providerEndpointMap.put(key, address);
+      case InteractionType._SEND_INDEX:
+        return sourceKey(hdr);
+      case InteractionType._SUBMIT_INDEX:
+        return (MALSubmitOperation._SUBMIT_STAGE == stage) ? sourceKey(hdr) : transactionKey(hdr);
+      case InteractionType._REQUEST_INDEX:
+        return (MALRequestOperation._REQUEST_STAGE == stage) ? sourceKey(hdr) : transactionKey(hdr);
+      case InteractionType._INVOKE_INDEX:
+        return (MALInvokeOperation._INVOKE_STAGE == stage) ? sourceKey(hdr) : transactionKey(hdr);
+      case InteractionType._PROGRESS_INDEX:
+        return (MALProgressOperation._PROGRESS_STAGE == stage) ? sourceKey(hdr) : transactionKey(hdr);
+      case InteractionType._PUBSUB_INDEX:
+        switch (stage)
+        {
+          case MALPubSubOperation._PUBLISH_REGISTER_ACK_STAGE:
+          case MALPubSubOperation._PUBLISH_DEREGISTER_ACK_STAGE:
+            return transactionKey(hdr);
+          case MALPubSubOperation._REGISTER_ACK_STAGE:
+          case MALPubSubOperation._DEREGISTER_ACK_STAGE:
+          case MALPubSubOperation._NOTIFY_STAGE:
+            // the acknowledgements of a subscription share the lane of its NOTIFY messages so they stay in order
+            return notifyKey(hdr);
+          default:
+            return sourceKey(hdr);
+        }
+      default:
+        return 0;
     }
   }
 
-  void deregisterProviderEndpoint(final String localURI, final MALService service)
+  private static int transactionKey(final MALMessageHeader hdr)
+  {
+    final Long transId = hdr.getTransactionId();
+
+    return (null == transId) ? 0 : transId.hashCode();
+  }
+
+  private static int sourceKey(final MALMessageHeader hdr)
   {
-    final EndPointPair key = new EndPointPair(localURI, service);
+    int hash = (null == hdr.getURIFrom()) ? 0 : hdr.getURIFrom().hashCode();
+    hash = KEY_HASH_VALUE * hash + hdr.getServiceArea().getValue();
+    return KEY_HASH_VALUE * hash + hdr.getService().getValue();
+  }
 
-    if (providerEndpointMap.containsKey(key))
+  private static int notifyKey(final MALMessageHeader hdr)
+  {
+    int hash = (null == hdr.getURITo()) ? 0 : hdr.getURITo().hashCode();
+    hash = KEY_HASH_VALUE * hash + hdr.getServiceArea().getValue();
+    hash = KEY_HASH_VALUE * hash + hdr.getService().getValue();
+    return KEY_HASH_VALUE * hash + hdr.getOperation().getValue();
+  }
+
+  private void returnInteractionError(final MALEndpoint callingEndpoint,
+          final MALMessage msg,
+          Address address,
+          final MALInteractionException ex)
+  {
+    // try to determine address info if null
+    if (null == address)
     {
-      MALContextFactoryImpl.LOGGER.log(Level.FINE, "deregisterProviderEndpoint for {0}", key);
-      providerEndpointMap.remove(key);
+      address = lookupAddress(callingEndpoint, msg);
+    }
+
+    final UOctet rspnInteractionStage = calculateReturnStage(msg.getHeader());
+
+    if (null == rspnInteractionStage)
+    {
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unable to return error, already a return message ({0})", ex);
+    }
+    else
+    {
+      sender.returnError(address,
+              msg.getHeader(),
+              rspnInteractionStage,
+              ex.getStandardError());
+    }
+  }
+
+  private void returnError(final MALEndpoint callingEndpoint,
+          final MALMessage msg,
+          Address address,
+          final MALException ex)
+  {
+    // try to determine address info if null
+    if (null == address)
+    {
+      address = lookupAddress(callingEndpoint, msg);
+    }
+
+    final UOctet rspnInteractionStage = calculateReturnStage(msg.getHeader());
+
+    if (null == rspnInteractionStage)
+    {
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unable to return error, already a return message ({0})", ex);
+    }
+    else
+    {
+      sender.returnError(address, msg.getHeader(), rspnInteractionStage, ex);
+    }
+  }
+
+  private void dispatchProviderStage(final MALEndpoint callingEndpoint, final MALMessage msg, final Address address)
+          throws MALInteractionException
+  {
+    if (null == providerExecutor)
+    {
+      handleProviderStage(msg, address);
+    }
+    else
+    {
+      // reject unknown operations here rather than after a thread switch
+      OperationCache.lookup(msg.getHeader());
+
+      try
+      {
+        providerExecutor.execute(new ProviderStageTask(callingEndpoint, msg, address));
+      }
+      catch (RejectedExecutionException ex)
+      {
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                "Provider dispatch has been stopped, dropping message for {0}", msg.getHeader().getURITo());
+      }
+    }
+  }
+
+  private void handleProviderStage(final MALMessage msg, final Address address) throws MALInteractionException
+  {
+    switch (msg.getHeader().getInteractionType().getOrdinal())
+    {
+      case InteractionType._SEND_INDEX:
+        internalHandleSend(msg, address);
+        break;
+      case InteractionType._SUBMIT_INDEX:
+        internalHandleSubmit(msg, address);
+        break;
+      case InteractionType._REQUEST_INDEX:
+        internalHandleRequest(msg, address);
+        break;
+      case InteractionType._INVOKE_INDEX:
+        internalHandleInvoke(msg, address);
+        break;
+      case InteractionType._PROGRESS_INDEX:
+        internalHandleProgress(msg, address);
+        break;
+      default:
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unable to dispatch interaction type {0} to a provider",
+                msg.getHeader().getInteractionType());
+    }
+  }
+
+  void registerProviderEndpoint(final MALEndpoint endpoint, final MALService service, final Address address)
+  {
+    if (providerEndpoints.register(endpoint, service, address))
+    {
+      MALContextFactoryImpl.LOGGER.log(Level.FINE, "registerProviderEndpoint for {0} {1}", new Object[]
+      {
+        endpoint.getURI(), service
+      });
+    }
+  }
+
+  void deregisterProviderEndpoint(final MALEndpoint endpoint, final MALService service)
+  {
+    if (providerEndpoints.deregister(endpoint, service))
+    {
+      MALContextFactoryImpl.LOGGER.log(Level.FINE, "deregisterProviderEndpoint for {0} {1}", new Object[]
+      {
+        endpoint.getURI(), service
+      });
     }
   }
 
@@ -443,6 +839,9 @@ public class MessageReceive implements MALMessageListener
                 interaction.getOperation(),
                 interaction.getQoSProperties(),
                 (Object[]) null);
+
+        brokerHandler.getBrokerImpl().registerAcknowledged(interaction, (MALRegisterBody) msg.getBody(),
+                msg.getQoSProperties());
       }
       else
       {
@@ -617,24 +1016,7 @@ public class MessageReceive implements MALMessageListener
     else
     {
       final MALNotifyBody notifyBody = (MALNotifyBody) msg.getBody();
-      final MALInteractionListener rcv = ipsmap.getNotifyListener(hdr.getURITo(), notifyBody.getSubscriptionId());
-
-      if (null != rcv)
-      {
-        try
-        {
-          rcv.notifyReceived(hdr, notifyBody, msg.getQoSProperties());
-        }
-        catch (MALException ex)
-        {
-          MALContextFactoryImpl.LOGGER.log(Level.WARNING,
-                  "Error generated during handling of NOTIFY message, dropping: {0}", ex);
-        }
-      }
-      else
-      {
-        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Unknown notify consumer requested: {0}", hdr.getURITo());
-      }
+      deliverNotifies(hdr.getURITo(), notifyBody.getSubscriptionId(), Collections.singletonList(msg));
     }
   }
 
@@ -716,15 +1098,15 @@ public class MessageReceive implements MALMessageListener
 
   private Address lookupAddress(final MALEndpoint callingEndpoint, final MALMessage msg)
   {
-    final EndPointPair key = new EndPointPair(callingEndpoint.getURI().getValue(), msg);
-    Address addr = providerEndpointMap.get(key);
+    final Address addr = providerEndpoints.lookup(callingEndpoint, (null == msg) ? null : msg.getHeader());
 
     if (null == addr)
     {
-      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "lookupAddress failed to find local endpoint for {0}", new Object[]
-      {
-        key
-      });
+      MALContextFactoryImpl.LOGGER.log(Level.WARNING, "lookupAddress failed to find local endpoint for {0} {1}",
+              new Object[]
+              {
+                callingEndpoint.getURI(), (null == msg) ? "broker" : msg.getHeader().getService()
+              });
     }
 
     return addr;
@@ -790,105 +1172,178 @@ public class MessageReceive implements MALMessageListener
     return rspnInteractionStage;
   }
 
-  private static class EndPointPair implements Comparable
+  /**
+   * An element of a batch of received messages.
+   */
+  private abstract class BatchItem
   {
-    private static final int HASH_VALUE = 71;
-    private final String first;
-    private final Long second;
+    /**
+     * Processes the item.
+     */
+    abstract void process();
+
+    /**
+     * Returns the hash of the ordering key of the item.
+     *
+     * @return the key hash.
+     */
+    abstract int orderingKey();
+  }
+
+  /**
+   * A message of a batch that is processed on its own.
+   */
+  private final class SingleMessage extends BatchItem
+  {
+    private final MALEndpoint callingEndpoint;
+    private final MALMessage msg;
 
-    protected EndPointPair(final String localURI, final MALService service)
+    private SingleMessage(final MALEndpoint callingEndpoint, final MALMessage msg)
     {
-      first = localURI;
-      if (null != service)
-      {
-        second = (((long) service.getArea().getNumber().getValue()) << 32) + ((long) service.getNumber().getValue());
-      }
-      else
-      {
-        second = null;
-      }
+      this.callingEndpoint = callingEndpoint;
+      this.msg = msg;
     }
 
-    protected EndPointPair(final String localURI, final MALMessage msg)
+    @Override
+    void process()
+    {
+      onMessage(callingEndpoint, msg);
+    }
+
+    @Override
+    int orderingKey()
+    {
+      return MessageReceive.orderingKey(msg.getHeader());
+    }
+  }
+
+  /**
+   * A message of a batch that failed before it could be processed, its error is returned as onMessage would.
+   */
+  private final class FailedMessage extends BatchItem
+  {
+    private final MALEndpoint callingEndpoint;
+    private final MALMessage msg;
+    private final Exception error;
+
+    private FailedMessage(final MALEndpoint callingEndpoint, final MALMessage msg, final Exception error)
     {
-      first = localURI;
+      this.callingEndpoint = callingEndpoint;
+      this.msg = msg;
+      this.error = error;
+    }
 
-      if (null != msg)
+    @Override
+    void process()
+    {
+      if (error instanceof MALInteractionException)
       {
-        second = (((long) msg.getHeader().getServiceArea().getValue()) << 32) + ((long) msg.getHeader().getService().getValue());
+        returnInteractionError(callingEndpoint, msg, null, (MALInteractionException) error);
       }
       else
       {
-        second = null;
+        returnError(callingEndpoint, msg, null, (MALException) error);
       }
     }
 
     @Override
-    public int compareTo(final Object other)
+    int orderingKey()
     {
-      final EndPointPair otherPair = (EndPointPair) other;
+      return MessageReceive.orderingKey(msg.getHeader());
+    }
+  }
 
-      final int irv = this.first.compareTo(otherPair.first);
+  /**
+   * The NOTIFY messages of a batch for one subscription, delivered together.
+   */
+  private final class NotifyGroup extends BatchItem
+  {
+    private final URI uriTo;
+    private final Identifier subId;
+    private final List<MALMessage> messages = new ArrayList<MALMessage>();
 
-      if (0 == irv)
-      {
-        if (null != this.second)
-        {
-          if (null == otherPair.second)
-          {
-            return -1;
-          }
-          else
-          {
-            return this.second.compareTo(otherPair.second);
-          }
-        }
-        else
-        {
-          if (null == otherPair.second)
-          {
-            return 0;
-          }
+    private NotifyGroup(final URI uriTo, final Identifier subId)
+    {
+      this.uriTo = uriTo;
+      this.subId = subId;
+    }
 
-          return -1;
-        }
-      }
+    @Override
+    void process()
+    {
+      deliverNotifies(uriTo, subId, messages);
+    }
 
-      return irv;
+    @Override
+    int orderingKey()
+    {
+      return notifyKey(messages.get(0).getHeader());
+    }
+  }
+
+  /**
+   * Processes one item of a batch on its lane.
+   */
+  private static final class BatchMessageTask implements Runnable
+  {
+    private final BatchItem item;
+    private final CountDownLatch remaining;
+
+    private BatchMessageTask(final BatchItem item, final CountDownLatch remaining)
+    {
+      this.item = item;
+      this.remaining = remaining;
     }
 
     @Override
-    public boolean equals(final Object obj)
+    public void run()
     {
-      if (obj == null)
+      try
       {
-        return false;
+        item.process();
       }
-      if (getClass() != obj.getClass())
+      catch (RuntimeException ex)
       {
-        return false;
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Exception thrown processing a batched message", ex);
       }
-      final EndPointPair other = (EndPointPair) obj;
-      if (this.first == null ? other.first != null : !this.first.equals(other.first))
+      finally
       {
-        return false;
+        remaining.countDown();
       }
-      return !(this.second == null ? other.second != null : !this.second.equals(other.second));
     }
+  }
 
-    @Override
-    public int hashCode()
+  /**
+   * Runs the provider handler of a received message on the dispatch executor.
+   */
+  private final class ProviderStageTask implements Runnable
+  {
+    private final MALEndpoint callingEndpoint;
+    private final MALMessage msg;
+    private final Address address;
+
+    private ProviderStageTask(final MALEndpoint callingEndpoint, final MALMessage msg, final Address address)
     {
-      int hash = 5;
-      hash = HASH_VALUE * hash + (this.first != null ? this.first.hashCode() : 0);
-      hash = HASH_VALUE * hash + (this.second != null ? this.second.hashCode() : 0);
-      return hash;
+      this.callingEndpoint = callingEndpoint;
+      this.msg = msg;
+      this.address = address;
     }
 
     @Override
-    public String toString()
+    public void run()
     {
-      return "EndPointPair{" + "first=" + first + ", second=" + second + '}';
+      try
+      {
+        handleProviderStage(msg, address);
+      }
+      catch (MALInteractionException ex)
+      {
+        returnInteractionError(callingEndpoint, msg, address, ex);
+      }
+      catch (RuntimeException ex)
+      {
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Exception thrown by dispatched provider handler", ex);
+      }
     }
   }
 }
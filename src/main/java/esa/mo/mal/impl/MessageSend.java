@@ -248,7 +248,8 @@ public class MessageSend
   {
     if (null == transId)
     {
-      transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), true, null);
+      // oneway interactions never receive a reply so no handler is stored for them
+      transId = InteractionTransaction.getTransactionId();
     }
 
     return initiateOnewayInteraction(details, createMessage(details, op, transId, stage, msgBody));
@@ -274,7 +275,8 @@ public class MessageSend
   {
     if (null == transId)
     {
-      transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), true, null);
+      // oneway interactions never receive a reply so no handler is stored for them
+      transId = InteractionTransaction.getTransactionId();
     }
 
     return initiateOnewayInteraction(details, createMessage(details, op, transId, stage, msgBody));
@@ -676,6 +678,7 @@ public class MessageSend
       msg = securityManager.check(msg);
 
       details.endpoint.sendMessage(msg);
+      icmap.startDeadline(msg.getHeader(), details.qosProps);
 
       final MALMessage rtn = icmap.waitForResponse(transId);
 
@@ -717,6 +720,7 @@ public class MessageSend
       msg = securityManager.check(msg);
 
       details.endpoint.sendMessage(msg);
+      icmap.startDeadline(msg.getHeader(), details.qosProps);
     }
     catch (IllegalArgumentException ex)
     {
@@ -0,0 +1,184 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl;
+
+import esa.mo.mal.impl.util.CopyOnWriteLongMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Holds the addresses of the provider and broker components registered against each local endpoint. The registry is
+ * read for every received message and changed only when components are created or closed, so the maps are copy on
+ * write and a lookup takes no locks and allocates nothing.
+ *
+ * Entries are found by the identity of the endpoint that received the message, with a lookup by endpoint URI as the
+ * fallback for transports that pass a different endpoint object to the listener than the one they created.
+ */
+class ProviderEndpointRegistry
+{
+  private final Map<String, EndpointEntry> entriesByUri = new ConcurrentHashMap<String, EndpointEntry>();
+  private volatile Map<MALEndpoint, EndpointEntry> entriesByEndpoint = new IdentityHashMap<MALEndpoint, EndpointEntry>();
+
+  /**
+   * Returns the primitive key of a service, the area number in the upper and the service number in the lower half.
+   *
+   * @param area The area number.
+   * @param service The service number.
+   * @return the key.
+   */
+  static long serviceKey(final int area, final int service)
+  {
+    return (((long) area) << 32) | (service & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Registers a component, if a component is already registered for the endpoint and service it is kept.
+   *
+   * @param endpoint The endpoint of the component.
+   * @param service The service of the component, null for a broker.
+   * @param address The address of the component.
+   * @return True if the component was registered.
+   */
+  synchronized boolean register(final MALEndpoint endpoint, final MALService service, final Address address)
+  {
+    final String uri = endpoint.getURI().getValue();
+    EndpointEntry entry = entriesByEndpoint.get(endpoint);
+
+    if (null == entry)
+    {
+      entry = entriesByUri.get(uri);
+
+      if (null == entry)
+      {
+        entry = new EndpointEntry();
+        entriesByUri.put(uri, entry);
+      }
+
+      final Map<MALEndpoint, EndpointEntry> newMap = new IdentityHashMap<MALEndpoint, EndpointEntry>(entriesByEndpoint);
+      newMap.put(endpoint, entry);
+      entriesByEndpoint = newMap;
+    }
+
+    if (null == service)
+    {
+      if (null == entry.brokerAddress)
+      {
+        entry.brokerAddress = address;
+        return true;
+      }
+
+      return false;
+    }
+
+    final long key = serviceKey(service.getArea().getNumber().getValue(), service.getNumber().getValue());
+    return null == entry.serviceAddresses.putIfAbsent(key, address);
+  }
+
+  /**
+   * Deregisters a component.
+   *
+   * @param endpoint The endpoint of the component.
+   * @param service The service of the component, null for a broker.
+   * @return True if a component was deregistered.
+   */
+  synchronized boolean deregister(final MALEndpoint endpoint, final MALService service)
+  {
+    final String uri = endpoint.getURI().getValue();
+    EndpointEntry entry = entriesByEndpoint.get(endpoint);
+
+    if (null == entry)
+    {
+      entry = entriesByUri.get(uri);
+
+      if (null == entry)
+      {
+        return false;
+      }
+    }
+
+    boolean removed;
+
+    if (null == service)
+    {
+      removed = null != entry.brokerAddress;
+      entry.brokerAddress = null;
+    }
+    else
+    {
+      final long key = serviceKey(service.getArea().getNumber().getValue(), service.getNumber().getValue());
+      removed = null != entry.serviceAddresses.remove(key);
+    }
+
+    if ((null == entry.brokerAddress) && entry.serviceAddresses.isEmpty())
+    {
+      entriesByUri.remove(uri);
+
+      final Map<MALEndpoint, EndpointEntry> newMap = new IdentityHashMap<MALEndpoint, EndpointEntry>(entriesByEndpoint);
+      newMap.values().removeAll(Collections.singleton(entry));
+      entriesByEndpoint = newMap;
+    }
+
+    return removed;
+  }
+
+  /**
+   * Returns the address of the component that should receive a message.
+   *
+   * @param endpoint The endpoint that received the message.
+   * @param hdr The header of the message, or null to look up the broker of the endpoint.
+   * @return The address, or null if no component is registered.
+   */
+  Address lookup(final MALEndpoint endpoint, final MALMessageHeader hdr)
+  {
+    EndpointEntry entry = entriesByEndpoint.get(endpoint);
+
+    if (null == entry)
+    {
+      entry = entriesByUri.get(endpoint.getURI().getValue());
+
+      if (null == entry)
+      {
+        return null;
+      }
+    }
+
+    if (null == hdr)
+    {
+      return entry.brokerAddress;
+    }
+
+    return entry.serviceAddresses.get(serviceKey(hdr.getServiceArea().getValue(), hdr.getService().getValue()));
+  }
+
+  /**
+   * The components registered against one endpoint.
+   */
+  private static final class EndpointEntry
+  {
+    private final CopyOnWriteLongMap<Address> serviceAddresses = new CopyOnWriteLongMap<Address>();
+    private volatile Address brokerAddress = null;
+  }
+}
@@ -0,0 +1,337 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Plain field based message header that stands in for the header of a registration replayed from the subscription
+ * journal.
+ */
+final class JournalMessageHeader implements MALMessageHeader
+{
+  private URI uriFrom;
+  private Blob authenticationId;
+  private URI uriTo;
+  private Time timestamp;
+  private QoSLevel qosLevel;
+  private UInteger priority;
+  private IdentifierList domain;
+  private Identifier networkZone;
+  private SessionType session;
+  private Identifier sessionName;
+  private InteractionType interactionType;
+  private UOctet interactionStage;
+  private Long transactionId;
+  private UShort serviceArea;
+  private UShort service;
+  private UShort operation;
+  private UOctet areaVersion;
+  private Boolean isErrorMessage;
+
+  /**
+   * Constructor.
+   *
+   * @param uriFrom URI of the message source
+   * @param authenticationId Authentication identifier of the message
+   * @param uriTo URI of the message destination
+   * @param timestamp Timestamp of the message
+   * @param qosLevel QoS level of the message
+   * @param priority Priority of the message
+   * @param domain Domain of the service provider
+   * @param networkZone Network zone of the service provider
+   * @param session Session of the service provider
+   * @param sessionName Session name of the service provider
+   * @param interactionType Interaction type of the operation
+   * @param interactionStage Interaction stage of the interaction
+   * @param transactionId Transaction identifier of the interaction, may be null.
+   * @param serviceArea Area number of the service
+   * @param service Service number
+   * @param operation Operation number
+   * @param areaVersion Area version number
+   * @param isErrorMessage Flag indicating if the message conveys an error
+   */
+  JournalMessageHeader(final URI uriFrom,
+          final Blob authenticationId,
+          final URI uriTo,
+          final Time timestamp,
+          final QoSLevel qosLevel,
+          final UInteger priority,
+          final IdentifierList domain,
+          final Identifier networkZone,
+          final SessionType session,
+          final Identifier sessionName,
+          final InteractionType interactionType,
+          final UOctet interactionStage,
+          final Long transactionId,
+          final UShort serviceArea,
+          final UShort service,
+          final UShort operation,
+          final UOctet areaVersion,
+          final Boolean isErrorMessage)
+  {
+    this.uriFrom = uriFrom;
+    this.authenticationId = authenticationId;
+    this.uriTo = uriTo;
+    this.timestamp = timestamp;
+    this.qosLevel = qosLevel;
+    this.priority = priority;
+    this.domain = domain;
+    this.networkZone = networkZone;
+    this.session = session;
+    this.sessionName = sessionName;
+    this.interactionType = interactionType;
+    this.interactionStage = interactionStage;
+    this.transactionId = transactionId;
+    this.serviceArea = serviceArea;
+    this.service = service;
+    this.operation = operation;
+    this.areaVersion = areaVersion;
+    this.isErrorMessage = isErrorMessage;
+  }
+
+  @Override
+  public URI getURIFrom()
+  {
+    return uriFrom;
+  }
+
+  @Override
+  public void setURIFrom(final URI uriFrom)
+  {
+    this.uriFrom = uriFrom;
+  }
+
+  @Override
+  public Blob getAuthenticationId()
+  {
+    return authenticationId;
+  }
+
+  @Override
+  public void setAuthenticationId(final Blob authenticationId)
+  {
+    this.authenticationId = authenticationId;
+  }
+
+  @Override
+  public URI getURITo()
+  {
+    return uriTo;
+  }
+
+  @Override
+  public void setURITo(final URI uriTo)
+  {
+    this.uriTo = uriTo;
+  }
+
+  @Override
+  public Time getTimestamp()
+  {
+    return timestamp;
+  }
+
+  @Override
+  public void setTimestamp(final Time timestamp)
+  {
+    this.timestamp = timestamp;
+  }
+
+  @Override
+  public QoSLevel getQoSlevel()
+  {
+    return qosLevel;
+  }
+
+  @Override
+  public void setQoSlevel(final QoSLevel qosLevel)
+  {
+    this.qosLevel = qosLevel;
+  }
+
+  @Override
+  public UInteger getPriority()
+  {
+    return priority;
+  }
+
+  @Override
+  public void setPriority(final UInteger priority)
+  {
+    this.priority = priority;
+  }
+
+  @Override
+  public IdentifierList getDomain()
+  {
+    return domain;
+  }
+
+  @Override
+  public void setDomain(final IdentifierList domain)
+  {
+    this.domain = domain;
+  }
+
+  @Override
+  public Identifier getNetworkZone()
+  {
+    return networkZone;
+  }
+
+  @Override
+  public void setNetworkZone(final Identifier networkZone)
+  {
+    this.networkZone = networkZone;
+  }
+
+  @Override
+  public SessionType getSession()
+  {
+    return session;
+  }
+
+  @Override
+  public void setSession(final SessionType session)
+  {
+    this.session = session;
+  }
+
+  @Override
+  public Identifier getSessionName()
+  {
+    return sessionName;
+  }
+
+  @Override
+  public void setSessionName(final Identifier sessionName)
+  {
+    this.sessionName = sessionName;
+  }
+
+  @Override
+  public InteractionType getInteractionType()
+  {
+    return interactionType;
+  }
+
+  @Override
+  public void setInteractionType(final InteractionType interactionType)
+  {
+    this.interactionType = interactionType;
+  }
+
+  @Override
+  public UOctet getInteractionStage()
+  {
+    return interactionStage;
+  }
+
+  @Override
+  public void setInteractionStage(final UOctet interactionStage)
+  {
+    this.interactionStage = interactionStage;
+  }
+
+  @Override
+  public Long getTransactionId()
+  {
+    return transactionId;
+  }
+
+  @Override
+  public void setTransactionId(final Long transactionId)
+  {
+    this.transactionId = transactionId;
+  }
+
+  @Override
+  public UShort getServiceArea()
+  {
+    return serviceArea;
+  }
+
+  @Override
+  public void setServiceArea(final UShort serviceArea)
+  {
+    this.serviceArea = serviceArea;
+  }
+
+  @Override
+  public UShort getService()
+  {
+    return service;
+  }
+
+  @Override
+  public void setService(final UShort service)
+  {
+    this.service = service;
+  }
+
+  @Override
+  public UShort getOperation()
+  {
+    return operation;
+  }
+
+  @Override
+  public void setOperation(final UShort operation)
+  {
+    this.operation = operation;
+  }
+
+  @Override
+  public UOctet getAreaVersion()
+  {
+    return areaVersion;
+  }
+
+  @Override
+  public void setAreaVersion(final UOctet areaVersion)
+  {
+    this.areaVersion = areaVersion;
+  }
+
+  @Override
+  public Boolean getIsErrorMessage()
+  {
+    return isErrorMessage;
+  }
+
+  @Override
+  public void setIsErrorMessage(final Boolean isErrorMessage)
+  {
+    this.isErrorMessage = isErrorMessage;
+  }
+}
@@ -0,0 +1,346 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.broker.key.DomainNode;
+import esa.mo.mal.impl.broker.key.UpdateKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Holds the last published value of each entity so that a new subscription can be sent the current values straight
+ * after its registration instead of waiting for the next publish of each key. The cache is partitioned by broker key,
+ * so publishes to different broker keys do not contend and building the images of a broker key only reads its own
+ * entities. Each partition is bounded by a number of entities, as the size of an update in memory is not known, and
+ * evicts the least recently published entity first. A deletion removes the entity from the cache.
+ *
+ * Publishes update a partition while holding its monitor, see getMonitor, so that the images of a broker key can be
+ * queued for a consumer before any newer value of their entities.
+ *
+ * Enabled by setting SIZE_PROPERTY to the maximum number of entities to hold per broker key.
+ */
+public final class LastValueCache
+{
+  /**
+   * Property that sets the maximum number of entities held in the cache per broker key, zero disables the cache.
+   */
+  public static final String SIZE_PROPERTY = "org.ccsds.moims.mo.mal.broker.lvc.size";
+  private final int maxSize;
+  private final ConcurrentMap<BrokerKey, Partition> partitions = new ConcurrentHashMap<BrokerKey, Partition>();
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize The maximum number of entities held per broker key.
+   */
+  LastValueCache(final int maxSize)
+  {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Records the values of a publish.
+   *
+   * @param key The broker key of the publish.
+   * @param hdr The publish message header.
+   * @param payload The updates of the publish.
+   */
+  void update(final BrokerKey key, final MALMessageHeader hdr, final NotifyPayload payload)
+  {
+    final UpdateHeaderList hl = payload.getUpdateHeaderList();
+    final List[] updateLists = payload.getUpdateLists();
+    final DomainNode domain = DomainNode.find(hdr.getDomain());
+    final String imageKey = imageKey(domain, hdr);
+    List[] prototypes = null;
+
+    Partition partition = partitions.get(key);
+    if (null == partition)
+    {
+      final Partition newPartition = new Partition(maxSize);
+      partition = partitions.putIfAbsent(key, newPartition);
+      if (null == partition)
+      {
+        partition = newPartition;
+      }
+    }
+
+    synchronized (partition)
+    {
+      for (int i = 0; i < hl.size(); ++i)
+      {
+        final UpdateHeader updateHeader = hl.get(i);
+        final ValueKey valueKey = new ValueKey(new UpdateKey(hdr, domain, updateHeader.getKey()));
+
+        if (UpdateType._DELETION_INDEX == updateHeader.getUpdateType().getOrdinal())
+        {
+          partition.remove(valueKey);
+        }
+        else
+        {
+          if (null == prototypes)
+          {
+            prototypes = createLists(updateLists);
+          }
+
+          partition.put(valueKey, new CachedValue(hdr, imageKey, updateHeader, elementsAt(updateLists, i), prototypes));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the monitor held while the values of a broker key are updated. A caller that holds it while reading the
+   * images of the broker key and queuing them for a consumer knows that any newer value is queued after them.
+   *
+   * @param key The broker key.
+   * @return The monitor, or null if nothing has been cached for the broker key.
+   */
+  Object getMonitor(final BrokerKey key)
+  {
+    return partitions.get(key);
+  }
+
+  /**
+   * Returns the cached values of a broker key, grouped into one image per domain, area, service and operation.
+   *
+   * @param key The broker key.
+   * @return The images, empty if nothing is cached for the broker key.
+   */
+  List<Image> getImages(final BrokerKey key)
+  {
+    final Partition partition = partitions.get(key);
+
+    if (null == partition)
+    {
+      return new ArrayList<Image>();
+    }
+
+    final Map<String, Image> images = new LinkedHashMap<String, Image>();
+
+    synchronized (partition)
+    {
+      for (CachedValue value : partition.values())
+      {
+        Image image = images.get(value.imageKey);
+        if (null == image)
+        {
+          image = new Image(value.hdr, createLists(value.prototypes));
+          images.put(value.imageKey, image);
+        }
+
+        image.add(value);
+      }
+    }
+
+    return new ArrayList<Image>(images.values());
+  }
+
+  /**
+   * Forgets the values published to a broker key.
+   *
+   * @param key The broker key.
+   */
+  void clear(final BrokerKey key)
+  {
+    partitions.remove(key);
+  }
+
+  private static String imageKey(final DomainNode domain, final MALMessageHeader hdr)
+  {
+    final StringBuilder buf = new StringBuilder();
+    buf.append(domain);
+    buf.append(':');
+    buf.append(hdr.getServiceArea());
+    buf.append(':');
+    buf.append(hdr.getService());
+    buf.append(':');
+    buf.append(hdr.getOperation());
+    buf.append(':');
+    buf.append(hdr.getAreaVersion());
+    return buf.toString();
+  }
+
+  private static Object[] elementsAt(final List[] updateLists, final int index)
+  {
+    if (null == updateLists)
+    {
+      return null;
+    }
+
+    final Object[] elements = new Object[updateLists.length];
+    for (int i = 0; i < updateLists.length; ++i)
+    {
+      if ((null != updateLists[i]) && (index < updateLists[i].size()))
+      {
+        elements[i] = updateLists[i].get(index);
+      }
+    }
+
+    return elements;
+  }
+
+  /**
+   * Creates an empty list of the same type as each of the templates.
+   */
+  private static List[] createLists(final List[] templates)
+  {
+    if (null == templates)
+    {
+      return null;
+    }
+
+    final List[] lists = new List[templates.length];
+    for (int i = 0; i < templates.length; ++i)
+    {
+      if (templates[i] instanceof MALEncodedElementList)
+      {
+        lists[i] = new MALEncodedElementList(((MALEncodedElementList) templates[i]).getShortForm(), 0);
+      }
+      else if (null != templates[i])
+      {
+        lists[i] = (List) ((Element) templates[i]).createElement();
+      }
+    }
+
+    return lists;
+  }
+
+  /**
+   * The cached values of a broker key that share a domain, area, service and operation, in the form of the updates
+   * of a publish.
+   */
+  static final class Image
+  {
+    private final MALMessageHeader hdr;
+    private final UpdateHeaderList updateHeaderList = new UpdateHeaderList();
+    private final List[] updateLists;
+
+    private Image(final MALMessageHeader hdr, final List[] updateLists)
+    {
+      this.hdr = hdr;
+      this.updateLists = updateLists;
+    }
+
+    private void add(final CachedValue value)
+    {
+      updateHeaderList.add(value.updateHeader);
+
+      if (null != updateLists)
+      {
+        for (int i = 0; i < updateLists.length; ++i)
+        {
+          if (null != updateLists[i])
+          {
+            updateLists[i].add((null == value.elements) ? null : value.elements[i]);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the header of the last publish of one of the values, its domain, area, service and operation are
+     * shared by all of them.
+     *
+     * @return the header.
+     */
+    MALMessageHeader getHeader()
+    {
+      return hdr;
+    }
+
+    /**
+     * Returns the update headers of the cached values.
+     *
+     * @return the update headers.
+     */
+    UpdateHeaderList getUpdateHeaderList()
+    {
+      return updateHeaderList;
+    }
+
+    /**
+     * Returns the cached values, one list per update list of the operation.
+     *
+     * @return the update lists.
+     */
+    List[] getUpdateLists()
+    {
+      return updateLists;
+    }
+  }
+
+  /**
+   * The cached values of one broker key, least recently published first.
+   */
+  private static final class Partition extends LinkedHashMap<ValueKey, CachedValue>
+  {
+    private static final long serialVersionUID = 1L;
+    private final int maxSize;
+
+    private Partition(final int maxSize)
+    {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<ValueKey, CachedValue> eldest)
+    {
+      return size() > maxSize;
+    }
+  }
+
+  /**
+   * The last value of an entity.
+   */
+  private static final class CachedValue
+  {
+    private final MALMessageHeader hdr;
+    private final String imageKey;
+    private final UpdateHeader updateHeader;
+    private final Object[] elements;
+    private final List[] prototypes;
+
+    private CachedValue(final MALMessageHeader hdr,
+            final String imageKey,
+            final UpdateHeader updateHeader,
+            final Object[] elements,
+            final List[] prototypes)
+    {
+      this.hdr = hdr;
+      this.imageKey = imageKey;
+      this.updateHeader = updateHeader;
+      this.elements = elements;
+      this.prototypes = prototypes;
+    }
+  }
+}
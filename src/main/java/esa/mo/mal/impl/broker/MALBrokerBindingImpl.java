@@ -22,11 +22,12 @@ package esa.mo.mal.impl.broker;
 
 import esa.mo.mal.impl.MALContextImpl;
 import esa.mo.mal.impl.ServiceComponentImpl;
+import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.*;
 import org.ccsds.moims.mo.mal.accesscontrol.MALAccessControl;
@@ -35,6 +36,7 @@ import org.ccsds.moims.mo.mal.structures.*;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
 import org.ccsds.moims.mo.mal.transport.MALTransmitErrorListener;
+import org.ccsds.moims.mo.mal.transport.MALTransmitMultipleErrorException;
 
 /**
  * Implementation of MALBrokerBinding for MAL level brokers.
@@ -42,7 +44,7 @@ import org.ccsds.moims.mo.mal.transport.MALTransmitErrorListener;
 public class MALBrokerBindingImpl extends ServiceComponentImpl implements MALBrokerBinding
 {
   private final MALBrokerImpl brokerImpl;
-  private final Set<String> subscriberSet = new TreeSet<String>();
+  private final Set<String> subscriberSet = new ConcurrentSkipListSet<String>();
   private MALTransmitErrorListener listener;
     private MALAccessControl securityManager;
 
@@ -110,6 +112,16 @@ public class MALBrokerBindingImpl extends ServiceComponentImpl implements MALBro
     this.brokerImpl.addBinding(this);
   }
 
+  /**
+   * Returns the local name of the broker, used to name its subscription journal.
+   *
+   * @return the local name.
+   */
+  String getLocalName()
+  {
+    return localName;
+  }
+
   @Override
   public MALMessage sendNotify(final UShort area,
           final UShort service,
@@ -127,6 +139,90 @@ public class MALBrokerBindingImpl extends ServiceComponentImpl implements MALBro
           final Identifier subscriptionId,
           final UpdateHeaderList updateHeaderList,
           final List... updateList) throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final MALMessage msg = createNotify(area,
+            service,
+            operation,
+            version,
+            subscriber,
+            transactionId,
+            domainId,
+            networkZone,
+            sessionType,
+            sessionName,
+            notifyQos,
+            notifyQosProps,
+            notifyPriority,
+            subscriptionId,
+            updateHeaderList,
+            updateList);
+
+    endpoint.sendMessage(msg);
+
+    return msg;
+  }
+
+  /**
+   * Sends the NOTIFY messages for one consumer of a publish. The messages are created first and then passed to the
+   * transport in a single call, so that transports that support it can write them together.
+   *
+   * @param notifyMessageSet The NOTIFY messages for the consumer.
+   * @throws MALTransmitMultipleErrorException If some of the messages could not be transmitted.
+   * @throws MALInteractionException If a message could not be transmitted or failed the security check.
+   * @throws MALException On error.
+   */
+  void sendNotifySet(final NotifyMessageSet notifyMessageSet)
+          throws MALTransmitMultipleErrorException, MALInteractionException, MALException
+  {
+    final MALMessage[] msgs = new MALMessage[notifyMessageSet.messages.size()];
+    int i = 0;
+
+    for (NotifyMessage notifyMessage : notifyMessageSet.messages)
+    {
+      msgs[i++] = createNotify(notifyMessage.area,
+              notifyMessage.service,
+              notifyMessage.operation,
+              notifyMessage.version,
+              notifyMessageSet.details.uriTo,
+              notifyMessageSet.details.transactionId,
+              notifyMessage.domain,
+              notifyMessage.networkZone,
+              notifyMessageSet.details.sessionType,
+              notifyMessageSet.details.sessionName,
+              notifyMessageSet.details.qosLevel,
+              (null != notifyMessage.qosProps) ? notifyMessage.qosProps : notifyMessageSet.details.qosProps,
+              notifyMessageSet.details.priority,
+              notifyMessage.subscriptionId,
+              notifyMessage.updateHeaderList,
+              notifyMessage.updateList);
+    }
+
+    if (1 == msgs.length)
+    {
+      endpoint.sendMessage(msgs[0]);
+    }
+    else if (1 < msgs.length)
+    {
+      endpoint.sendMessages(msgs);
+    }
+  }
+
+  private MALMessage createNotify(final UShort area,
+          final UShort service,
+          final UShort operation,
+          final UOctet version,
+          final URI subscriber,
+          final Long transactionId,
+          final IdentifierList domainId,
+          final Identifier networkZone,
+          final SessionType sessionType,
+          final Identifier sessionName,
+          final QoSLevel notifyQos,
+          final Map notifyQosProps,
+          final UInteger notifyPriority,
+          final Identifier subscriptionId,
+          final UpdateHeaderList updateHeaderList,
+          final List... updateList) throws IllegalArgumentException, MALInteractionException, MALException
   {
     final Object[] body = new Object[2 + updateList.length];
     body[0] = subscriptionId;
@@ -158,7 +254,6 @@ public class MALBrokerBindingImpl extends ServiceComponentImpl implements MALBro
             body);
     
     securityManager.check(msg);
-    endpoint.sendMessage(msg);
 
     return msg;
   }
@@ -21,13 +21,23 @@
 package esa.mo.mal.impl.broker;
 
 import esa.mo.mal.impl.StringPair;
-import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
 import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.util.DispatchExecutors;
 import esa.mo.mal.impl.util.MALClose;
+import esa.mo.mal.impl.util.StructureHelper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALHelper;
@@ -47,30 +57,77 @@ import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 import org.ccsds.moims.mo.mal.transport.MALPublishRegisterBody;
 import org.ccsds.moims.mo.mal.transport.MALRegisterBody;
 import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
+import org.ccsds.moims.mo.mal.transport.MALTransmitMultipleErrorException;
 
 /**
  * Base implementation of the MALBrokerHandler class that should be extended by real broker implementations.
+ * Registrations are serialised on the handler and replace copy on write snapshots of the provider and consumer maps,
+ * which publishes read without locking, so subscription sources must publish their changes safely.
  */
 public abstract class MALBrokerHandlerImpl extends MALClose implements MALBrokerHandler
 {
-  private final List<MALBrokerBindingImpl> bindings = new LinkedList<MALBrokerBindingImpl>();
-  private final Map<BrokerKey, Map<StringPair, PublisherSource>> providerMap = new HashMap();
-  private final Map<BrokerKey, Map<String, SubscriptionSource>> consumerMap = new HashMap();
+  private final Map properties;
+  private final List<MALBrokerBindingImpl> bindings = new CopyOnWriteArrayList<MALBrokerBindingImpl>();
+  private volatile Map<BrokerKey, Map<StringPair, PublisherSource>> providerMap = Collections.emptyMap();
+  private volatile Map<BrokerKey, Map<String, SubscriptionSource>> consumerMap = Collections.emptyMap();
+  private final ExecutorService notifyExecutor;
+  private final int notifyQueueSize;
+  private final String notifyOverflow;
+  private final int parallelThreshold;
+  private final ValueChangeCache changeCache;
+  private final LastValueCache lastValueCache;
+  private final String journalPath;
+  private final Set<String> restoredUris = new HashSet<String>();
+  private volatile SubscriptionJournal journal = null;
+  private boolean journalOpened = false;
+  private final NotifyReplayRing replayRing;
+  private final NotifyScheduler notifyScheduler;
+  private final long highPriority;
 
   /**
-   * Constructor.
+   * Constructor. The options of the handler are read from the properties of the MAL context of the broker, when the
+   * parent is a MALBrokerImpl, and then from the system properties.
    *
    * @param parent Parent closing class.
    */
   protected MALBrokerHandlerImpl(MALClose parent)
   {
     super(parent);
+
+    this.properties = (parent instanceof MALBrokerImpl) ? ((MALBrokerImpl) parent).getProperties() : null;
+    this.notifyExecutor = DispatchExecutors.createExecutor(getProperty(NotifyQueue.DISPATCH_PROPERTY),
+            "MALBrokerNotify");
+    this.notifyQueueSize = (int) getLongProperty(NotifyQueue.SIZE_PROPERTY, NotifyQueue.DEFAULT_SIZE);
+    final String overflow = getProperty(NotifyQueue.OVERFLOW_PROPERTY);
+    this.notifyOverflow = (null == overflow) ? null : overflow.trim().toLowerCase();
+    this.parallelThreshold = (int) getLongProperty(ParallelNotifyTask.THRESHOLD_PROPERTY,
+            ParallelNotifyTask.DEFAULT_THRESHOLD);
+    this.changeCache = Boolean.parseBoolean(getProperty(ValueChangeCache.ENABLED_PROPERTY))
+            ? new ValueChangeCache((int) getLongProperty(ValueChangeCache.SIZE_PROPERTY, ValueChangeCache.DEFAULT_SIZE))
+            : null;
+    final int lastValueCacheSize = (int) getLongProperty(LastValueCache.SIZE_PROPERTY, 0);
+    this.lastValueCache = (0 < lastValueCacheSize) ? new LastValueCache(lastValueCacheSize) : null;
+    final int replaySize = (int) getLongProperty(NotifyReplayRing.SIZE_PROPERTY, 0);
+    this.replayRing = (0 < replaySize) ? new NotifyReplayRing(replaySize) : null;
+    this.highPriority = getLongProperty(NotifyScheduler.HIGH_PRIORITY_PROPERTY, 0);
+    final int schedulerThreads = (int) getLongProperty(NotifyScheduler.THREADS_PROPERTY,
+            NotifyScheduler.getDefaultThreads());
+    this.notifyScheduler = ((null != notifyExecutor) && (0 < schedulerThreads))
+            ? new NotifyScheduler(notifyExecutor, schedulerThreads, getLongProperty(
+                    NotifyScheduler.MAX_WAIT_PROPERTY, NotifyScheduler.DEFAULT_MAX_WAIT))
+            : null;
+    this.journalPath = getProperty(SubscriptionJournal.FILE_PROPERTY);
   }
   
   @Override
   public void malInitialize(MALBrokerBinding brokerBinding)
   {
     bindings.add((MALBrokerBindingImpl) brokerBinding);
+
+    if (null != journalPath)
+    {
+      restoreSubscribers((MALBrokerBindingImpl) brokerBinding);
+    }
   }
   
   @Override
@@ -90,7 +147,43 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     report(key);
     if ((null != hdr) && (null != lst))
     {
-      getConsumerEntry(key, hdr, true).addSubscription(hdr, lst);
+      SubscriptionJournal.Change change = null;
+      if (null != journal)
+      {
+        try
+        {
+          change = journal.register(hdr, lst);
+        }
+        catch (IOException ex)
+        {
+          throw new MALException("Unable to journal the registration of a subscription", ex);
+        }
+      }
+
+      boolean registered = false;
+      try
+      {
+        if (null == replayRing)
+        {
+          registerConsumer(key, hdr, lst);
+        }
+        else
+        {
+          synchronized (replayRing.getMonitor(key))
+          {
+            registerConsumer(key, hdr, lst);
+            replayRing.mark(key, hdr.getURIFrom().getValue(), lst.getSubscriptionId().getValue());
+          }
+        }
+        registered = true;
+      }
+      finally
+      {
+        if (!registered)
+        {
+          revertJournal(change);
+        }
+      }
     }
     report(key);
   }
@@ -106,11 +199,36 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     report(key);
     if ((null != hdr) && (null != providerKeyList))
     {
-      getProviderEntry(key, hdr, true).setKeyList(hdr, providerKeyList);
+      SubscriptionJournal.Change change = null;
+      if (null != journal)
+      {
+        try
+        {
+          change = journal.publishRegister(hdr, providerKeyList);
+        }
+        catch (IOException ex)
+        {
+          throw new MALException("Unable to journal the registration of a provider", ex);
+        }
+      }
+
+      boolean registered = false;
+      try
+      {
+        registerProvider(key, hdr, providerKeyList);
+        registered = true;
+      }
+      finally
+      {
+        if (!registered)
+        {
+          revertJournal(change);
+        }
+      }
     }
     report(key);
   }
-  
+
   @Override
   public void handlePublish(final MALInteraction interaction, final MALPublishBody body)
           throws MALInteractionException, MALException
@@ -121,48 +239,178 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     
     if (!notifyList.isEmpty())
     {
-      for (NotifyMessageSet notifyMessageSet : notifyList)
+      for (NotifyMessageSet notifyMessageSet : orderByNotifyClass(notifyList))
       {
-        MALBrokerBinding binding = getBinding(notifyMessageSet.details.uriTo.getValue());
-        
-        if (null != binding)
+        dispatch(key, getConsumerEntry(key, notifyMessageSet.details.uriTo.getValue()), notifyMessageSet);
+      }
+    }
+  }
+
+  /**
+   * Sends a new subscription the updates published while its consumer was away, or else the last values of the
+   * entities it matches, does nothing unless the replay ring or the last value cache is enabled. Called once the
+   * REGISTER_ACK of the subscription has been returned so that the consumer receives the updates after the
+   * acknowledgement; a publish racing the registration may reach the consumer before them. When the consumer has a
+   * NOTIFY queue its last values are queued before any newer value, so it never ends up holding a stale one.
+   *
+   * The missed updates are replayed when the REGISTER message carries the NotifyReplayRing.LAST_SEEN_PROPERTY QoS
+   * property of this run of the broker and the ring still holds all the publishes that followed it. Only the
+   * publishes numbered before the subscription was registered are replayed, the later ones were matched against it.
+   *
+   * @param interaction The register interaction.
+   * @param body The register message body.
+   * @param qosProperties The QoS properties of the register message, may be null.
+   * @throws MALInteractionException If a message fails the security check.
+   * @throws MALException On error.
+   */
+  public void handleRegisterAcknowledged(final MALInteraction interaction, final MALRegisterBody body,
+          final Map qosProperties) throws MALInteractionException, MALException
+  {
+    final MALMessageHeader hdr = interaction.getMessageHeader();
+    final Subscription subscription = body.getSubscription();
+
+    if (((null == lastValueCache) && (null == replayRing)) || (null == hdr) || (null == subscription))
+    {
+      return;
+    }
+
+    final BrokerKey key = new BrokerKey(hdr);
+    final SubscriptionSource ent = getConsumerEntry(key, hdr.getURIFrom().getValue());
+
+    if (null != ent)
+    {
+      final String subId = subscription.getSubscriptionId().getValue();
+      final String lastSeen = (null == replayRing) ? null : NotifyReplayRing.getLastSeen(qosProperties);
+      final List<NotifyReplayRing.Entry> missed = (null == lastSeen) ? null
+              : replayRing.getSince(key, lastSeen, hdr.getURIFrom().getValue(), subId);
+
+      if (null != missed)
+      {
+        for (NotifyReplayRing.Entry entry : missed)
         {
-          for (NotifyMessage notifyMessage : notifyMessageSet.messages)
+          final NotifyPayload payload = entry.getPayload();
+          final List<NotifyMessageSet.NotifyMessage> messages = new LinkedList<NotifyMessageSet.NotifyMessage>();
+          selectSubscription(ent, subId, entry.getHeader(), payload.getUpdateHeaderList(), payload, messages);
+
+          if (!messages.isEmpty())
           {
-            try
-            {
-              binding.sendNotify(notifyMessage.area,
-                      notifyMessage.service,
-                      notifyMessage.operation,
-                      notifyMessage.version,
-                      notifyMessageSet.details.uriTo,
-                      notifyMessageSet.details.transactionId,
-                      notifyMessage.domain,
-                      notifyMessage.networkZone,
-                      notifyMessageSet.details.sessionType,
-                      notifyMessageSet.details.sessionName,
-                      notifyMessageSet.details.qosLevel,
-                      notifyMessageSet.details.qosProps,
-                      notifyMessageSet.details.priority,
-                      notifyMessage.subscriptionId,
-                      notifyMessage.updateHeaderList,
-                      notifyMessage.updateList);
-            }
-            catch (MALTransmitErrorException ex)
+            final NotifyMessageSet notifyMessageSet = new NotifyMessageSet();
+            notifyMessageSet.details = ent.getMsgHeaderDetails();
+            notifyMessageSet.messages = messages;
+            setSequence(notifyMessageSet, entry.getSequence());
+            dispatch(key, ent, notifyMessageSet);
+          }
+        }
+      }
+      else if (null != lastValueCache)
+      {
+        if (null != lastSeen)
+        {
+          MALBrokerImpl.LOGGER.log(Level.FINE, "Updates missed by consumer no longer held, sending last values: {0}",
+                  hdr.getURIFrom());
+        }
+
+        final Object monitor = lastValueCache.getMonitor(key);
+
+        if (null != monitor)
+        {
+          final NotifyMessageSet notifyMessageSet;
+
+          // publishes update the cache before they queue their NOTIFY messages, so queuing the image while the cache
+          // cannot change means a newer value always reaches the consumer after it
+          synchronized (monitor)
+          {
+            notifyMessageSet = selectImages(key, ent, subId);
+
+            if ((null != notifyMessageSet) && (null != ent.getNotifyQueue()))
             {
-              MALBrokerImpl.LOGGER.log(Level.WARNING, "Exception raised during transmission of NOTIFY to consumer : {0}", notifyMessageSet.details.uriTo.getValue());
-              
-              handleConsumerCommunicationError(key, notifyMessageSet);
+              ent.getNotifyQueue().offer(notifyMessageSet);
+              return;
             }
           }
+
+          // sent inline the image is ordered with concurrent publishes as they are with each other
+          if (null != notifyMessageSet)
+          {
+            deliver(key, notifyMessageSet);
+          }
         }
-        else
+      }
+    }
+  }
+
+  /**
+   * Returns the NOTIFY messages of the last values of a broker key for one subscription of a consumer.
+   */
+  private NotifyMessageSet selectImages(final BrokerKey key, final SubscriptionSource ent, final String subId)
+          throws MALException
+  {
+    final List<NotifyMessageSet.NotifyMessage> messages = new LinkedList<NotifyMessageSet.NotifyMessage>();
+
+    for (LastValueCache.Image image : lastValueCache.getImages(key))
+    {
+      final UpdateHeaderList hl = image.getUpdateHeaderList();
+      final NotifyPayload payload = new NotifyPayload(hl, image.getUpdateLists());
+      final BitSet changes = new BitSet(hl.size());
+      changes.set(0, hl.size());
+      payload.setChanges(changes);
+      selectSubscription(ent, subId, image.getHeader(), hl, payload, messages);
+    }
+
+    if (messages.isEmpty())
+    {
+      return null;
+    }
+
+    final NotifyMessageSet notifyMessageSet = new NotifyMessageSet();
+    notifyMessageSet.details = ent.getMsgHeaderDetails();
+    notifyMessageSet.messages = messages;
+    return notifyMessageSet;
+  }
+
+  /**
+   * Adds the NOTIFY messages of one subscription of a consumer for a set of updates to the supplied list, the other
+   * subscriptions of the consumer have already been sent them.
+   */
+  private static void selectSubscription(final SubscriptionSource ent, final String subId,
+          final MALMessageHeader hdr, final UpdateHeaderList hl, final NotifyPayload payload,
+          final List<NotifyMessageSet.NotifyMessage> messages) throws MALException
+  {
+    final List<NotifyMessageSet> lst = new LinkedList<NotifyMessageSet>();
+    ent.populateNotifyList(hdr, lst, hl, payload);
+
+    for (NotifyMessageSet notifyMessageSet : lst)
+    {
+      for (NotifyMessageSet.NotifyMessage message : notifyMessageSet.messages)
+      {
+        if (subId.equals(message.subscriptionId.getValue()))
         {
-          MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to find consumer for NOTIFY : {0}", notifyMessageSet.details.uriTo.getValue());
+          messages.add(message);
         }
       }
     }
   }
+
+  /**
+   * Adds the sequence number of a publish to the QoS properties of its NOTIFY messages for one consumer. The number is
+   * held by each message as the NOTIFY queue may send messages of several publishes together.
+   */
+  private void setSequence(final NotifyMessageSet notifyMessageSet, final long sequence)
+  {
+    final Map<Object, Object> qosProps = new HashMap<Object, Object>();
+
+    if (null != notifyMessageSet.details.qosProps)
+    {
+      qosProps.putAll(notifyMessageSet.details.qosProps);
+    }
+
+    qosProps.put(NotifyReplayRing.SEQUENCE_PROPERTY, replayRing.toSequenceValue(sequence));
+
+    for (NotifyMessageSet.NotifyMessage message : notifyMessageSet.messages)
+    {
+      message.qosProps = qosProps;
+    }
+  }
   
   @Override
   public synchronized void handleDeregister(final MALInteraction interaction, final MALDeregisterBody body)
@@ -176,7 +424,7 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     
     if ((null != hdr) && (null != lst) && !lst.isEmpty())
     {
-      internalDeregisterSubscriptions(key, getConsumerEntry(key, hdr, false), lst);
+      internalDeregisterSubscriptions(key, getConsumerEntry(key, hdr.getURIFrom().getValue()), lst);
     }
     
     report(key);
@@ -190,15 +438,35 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     final BrokerKey key = new BrokerKey(hdr);
     
     report(key);
-    final Map<StringPair, PublisherSource> rv = getProviderMap(key);
-    if (null != rv.remove(new StringPair(hdr.getURIFrom().getValue(), createProviderKey(hdr))))
+    if (null != getProviderEntry(key, hdr))
     {
+      if (null != journal)
+      {
+        try
+        {
+          journal.publishDeregister(hdr);
+        }
+        catch (IOException ex)
+        {
+          throw new MALException("Unable to journal the deregistration of a provider", ex);
+        }
+      }
+
+      removeProviderEntry(key, new StringPair(hdr.getURIFrom().getValue(), createProviderKey(hdr)));
       MALBrokerImpl.LOGGER.log(Level.FINE, "Removing publisher details: {0}", hdr);
-    }
-    
-    if (rv.isEmpty())
-    {
-      providerMap.remove(key);
+
+      if (getProviderMap(key).isEmpty())
+      {
+        if (null != changeCache)
+        {
+          changeCache.clear(key);
+        }
+
+        if (null != lastValueCache)
+        {
+          lastValueCache.clear(key);
+        }
+      }
     }
     report(key);
   }
@@ -212,7 +480,7 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
   public QoSLevel getProviderQoSLevel(final MALMessageHeader hdr)
   {
     final BrokerKey key = new BrokerKey(hdr);
-    final PublisherSource details = getProviderEntry(key, hdr, false);
+    final PublisherSource details = getProviderEntry(key, hdr);
     
     if (null != details)
     {
@@ -223,7 +491,179 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     return QoSLevel.BESTEFFORT;
   }
   
-  private synchronized MALBrokerBinding getBinding(String uriTo)
+  /**
+   * Returns the scheduler of the NOTIFY delivery tasks, for monitoring.
+   *
+   * @return the scheduler, or null if it is not enabled.
+   */
+  public NotifyScheduler getNotifyScheduler()
+  {
+    return notifyScheduler;
+  }
+
+  /**
+   * Returns the NOTIFY queues of the current consumers, for monitoring.
+   *
+   * @return the list of queues, empty if NOTIFY messages are delivered inline.
+   */
+  public List<NotifyQueue> getNotifyQueues()
+  {
+    final List<NotifyQueue> queues = new ArrayList<NotifyQueue>();
+
+    for (Map<String, SubscriptionSource> consumers : consumerMap.values())
+    {
+      for (SubscriptionSource ent : consumers.values())
+      {
+        if (null != ent.getNotifyQueue())
+        {
+          queues.add(ent.getNotifyQueue());
+        }
+      }
+    }
+
+    return queues;
+  }
+
+  @Override
+  protected void parentClose() throws MALException
+  {
+    super.parentClose();
+
+    if (null != notifyScheduler)
+    {
+      notifyScheduler.close();
+    }
+
+    for (NotifyQueue queue : getNotifyQueues())
+    {
+      queue.close();
+    }
+
+    if (null != notifyExecutor)
+    {
+      notifyExecutor.shutdown();
+    }
+
+    if (null != journal)
+    {
+      journal.close();
+    }
+  }
+
+  /**
+   * Sends the NOTIFY messages for one consumer on the calling thread.
+   *
+   * @param key The broker key of the publish.
+   * @param notifyMessageSet The messages to send.
+   * @throws MALInteractionException If a message fails the security check.
+   * @throws MALException On error.
+   */
+  void deliver(final BrokerKey key, final NotifyMessageSet notifyMessageSet)
+          throws MALInteractionException, MALException
+  {
+    final MALBrokerBindingImpl binding = getBinding(notifyMessageSet.details.uriTo.getValue());
+    
+    if (null != binding)
+    {
+      try
+      {
+        binding.sendNotifySet(notifyMessageSet);
+      }
+      catch (MALTransmitErrorException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Exception raised during transmission of NOTIFY to consumer : {0}", notifyMessageSet.details.uriTo.getValue());
+        
+        handleConsumerCommunicationError(key, notifyMessageSet);
+      }
+      catch (MALTransmitMultipleErrorException ex)
+      {
+        // each message that failed counts as a communication error, as when they were sent one by one
+        for (MALTransmitErrorException error : ex.getTransmitExceptions())
+        {
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Exception raised during transmission of NOTIFY to consumer : {0}", notifyMessageSet.details.uriTo.getValue());
+          
+          handleConsumerCommunicationError(key, notifyMessageSet);
+        }
+      }
+    }
+    else
+    {
+      MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to find consumer for NOTIFY : {0}", notifyMessageSet.details.uriTo.getValue());
+    }
+  }
+
+  /**
+   * Returns the NOTIFY message sets of a publish with the consumers of higher classes first, consumers of the same
+   * class keep their order.
+   */
+  private List<NotifyMessageSet> orderByNotifyClass(final List<NotifyMessageSet> notifyList)
+  {
+    final List<NotifyMessageSet> urgent = new ArrayList<NotifyMessageSet>();
+    final List<NotifyMessageSet> normal = new ArrayList<NotifyMessageSet>(notifyList.size());
+    final List<NotifyMessageSet> bulk = new ArrayList<NotifyMessageSet>();
+
+    for (NotifyMessageSet notifyMessageSet : notifyList)
+    {
+      switch (NotifyScheduler.getNotifyClass(notifyMessageSet.details, highPriority))
+      {
+        case NotifyScheduler.URGENT:
+          urgent.add(notifyMessageSet);
+          break;
+        case NotifyScheduler.BULK:
+          bulk.add(notifyMessageSet);
+          break;
+        default:
+          normal.add(notifyMessageSet);
+          break;
+      }
+    }
+
+    if ((urgent.size() == notifyList.size()) || (normal.size() == notifyList.size())
+            || (bulk.size() == notifyList.size()))
+    {
+      return notifyList;
+    }
+
+    urgent.addAll(normal);
+    urgent.addAll(bulk);
+    return urgent;
+  }
+
+  /**
+   * Adds the NOTIFY messages for one consumer to its queue, or sends them on the calling thread when it has none.
+   */
+  private void dispatch(final BrokerKey key, final SubscriptionSource ent, final NotifyMessageSet notifyMessageSet)
+          throws MALInteractionException, MALException
+  {
+    final NotifyQueue queue = (null == ent) ? null : ent.getNotifyQueue();
+
+    if (null != queue)
+    {
+      queue.offer(notifyMessageSet);
+    }
+    else
+    {
+      deliver(key, notifyMessageSet);
+    }
+  }
+
+  /**
+   * Deregisters all the subscriptions of a consumer, used when its NOTIFY queue overflows. Called on the NOTIFY
+   * executor so that publishers do not wait for the handler lock.
+   *
+   * @param key The broker key of the consumer.
+   * @param ent The consumer.
+   */
+  synchronized void disconnectConsumer(final BrokerKey key, final SubscriptionSource ent)
+  {
+    // another publish may have removed the consumer already
+    if (ent == getConsumerEntry(key, ent.getSignature()))
+    {
+      removeConsumer(key, ent);
+    }
+  }
+  
+  private MALBrokerBindingImpl getBinding(String uriTo)
   {
     for (MALBrokerBindingImpl binding : bindings)
     {
@@ -236,11 +676,22 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     return null;
   }
   
-  private synchronized java.util.List<NotifyMessageSet> createNotify(final BrokerKey key, final MALMessageHeader hdr,
+  /**
+   * Checks the publish against the registered provider and creates the NOTIFY messages for the matching
+   * subscriptions.
+   *
+   * @param key The broker key of the publish.
+   * @param hdr The publish message header.
+   * @param publishBody The publish message body.
+   * @return The list of NOTIFY message sets, one per consumer.
+   * @throws MALInteractionException If the provider is not known or has not registered the published keys.
+   * @throws MALException On error.
+   */
+  protected java.util.List<NotifyMessageSet> createNotify(final BrokerKey key, final MALMessageHeader hdr,
           final MALPublishBody publishBody) throws MALInteractionException, MALException
   {
     MALBrokerImpl.LOGGER.fine("Checking provider");
-    final PublisherSource details = getProviderEntry(key, hdr, false);
+    final PublisherSource details = getProviderEntry(key, hdr);
     
     if (null == details)
     {
@@ -255,17 +706,78 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     
     if (hl != null)
     {
-      final Map<String, SubscriptionSource> rv = getConsumerMap(key);
-      for (Map.Entry<String, SubscriptionSource> entry : rv.entrySet())
+      final NotifyPayload payload = new NotifyPayload(hl, publishBody);
+
+      if (null != changeCache)
+      {
+        changeCache.detectChanges(key, hdr, payload);
+      }
+
+      if (null != lastValueCache)
+      {
+        lastValueCache.update(key, hdr, payload);
+      }
+
+      if (null == replayRing)
+      {
+        populateNotifyList(key, hdr, lst, hl, payload);
+      }
+      else
       {
-        entry.getValue().populateNotifyList(hdr, lst, hl, publishBody);
+        final long sequence;
+
+        // registrations mark their subscription under the same monitor, so the publish is either matched against a
+        // subscription or numbered before its mark and replayed to it, never both or neither
+        synchronized (replayRing.getMonitor(key))
+        {
+          populateNotifyList(key, hdr, lst, hl, payload);
+          sequence = replayRing.add(key, hdr, payload);
+        }
+
+        for (NotifyMessageSet notifyMessageSet : lst)
+        {
+          setSequence(notifyMessageSet, sequence);
+        }
       }
     }
     
     return lst;
   }
+
+  /**
+   * Adds the NOTIFY messages for a publish to the supplied list. The default implementation asks each consumer of
+   * the broker key in turn, sub-classes may override it to use their own subscription look up. It is called without
+   * the handler lock held, concurrently with other publishes and with registrations, unless the replay ring is
+   * enabled in which case it holds the ring monitor of the broker key.
+   *
+   * @param key The broker key of the publish.
+   * @param hdr The publish message header.
+   * @param lst The list of NOTIFY message sets to add to.
+   * @param hl The update header list of the publish.
+   * @param payload The shared updates of the publish.
+   * @throws MALException On error.
+   */
+  protected void populateNotifyList(final BrokerKey key, final MALMessageHeader hdr,
+          final List<NotifyMessageSet> lst, final UpdateHeaderList hl, final NotifyPayload payload)
+          throws MALException
+  {
+    final Map<String, SubscriptionSource> rv = getConsumerMap(key);
+
+    if ((0 < parallelThreshold) && (parallelThreshold <= rv.size()))
+    {
+      ParallelNotifyTask.populateNotifyList(rv.values().toArray(new SubscriptionSource[rv.size()]), hdr, lst, hl,
+              payload);
+    }
+    else
+    {
+      for (Map.Entry<String, SubscriptionSource> entry : rv.entrySet())
+      {
+        entry.getValue().populateNotifyList(hdr, lst, hl, payload);
+      }
+    }
+  }
   
-  private synchronized void report(final BrokerKey key)
+  private void report(final BrokerKey key)
   {
     if (MALBrokerImpl.LOGGER.isLoggable(Level.FINE))
     {
@@ -302,101 +814,388 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
   
   private Map<String, SubscriptionSource> getConsumerMap(final BrokerKey key)
   {
-    Map<String, SubscriptionSource> rv = consumerMap.get(key);
+    final Map<String, SubscriptionSource> rv = consumerMap.get(key);
     
     if (null == rv)
     {
-      rv = new HashMap();
-      consumerMap.put(key, rv);
+      return Collections.emptyMap();
     }
     
     return rv;
   }
   
-  private SubscriptionSource getConsumerEntry(final BrokerKey key, final MALMessageHeader hdr, final boolean create)
+  private SubscriptionSource getConsumerEntry(final BrokerKey key, final String consumerUri)
   {
-    final Map<String, SubscriptionSource> rv = getConsumerMap(key);
-    final String sig = hdr.getURIFrom().getValue();
-    SubscriptionSource ent = rv.get(sig);
-    
-    if ((null == ent) && (create))
-    {
-      ent = createEntry(hdr);
-      rv.put(sig, ent);
-    }
+    return getConsumerMap(key).get(consumerUri);
+  }
+  
+  private void putConsumerEntry(final BrokerKey key, final String consumerUri, final SubscriptionSource ent)
+  {
+    final Map<String, SubscriptionSource> rv = new HashMap<String, SubscriptionSource>(getConsumerMap(key));
+    rv.put(consumerUri, ent);
     
-    return ent;
+    final Map<BrokerKey, Map<String, SubscriptionSource>> newMap
+            = new HashMap<BrokerKey, Map<String, SubscriptionSource>>(consumerMap);
+    newMap.put(key, rv);
+    consumerMap = newMap;
   }
   
-  private SubscriptionSource getConsumerEntry(final BrokerKey key, final String consumerUri)
+  private void removeConsumerEntry(final BrokerKey key, final String consumerUri)
   {
-    return getConsumerMap(key).get(consumerUri);
+    final Map<String, SubscriptionSource> rv = new HashMap<String, SubscriptionSource>(getConsumerMap(key));
+    final SubscriptionSource ent = rv.remove(consumerUri);
+    
+    if (null != ent)
+    {
+      if (null != ent.getNotifyQueue())
+      {
+        ent.getNotifyQueue().close();
+      }
+      
+      final Map<BrokerKey, Map<String, SubscriptionSource>> newMap
+              = new HashMap<BrokerKey, Map<String, SubscriptionSource>>(consumerMap);
+      
+      if (rv.isEmpty())
+      {
+        newMap.remove(key);
+      }
+      else
+      {
+        newMap.put(key, rv);
+      }
+      
+      consumerMap = newMap;
+
+      if (rv.isEmpty())
+      {
+        lastConsumerRemoved(key);
+      }
+    }
   }
   
   private Map<StringPair, PublisherSource> getProviderMap(final BrokerKey key)
   {
-    Map<StringPair, PublisherSource> rv = providerMap.get(key);
+    final Map<StringPair, PublisherSource> rv = providerMap.get(key);
     
     if (null == rv)
     {
-      rv = new HashMap();
-      providerMap.put(key, rv);
+      return Collections.emptyMap();
     }
     
     return rv;
   }
   
-  private PublisherSource getProviderEntry(final BrokerKey key, final MALMessageHeader hdr, final boolean create)
+  private PublisherSource getProviderEntry(final BrokerKey key, final MALMessageHeader hdr)
+  {
+    return getProviderMap(key).get(new StringPair(hdr.getURIFrom().getValue(), createProviderKey(hdr)));
+  }
+  
+  private void putProviderEntry(final BrokerKey key, final StringPair providerKey, final PublisherSource details)
   {
-    final Map<StringPair, PublisherSource> rv = getProviderMap(key);
-    PublisherSource details = rv.get(new StringPair(hdr.getURIFrom().getValue(), createProviderKey(hdr)));
+    final Map<StringPair, PublisherSource> rv = new HashMap<StringPair, PublisherSource>(getProviderMap(key));
+    rv.put(providerKey, details);
     
-    if ((null == details) && create)
+    final Map<BrokerKey, Map<StringPair, PublisherSource>> newMap
+            = new HashMap<BrokerKey, Map<StringPair, PublisherSource>>(providerMap);
+    newMap.put(key, rv);
+    providerMap = newMap;
+  }
+  
+  private boolean removeProviderEntry(final BrokerKey key, final StringPair providerKey)
+  {
+    final Map<StringPair, PublisherSource> rv = new HashMap<StringPair, PublisherSource>(getProviderMap(key));
+    
+    if (null == rv.remove(providerKey))
     {
-      details = new PublisherSource(hdr.getURIFrom().getValue(), hdr.getQoSlevel());
-      rv.put(new StringPair(hdr.getURIFrom().getValue(), createProviderKey(hdr)), details);
-      MALBrokerImpl.LOGGER.log(Level.FINE, "New publisher registering: {0}", hdr);
+      return false;
+    }
+    
+    final Map<BrokerKey, Map<StringPair, PublisherSource>> newMap
+            = new HashMap<BrokerKey, Map<StringPair, PublisherSource>>(providerMap);
+    
+    if (rv.isEmpty())
+    {
+      newMap.remove(key);
+    }
+    else
+    {
+      newMap.put(key, rv);
     }
     
-    return details;
+    providerMap = newMap;
+    return true;
   }
   
   private void handleConsumerCommunicationError(final BrokerKey key, final NotifyMessageSet notifyMessageSet)
   {
     final SubscriptionSource ent = getConsumerEntry(key, notifyMessageSet.details.uriTo.getValue());
     
-    if (null != ent)
+    if ((null != ent) && (ent.incCommsErrorCount() > 2))
     {
-      ent.incCommsErrorCount();
-      
-      if (ent.getCommsErrorCount() > 2)
+      synchronized (this)
       {
-        MALBrokerImpl.LOGGER.log(Level.WARNING, "Removing to consumer due to too many comms errors : {0}", notifyMessageSet.details.uriTo.getValue());
+        // another publish may have removed the consumer already
+        if (ent == getConsumerEntry(key, ent.getSignature()))
+        {
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Removing to consumer due to too many comms errors : {0}", notifyMessageSet.details.uriTo.getValue());
 
-        // three strikes and you're out!
-        internalDeregisterSubscriptions(key, ent, null);
+          // three strikes and you're out!
+          removeConsumer(key, ent);
+        }
       }
     }
   }
   
+  /**
+   * Deregisters all the subscriptions of a consumer that the broker has given up on. The consumer is removed even
+   * if the journal cannot record it, a failure is only logged as there is no one to report it to.
+   */
+  private void removeConsumer(final BrokerKey key, final SubscriptionSource ent)
+  {
+    if (null != ent)
+    {
+      if (null != journal)
+      {
+        try
+        {
+          journal.deregister(key, ent.getSignature(), null);
+        }
+        catch (IOException ex)
+        {
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to journal the removal of a consumer : {0}", ex);
+        }
+      }
+
+      try
+      {
+        removeSubscriptions(key, ent, null);
+      }
+      catch (MALException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Exception raised while removing consumer : {0}", ex);
+      }
+    }
+  }
+
   private void internalDeregisterSubscriptions(final BrokerKey key, final SubscriptionSource ent, final IdentifierList subscriptions)
+          throws MALException
   {
     if (null != ent)
+    {
+      if (null != journal)
+      {
+        try
+        {
+          journal.deregister(key, ent.getSignature(), subscriptions);
+        }
+        catch (IOException ex)
+        {
+          // nothing is removed so the consumer can retry the deregistration
+          throw new MALException("Unable to journal the deregistration of subscriptions", ex);
+        }
+      }
+
+      removeSubscriptions(key, ent, subscriptions);
+    }
+  }
+
+  private void removeSubscriptions(final BrokerKey key, final SubscriptionSource ent, final IdentifierList subscriptions)
+          throws MALException
+  {
+    try
     {
       ent.removeSubscriptions(subscriptions);
+    }
+    finally
+    {
+      if (null != replayRing)
+      {
+        replayRing.forget(key, ent.getSignature(), subscriptions);
+      }
+
       if (!ent.active())
       {
-        final Map<String, SubscriptionSource> rv = getConsumerMap(key);
-        rv.remove(ent.getSignature());
-        
-        if (rv.isEmpty())
+        removeConsumerEntry(key, ent.getSignature());
+      }
+    }
+  }
+
+  /**
+   * Restores in the journal the registration that a change replaced, after the broker failed to apply the change. A
+   * failure is only logged as the original failure is the one reported.
+   */
+  private void revertJournal(final SubscriptionJournal.Change change)
+  {
+    if (null != change)
+    {
+      try
+      {
+        journal.revert(change);
+      }
+      catch (IOException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to revert the subscription journal : {0}", ex);
+      }
+    }
+  }
+
+  private void registerConsumer(final BrokerKey key, final MALMessageHeader hdr, final Subscription lst)
+          throws MALException
+  {
+    final String sig = hdr.getURIFrom().getValue();
+    SubscriptionSource ent = getConsumerEntry(key, sig);
+
+    if (null == ent)
+    {
+      ent = createEntry(hdr);
+      ent.addSubscription(hdr, lst);
+
+      if (null != notifyExecutor)
+      {
+        final Executor executor = (null == notifyScheduler) ? notifyExecutor
+                : notifyScheduler.getExecutor(NotifyScheduler.getNotifyClass(ent.getMsgHeaderDetails(), highPriority));
+        final String overflow = (null != notifyOverflow) ? notifyOverflow
+                : NotifyQueue.getDefaultOverflow(ent.getMsgHeaderDetails().qosLevel);
+        ent.setNotifyQueue(new NotifyQueue(this, key, ent, executor, notifyQueueSize, overflow));
+      }
+
+      putConsumerEntry(key, sig, ent);
+    }
+    else
+    {
+      ent.addSubscription(hdr, lst);
+    }
+  }
+
+  private void registerProvider(final BrokerKey key, final MALMessageHeader hdr, final EntityKeyList providerKeyList)
+  {
+    // the publisher details are replaced rather than updated as publishes may be reading them
+    final StringPair providerKey = new StringPair(hdr.getURIFrom().getValue(), createProviderKey(hdr));
+    final PublisherSource existing = getProviderMap(key).get(providerKey);
+    final PublisherSource details = new PublisherSource(hdr.getURIFrom().getValue(),
+            (null != existing) ? existing.getQosLevel() : hdr.getQoSlevel());
+
+    if (null == existing)
+    {
+      MALBrokerImpl.LOGGER.log(Level.FINE, "New publisher registering: {0}", hdr);
+    }
+
+    details.setKeyList(hdr, providerKeyList);
+    putProviderEntry(key, providerKey, details);
+  }
+
+  /**
+   * Opens the journal of the broker, named after the local name of its first binding so that the brokers of a JVM,
+   * such as the private brokers of providers, each have their own.
+   */
+  private SubscriptionJournal openJournal(final String brokerName)
+  {
+    final String path = SubscriptionJournal.getPath(journalPath, brokerName);
+
+    try
+    {
+      return SubscriptionJournal.open(path, getLongProperty(SubscriptionJournal.SIZE_PROPERTY,
+              SubscriptionJournal.DEFAULT_SIZE));
+    }
+    catch (IOException ex)
+    {
+      MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to open the subscription journal, registrations will not be "
+              + "persisted: {0}", ex);
+    }
+
+    return null;
+  }
+
+  /**
+   * Opens the journal when the first binding is initialised, as the broker name is not known before and sub-classes
+   * are not yet constructed when the handler is, then restores the registrations of the journal made through the
+   * binding and informs the binding of the restored consumers of its broker.
+   */
+  private synchronized void restoreSubscribers(final MALBrokerBindingImpl binding)
+  {
+    final String uri = binding.getURI().getValue();
+
+    if (!journalOpened)
+    {
+      journalOpened = true;
+      journal = openJournal(binding.getLocalName());
+    }
+
+    if ((null != journal) && restoredUris.add(uri))
+    {
+      try
+      {
+        for (SubscriptionJournal.Record rec : journal.getRecords())
+        {
+          final MALMessageHeader hdr = rec.getHeader();
+          final BrokerKey key = new BrokerKey(hdr);
+
+          // the registrations made through the other bindings of the broker are restored by those bindings
+          if (!uri.equals(key.getUri()))
+          {
+            continue;
+          }
+
+          if (SubscriptionJournal.PUBLISH_REGISTER == rec.getType())
+          {
+            registerProvider(key, hdr, (EntityKeyList) rec.getBody());
+          }
+          else
+          {
+            registerConsumer(key, hdr, (Subscription) rec.getBody());
+          }
+        }
+      }
+      catch (IOException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to restore the registrations of the subscription journal: {0}",
+                ex);
+      }
+      catch (MALException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to restore the registrations of the subscription journal: {0}",
+                ex);
+      }
+    }
+
+    for (Map.Entry<BrokerKey, Map<String, SubscriptionSource>> entry : consumerMap.entrySet())
+    {
+      if (uri.equals(entry.getKey().getUri()))
+      {
+        for (String consumerUri : entry.getValue().keySet())
         {
-          consumerMap.remove(key);
+          binding.addSubscriber(consumerUri);
         }
       }
     }
   }
 
+  /**
+   * Returns the value of a handler option, from the MAL context properties or else the system properties.
+   *
+   * @param name The property name.
+   * @return The value, or null if it is not set.
+   */
+  protected final String getProperty(final String name)
+  {
+    final Object value = (null == properties) ? null : properties.get(name);
+
+    return (null == value) ? System.getProperty(name) : value.toString();
+  }
+
+  /**
+   * Returns the numeric value of a handler option, from the MAL context properties or else the system properties.
+   *
+   * @param name The property name.
+   * @param defaultValue The value to return if the property is not set.
+   * @return The value.
+   */
+  protected final long getLongProperty(final String name, final long defaultValue)
+  {
+    return StructureHelper.getLongProperty(properties, name,
+            StructureHelper.getLongProperty(System.getProperties(), name, defaultValue));
+  }
+
   /**
    * Creates a broker implementation specific subscription source.
    *
@@ -404,4 +1203,14 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
    * @return The new subscription source object.
    */
   protected abstract SubscriptionSource createEntry(final MALMessageHeader hdr);
+
+  /**
+   * Called with the handler lock held once the last consumer of a broker key has been removed, so that sub-classes
+   * can release the state they hold for it. Does nothing by default.
+   *
+   * @param key The broker key.
+   */
+  protected void lastConsumerRemoved(final BrokerKey key)
+  {
+  }
 }
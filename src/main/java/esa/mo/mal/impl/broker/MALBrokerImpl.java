@@ -25,12 +25,15 @@ import esa.mo.mal.impl.util.MALClose;
 import java.lang.reflect.InvocationTargetException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
 import org.ccsds.moims.mo.mal.broker.MALBroker;
 import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
 import org.ccsds.moims.mo.mal.broker.MALBrokerHandler;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
 import org.ccsds.moims.mo.mal.transport.*;
 
@@ -43,24 +46,38 @@ public class MALBrokerImpl extends MALClose implements MALBroker
    * Logger
    */
   public static final java.util.logging.Logger LOGGER = Logger.getLogger("org.ccsds.moims.mo.mal.impl.broker");
+  private final Map properties;
   private final MALBrokerHandler handler;
   private final boolean handlerIsLocalType;
   private final List<MALBrokerBindingImpl> bindings = new LinkedList<MALBrokerBindingImpl>();
 
-  MALBrokerImpl(final MALClose parent) throws MALException
+  MALBrokerImpl(final MALClose parent, final Map properties) throws MALException
   {
     super(parent);
+    this.properties = properties;
     this.handler = (MALBrokerHandlerImpl) addChild(createBrokerHandler());
     handlerIsLocalType = true;
   }
 
-  MALBrokerImpl(final MALClose parent, MALBrokerHandler handler) throws MALException
+  MALBrokerImpl(final MALClose parent, final Map properties, MALBrokerHandler handler) throws MALException
   {
     super(parent);
+    this.properties = properties;
     this.handler = handler;
     handlerIsLocalType = false;
   }
 
+  /**
+   * Returns the properties of the MAL context of this broker, the broker handler options are read from them before
+   * the system properties.
+   *
+   * @return the properties, may be null.
+   */
+  public Map getProperties()
+  {
+    return properties;
+  }
+
   /**
    * Returns the broker handler for this broker.
    *
@@ -93,6 +110,35 @@ public class MALBrokerImpl extends MALClose implements MALBroker
     return QoSLevel.BESTEFFORT;
   }
 
+  /**
+   * Informs the handler that the REGISTER_ACK of a registration has been returned to the consumer, so that it can
+   * send the new subscription the updates it missed or the last published values. Errors are logged as the
+   * registration has already been acknowledged.
+   *
+   * @param interaction The register interaction.
+   * @param body The register message body.
+   * @param qosProperties The QoS properties of the register message.
+   */
+  public void registerAcknowledged(final MALInteraction interaction, final MALRegisterBody body,
+          final Map qosProperties)
+  {
+    if (handlerIsLocalType)
+    {
+      try
+      {
+        ((MALBrokerHandlerImpl) handler).handleRegisterAcknowledged(interaction, body, qosProperties);
+      }
+      catch (MALInteractionException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to send the initial updates to a new subscription: {0}", ex);
+      }
+      catch (MALException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to send the initial updates to a new subscription: {0}", ex);
+      }
+    }
+  }
+
   /**
    * Adds a binding implementation to this broker.
    *
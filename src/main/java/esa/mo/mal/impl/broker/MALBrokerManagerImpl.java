@@ -60,13 +60,13 @@ public class MALBrokerManagerImpl extends MALClose implements MALBrokerManager
   @Override
   public synchronized MALBroker createBroker() throws MALException
   {
-    return (MALBroker) addChild(new MALBrokerImpl(this));
+    return (MALBroker) addChild(new MALBrokerImpl(this, impl.getInitialProperties()));
   }
 
   @Override
   public MALBroker createBroker(final MALBrokerHandler handler) throws IllegalArgumentException, MALException
   {
-    return (MALBroker) addChild(new MALBrokerImpl(this, handler));
+    return (MALBroker) addChild(new MALBrokerImpl(this, impl.getInitialProperties(), handler));
   }
 
   @Override
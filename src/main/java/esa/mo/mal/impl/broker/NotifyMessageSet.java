@@ -143,5 +143,9 @@ public final class NotifyMessageSet
      * PubSub updates.
      */
     public java.util.List[] updateList;
+    /**
+     * QoS properties of this message, replacing those of the message header when not null.
+     */
+    public Map qosProps;
   }
 }
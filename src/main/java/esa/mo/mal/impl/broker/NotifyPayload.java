@@ -0,0 +1,324 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
+import org.ccsds.moims.mo.mal.transport.MALPublishBody;
+
+/**
+ * Holds the updates of a single PUBLISH while it is fanned out to the subscriptions. The update lists are read from
+ * the message body once, and the NOTIFY bodies are shared between subscriptions: a subscription that matched every
+ * update receives the published lists themselves, and subscriptions that matched the same subset of updates receive
+ * the same list instances. When the transport delivered the updates still encoded, as a MALEncodedElementList, the
+ * encoded elements are passed through to every NOTIFY as they are.
+ *
+ * The payload also records which updates are changes for the only on change subscriptions. By default every update
+ * that is not of type UPDATE is a change, the broker may replace this with the result of a value comparison.
+ */
+public final class NotifyPayload
+{
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private final UpdateHeaderList updateHeaderList;
+  private final List[] updateLists;
+  private final ConcurrentMap<BitSet, Selection> selections = new ConcurrentHashMap<BitSet, Selection>();
+  private BitSet changes = null;
+
+  /**
+   * Constructor.
+   *
+   * @param updateHeaderList The update header list of the publish.
+   * @param publishBody The publish message body.
+   * @throws MALException If the update lists cannot be read from the body.
+   */
+  public NotifyPayload(final UpdateHeaderList updateHeaderList, final MALPublishBody publishBody) throws MALException
+  {
+    this.updateHeaderList = updateHeaderList;
+    this.updateLists = publishBody.getUpdateLists((List[]) null);
+  }
+
+  /**
+   * Constructor for updates that are not read from a message body.
+   *
+   * @param updateHeaderList The update headers.
+   * @param updateLists The update lists, one element per update header in each.
+   */
+  NotifyPayload(final UpdateHeaderList updateHeaderList, final List[] updateLists)
+  {
+    this.updateHeaderList = updateHeaderList;
+    this.updateLists = updateLists;
+  }
+
+  /**
+   * Returns the update header list of the publish.
+   *
+   * @return the update header list.
+   */
+  public UpdateHeaderList getUpdateHeaderList()
+  {
+    return updateHeaderList;
+  }
+
+  /**
+   * Returns the update lists of the publish.
+   *
+   * @return the update lists, may be null if the publish has no body.
+   */
+  List[] getUpdateLists()
+  {
+    return updateLists;
+  }
+
+  /**
+   * Determines if an update is a change, so should be sent to only on change subscriptions.
+   *
+   * @param index The index of the update.
+   * @return True if the update is a change.
+   */
+  public boolean isChange(final int index)
+  {
+    if (null != changes)
+    {
+      return changes.get(index);
+    }
+
+    return updateHeaderList.get(index).getUpdateType().getOrdinal() != UpdateType._UPDATE_INDEX;
+  }
+
+  /**
+   * Replaces the default detection of changes, must be called before the payload is shared between threads.
+   *
+   * @param changes The indexes of the updates that are changes.
+   */
+  void setChanges(final BitSet changes)
+  {
+    this.changes = changes;
+  }
+
+  /**
+   * Returns a fingerprint of the value of an update, to compare with the fingerprint of its previous value. When the
+   * elements of the update are all encoded it is a 64 bit FNV-1a hash of their encoded forms. When some are decoded,
+   * as published by in process providers, it is the list of the decoded elements themselves, with the hash of each
+   * encoded one in its place, so that they are compared with equals rather than by their 32 bit hash codes, which
+   * collide for values as common as 0 and -1.
+   *
+   * @param index The index of the update.
+   * @return The fingerprint, or null if an encoded element of the update cannot be read.
+   */
+  Object fingerprint(final int index)
+  {
+    long fingerprint = FNV_OFFSET_BASIS;
+    List<Object> values = null;
+
+    if (null != updateLists)
+    {
+      for (List updateList : updateLists)
+      {
+        final Object element = ((null != updateList) && (index < updateList.size())) ? updateList.get(index) : null;
+        byte[] bytes = null;
+
+        if (element instanceof MALEncodedElement)
+        {
+          final Blob encoded = ((MALEncodedElement) element).getEncodedElement();
+
+          try
+          {
+            bytes = (null == encoded) ? null : encoded.getValue();
+          }
+          catch (MALException ex)
+          {
+            bytes = null;
+          }
+
+          if (null == bytes)
+          {
+            return null;
+          }
+        }
+        else if (null != element)
+        {
+          if (null == values)
+          {
+            // the elements before the first decoded one are represented by their hash so far
+            values = new ArrayList<Object>(updateLists.length + 1);
+            values.add(fingerprint);
+          }
+
+          values.add(element);
+          continue;
+        }
+
+        // the length separates the elements of consecutive update lists, -1 marks an absent element
+        long elementFingerprint = hashInt(FNV_OFFSET_BASIS, (null == bytes) ? -1 : bytes.length);
+
+        if (null != bytes)
+        {
+          for (byte b : bytes)
+          {
+            elementFingerprint = (elementFingerprint ^ (b & 0xff)) * FNV_PRIME;
+          }
+        }
+
+        fingerprint = (fingerprint ^ elementFingerprint) * FNV_PRIME;
+
+        if (null != values)
+        {
+          values.add(elementFingerprint);
+        }
+      }
+    }
+
+    return (null == values) ? Long.valueOf(fingerprint) : values;
+  }
+
+  private static long hashInt(long fingerprint, final int value)
+  {
+    for (int shift = 24; 0 <= shift; shift -= 8)
+    {
+      fingerprint = (fingerprint ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+    }
+
+    return fingerprint;
+  }
+
+  /**
+   * Returns the NOTIFY body for a subscription that matched the supplied updates. The returned lists are shared and
+   * must not be modified, and the supplied set must not be modified after the call.
+   *
+   * @param matched The indexes of the matched updates.
+   * @return The update headers and update lists to send.
+   */
+  public Selection select(final BitSet matched)
+  {
+    Selection selection = selections.get(matched);
+
+    if (null == selection)
+    {
+      if (matched.cardinality() == updateHeaderList.size())
+      {
+        selection = new Selection(updateHeaderList, updateLists);
+      }
+      else
+      {
+        selection = createSelection(matched);
+      }
+
+      final Selection existing = selections.putIfAbsent(matched, selection);
+      if (null != existing)
+      {
+        selection = existing;
+      }
+    }
+
+    return selection;
+  }
+
+  private Selection createSelection(final BitSet matched)
+  {
+    final UpdateHeaderList notifyHeaders = new UpdateHeaderList();
+    final List[] notifyLists;
+
+    // have to check for the case where the pubsub message does not contain a body
+    if (null == updateLists)
+    {
+      notifyLists = null;
+    }
+    else
+    {
+      notifyLists = new List[updateLists.length];
+
+      for (int i = 0; i < notifyLists.length; i++)
+      {
+        if (null != updateLists[i])
+        {
+          notifyLists[i] = createList(updateLists[i], matched.cardinality());
+        }
+      }
+    }
+
+    for (int index = matched.nextSetBit(0); index >= 0; index = matched.nextSetBit(index + 1))
+    {
+      notifyHeaders.add(updateHeaderList.get(index));
+
+      if (null != notifyLists)
+      {
+        for (int i = 0; i < notifyLists.length; i++)
+        {
+          if (null != notifyLists[i])
+          {
+            notifyLists[i].add(updateLists[i].get(index));
+          }
+        }
+      }
+    }
+
+    return new Selection(notifyHeaders, notifyLists);
+  }
+
+  /**
+   * Creates an empty update list of the same type as another one, encoded if it is encoded.
+   *
+   * @param updateList The list to copy the type of.
+   * @param size The expected number of elements.
+   * @return the new list.
+   */
+  static List createList(final List updateList, final int size)
+  {
+    if (updateList instanceof MALEncodedElementList)
+    {
+      return new MALEncodedElementList(((MALEncodedElementList) updateList).getShortForm(), size);
+    }
+
+    return (List) ((Element) updateList).createElement();
+  }
+
+  /**
+   * Simple struct style class that holds the body of the NOTIFY messages of a set of matched updates.
+   */
+  public static final class Selection
+  {
+    /**
+     * The matched update headers.
+     */
+    public final UpdateHeaderList updateHeaderList;
+    /**
+     * The matched updates, one list per update list of the publish.
+     */
+    public final List[] updateList;
+
+    private Selection(final UpdateHeaderList updateHeaderList, final List[] updateList)
+    {
+      this.updateHeaderList = updateHeaderList;
+      this.updateList = updateList;
+    }
+  }
+}
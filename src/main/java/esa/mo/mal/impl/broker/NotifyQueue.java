@@ -0,0 +1,643 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+
+/**
+ * The bounded queue of NOTIFY messages waiting to be sent to a single consumer. A publish only adds its messages to
+ * the queues of the matched consumers, the messages are then sent by a delivery task of the broker executor, so a slow
+ * or unreachable consumer does not delay the publisher or the other consumers. At most one delivery task runs per
+ * queue, so the messages of a consumer are sent in the order they were published.
+ *
+ * The overflow policy decides what happens to a new message when the queue is full:
+ * <ul>
+ * <li>drop_oldest - the oldest queued message is discarded</li>
+ * <li>conflate - the oldest queued update is discarded, but see below</li>
+ * <li>disconnect - the consumer is deregistered from the broker, on the broker executor rather than the publishing
+ * thread</li>
+ * </ul>
+ * With the conflate policy the queue conflates on every offer, whether or not it is full. The messages are split into
+ * one message per update, so the capacity counts updates, and an update replaces the queued update of the same
+ * subscription, domain, operation and entity key in its place in the queue, so only the latest value of an entity is
+ * sent. The delivery task merges consecutive queued updates of the same subscription, domain and operation back into
+ * single messages.
+ * Unless OVERFLOW_PROPERTY is set the policy follows the QoS level of the consumer: disconnect for ASSURED and QUEUED,
+ * as they must not lose messages, and drop_oldest for BESTEFFORT and TIMELY.
+ */
+public final class NotifyQueue
+{
+  /**
+   * The property that selects how the NOTIFY messages are sent, using the dispatch modes of DispatchExecutors. The
+   * default is "inline", which sends them on the publishing thread without queuing as in earlier versions.
+   */
+  public static final String DISPATCH_PROPERTY = "org.ccsds.moims.mo.mal.broker.notify.dispatch";
+  /**
+   * The property that holds the maximum number of NOTIFY messages queued for a consumer.
+   */
+  public static final String SIZE_PROPERTY = "org.ccsds.moims.mo.mal.broker.notify.queue";
+  /**
+   * The property that holds the overflow policy of all the consumer queues, replacing the default of their QoS level.
+   */
+  public static final String OVERFLOW_PROPERTY = "org.ccsds.moims.mo.mal.broker.notify.overflow";
+  /**
+   * Overflow policy that discards the oldest queued message.
+   */
+  public static final String DROP_OLDEST = "drop_oldest";
+  /**
+   * Overflow policy that replaces the queued update of the same entity key, on every offer.
+   */
+  public static final String CONFLATE = "conflate";
+  /**
+   * Overflow policy that deregisters the consumer.
+   */
+  public static final String DISCONNECT = "disconnect";
+  /**
+   * The default maximum number of queued messages.
+   */
+  public static final int DEFAULT_SIZE = 1000;
+  private static final int MAX_BATCH = 64;
+  private final MALBrokerHandlerImpl handler;
+  private final BrokerKey key;
+  private final SubscriptionSource source;
+  private final Executor executor;
+  private final int capacity;
+  private final String overflow;
+  private final ArrayDeque<PendingNotify> pending = new ArrayDeque<PendingNotify>();
+  private final Map<String, PendingNotify> conflationMap = new HashMap<String, PendingNotify>();
+  private final DeliveryTask deliveryTask = new DeliveryTask();
+  private boolean scheduled = false;
+  private boolean closed = false;
+  private int maxDepth = 0;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong conflatedCount = new AtomicLong();
+  private final AtomicLong deliveredCount = new AtomicLong();
+  private final AtomicLong queueTime = new AtomicLong();
+  private final AtomicLong sendTime = new AtomicLong();
+
+  NotifyQueue(final MALBrokerHandlerImpl handler,
+          final BrokerKey key,
+          final SubscriptionSource source,
+          final Executor executor,
+          final int capacity,
+          final String overflow)
+  {
+    this.handler = handler;
+    this.key = key;
+    this.source = source;
+    this.executor = executor;
+    this.capacity = Math.max(1, capacity);
+    this.overflow = overflow;
+  }
+
+  /**
+   * Returns the default overflow policy of a consumer, used when OVERFLOW_PROPERTY is not set.
+   *
+   * @param qosLevel The QoS level of the consumer, may be null.
+   * @return DISCONNECT for the ASSURED and QUEUED levels, otherwise DROP_OLDEST.
+   */
+  static String getDefaultOverflow(final QoSLevel qosLevel)
+  {
+    return (QoSLevel.ASSURED.equals(qosLevel) || QoSLevel.QUEUED.equals(qosLevel)) ? DISCONNECT : DROP_OLDEST;
+  }
+
+  /**
+   * Returns the URI of the consumer of this queue.
+   *
+   * @return the consumer URI.
+   */
+  public String getConsumer()
+  {
+    return source.getSignature();
+  }
+
+  /**
+   * Returns the number of messages currently queued.
+   *
+   * @return the queue depth.
+   */
+  public synchronized int getDepth()
+  {
+    return pending.size();
+  }
+
+  /**
+   * Returns the largest number of messages that have been queued at once.
+   *
+   * @return the maximum queue depth.
+   */
+  public synchronized int getMaxDepth()
+  {
+    return maxDepth;
+  }
+
+  /**
+   * Returns the number of messages discarded because the queue was full.
+   *
+   * @return the dropped count.
+   */
+  public long getDroppedCount()
+  {
+    return droppedCount.get();
+  }
+
+  /**
+   * Returns the number of queued messages that have been replaced by a newer message for the same keys.
+   *
+   * @return the conflated count.
+   */
+  public long getConflatedCount()
+  {
+    return conflatedCount.get();
+  }
+
+  /**
+   * Returns the number of messages passed to the transport.
+   *
+   * @return the delivered count.
+   */
+  public long getDeliveredCount()
+  {
+    return deliveredCount.get();
+  }
+
+  /**
+   * Returns the total time the delivered messages spent in the queue.
+   *
+   * @return the queue time in nanoseconds.
+   */
+  public long getQueueTime()
+  {
+    return queueTime.get();
+  }
+
+  /**
+   * Returns the total time spent sending the delivered messages.
+   *
+   * @return the send time in nanoseconds.
+   */
+  public long getSendTime()
+  {
+    return sendTime.get();
+  }
+
+  /**
+   * Adds the NOTIFY messages of a publish to the queue, never blocks.
+   *
+   * @param notifyMessageSet The messages for the consumer of this queue.
+   */
+  void offer(final NotifyMessageSet notifyMessageSet)
+  {
+    boolean disconnect = false;
+    boolean schedule = false;
+
+    synchronized (this)
+    {
+      if (closed)
+      {
+        return;
+      }
+
+      final long now = System.nanoTime();
+      final List<NotifyMessage> messages = CONFLATE.equals(overflow) ? split(notifyMessageSet.messages)
+              : notifyMessageSet.messages;
+      for (NotifyMessage msg : messages)
+      {
+        String conflationKey = null;
+        if (CONFLATE.equals(overflow))
+        {
+          conflationKey = conflationKey(msg);
+          final PendingNotify queued = conflationMap.get(conflationKey);
+
+          if (null != queued)
+          {
+            // keeps the position in the queue of the replaced message
+            queued.message = msg;
+            conflatedCount.incrementAndGet();
+            continue;
+          }
+        }
+
+        if (pending.size() >= capacity)
+        {
+          if (DISCONNECT.equals(overflow))
+          {
+            // nothing more is queued for the consumer while it is being removed
+            closed = true;
+            pending.clear();
+            conflationMap.clear();
+            disconnect = true;
+            break;
+          }
+
+          final PendingNotify oldest = pending.poll();
+          if (null != oldest.conflationKey)
+          {
+            conflationMap.remove(oldest.conflationKey);
+          }
+
+          if (0 == droppedCount.getAndIncrement())
+          {
+            MALBrokerImpl.LOGGER.log(Level.WARNING, "NOTIFY queue full, discarding messages for consumer : {0}",
+                    source.getSignature());
+          }
+        }
+
+        final PendingNotify entry = new PendingNotify(msg, conflationKey, now);
+        pending.add(entry);
+        if (null != conflationKey)
+        {
+          conflationMap.put(conflationKey, entry);
+        }
+      }
+
+      maxDepth = Math.max(maxDepth, pending.size());
+
+      if (!disconnect && !scheduled && !pending.isEmpty())
+      {
+        scheduled = true;
+        schedule = true;
+      }
+    }
+
+    if (disconnect)
+    {
+      MALBrokerImpl.LOGGER.log(Level.WARNING, "Removing consumer due to a full NOTIFY queue : {0}",
+              source.getSignature());
+      disconnect();
+    }
+    else if (schedule)
+    {
+      schedule();
+    }
+  }
+
+  /**
+   * Discards any queued messages and stops delivery. The delivery task is no longer expected to run, as its executor
+   * may have discarded it.
+   */
+  synchronized void close()
+  {
+    closed = true;
+    scheduled = false;
+    pending.clear();
+    conflationMap.clear();
+  }
+
+  private void schedule()
+  {
+    try
+    {
+      executor.execute(deliveryTask);
+    }
+    catch (RejectedExecutionException ex)
+    {
+      // the broker is closing
+      close();
+    }
+  }
+
+  private void disconnect()
+  {
+    try
+    {
+      // deregistration takes the handler lock, which the publishing thread must not wait for
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          handler.disconnectConsumer(key, source);
+        }
+      });
+    }
+    catch (RejectedExecutionException ex)
+    {
+      // the broker is closing
+    }
+  }
+
+  /**
+   * Splits messages into one message per update, so that each update is conflated with the queued update of its own
+   * entity key. The split messages hold new lists, as the lists of the original messages may be shared with other
+   * consumers.
+   */
+  private static List<NotifyMessage> split(final List<NotifyMessage> messages)
+  {
+    final List<NotifyMessage> parts = new ArrayList<NotifyMessage>(messages.size());
+
+    for (NotifyMessage msg : messages)
+    {
+      final int count = (null == msg.updateHeaderList) ? 0 : msg.updateHeaderList.size();
+
+      if (1 >= count)
+      {
+        parts.add(msg);
+      }
+      else
+      {
+        for (int index = 0; index < count; ++index)
+        {
+          final NotifyMessage part = createPart(msg, 1);
+          append(part, msg, index);
+          parts.add(part);
+        }
+      }
+    }
+
+    return parts;
+  }
+
+  /**
+   * Merges the consecutive messages of the same subscription, domain and operation, as split by the conflate policy.
+   */
+  private static List<NotifyMessage> merge(final List<NotifyMessage> batch)
+  {
+    final List<NotifyMessage> merged = new ArrayList<NotifyMessage>(batch.size());
+    NotifyMessage previous = null;
+    NotifyMessage run = null;
+
+    for (NotifyMessage msg : batch)
+    {
+      if ((null != previous) && sameStream(previous, msg))
+      {
+        if (null == run)
+        {
+          // the first message of the run keeps its lists, which may be shared, so the run gets its own
+          run = createPart(previous, MAX_BATCH);
+          appendAll(run, previous);
+          merged.set(merged.size() - 1, run);
+        }
+
+        appendAll(run, msg);
+      }
+      else
+      {
+        merged.add(msg);
+        run = null;
+      }
+
+      previous = msg;
+    }
+
+    return merged;
+  }
+
+  private static boolean sameStream(final NotifyMessage a, final NotifyMessage b)
+  {
+    if (!equal(a.subscriptionId, b.subscriptionId) || !equal(a.domain, b.domain)
+            || !equal(a.networkZone, b.networkZone) || !equal(a.area, b.area) || !equal(a.service, b.service)
+            || !equal(a.operation, b.operation) || !equal(a.version, b.version) || !equal(a.qosProps, b.qosProps)
+            || (null == a.updateHeaderList) || (null == b.updateHeaderList)
+            || ((null == a.updateList) != (null == b.updateList)))
+    {
+      return false;
+    }
+
+    if (null != a.updateList)
+    {
+      if (a.updateList.length != b.updateList.length)
+      {
+        return false;
+      }
+
+      for (int i = 0; i < a.updateList.length; ++i)
+      {
+        if ((null == a.updateList[i]) ? (null != b.updateList[i])
+                : ((null == b.updateList[i]) || (a.updateList[i].getClass() != b.updateList[i].getClass())))
+        {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean equal(final Object a, final Object b)
+  {
+    return (null == a) ? (null == b) : a.equals(b);
+  }
+
+  /**
+   * Creates a message with the fields of another one and empty update lists of the same types.
+   */
+  private static NotifyMessage createPart(final NotifyMessage msg, final int size)
+  {
+    final NotifyMessage part = new NotifyMessage();
+    part.domain = msg.domain;
+    part.networkZone = msg.networkZone;
+    part.area = msg.area;
+    part.service = msg.service;
+    part.operation = msg.operation;
+    part.version = msg.version;
+    part.subscriptionId = msg.subscriptionId;
+    part.qosProps = msg.qosProps;
+    part.updateHeaderList = new UpdateHeaderList();
+
+    if (null != msg.updateList)
+    {
+      part.updateList = new List[msg.updateList.length];
+
+      for (int i = 0; i < part.updateList.length; ++i)
+      {
+        if (null != msg.updateList[i])
+        {
+          part.updateList[i] = NotifyPayload.createList(msg.updateList[i], size);
+        }
+      }
+    }
+
+    return part;
+  }
+
+  private static void appendAll(final NotifyMessage dst, final NotifyMessage src)
+  {
+    for (int index = 0; index < src.updateHeaderList.size(); ++index)
+    {
+      append(dst, src, index);
+    }
+  }
+
+  private static void append(final NotifyMessage dst, final NotifyMessage src, final int index)
+  {
+    dst.updateHeaderList.add(src.updateHeaderList.get(index));
+
+    if (null != dst.updateList)
+    {
+      for (int i = 0; i < dst.updateList.length; ++i)
+      {
+        if (null != dst.updateList[i])
+        {
+          dst.updateList[i].add(src.updateList[i].get(index));
+        }
+      }
+    }
+  }
+
+  private static String conflationKey(final NotifyMessage msg)
+  {
+    final StringBuilder buf = new StringBuilder();
+    buf.append(msg.subscriptionId.getValue());
+    buf.append(':');
+    if (null != msg.domain)
+    {
+      for (Identifier id : msg.domain)
+      {
+        buf.append(id);
+        buf.append('.');
+      }
+    }
+    buf.append(':');
+    buf.append(msg.area);
+    buf.append('.');
+    buf.append(msg.service);
+    buf.append('.');
+    buf.append(msg.operation);
+
+    for (UpdateHeader updateHeader : msg.updateHeaderList)
+    {
+      final EntityKey entityKey = updateHeader.getKey();
+      buf.append(':');
+      if (null != entityKey)
+      {
+        buf.append(entityKey.getFirstSubKey());
+        buf.append('.');
+        buf.append(entityKey.getSecondSubKey());
+        buf.append('.');
+        buf.append(entityKey.getThirdSubKey());
+        buf.append('.');
+        buf.append(entityKey.getFourthSubKey());
+      }
+    }
+
+    return buf.toString();
+  }
+
+  /**
+   * A queued message.
+   */
+  private static final class PendingNotify
+  {
+    private NotifyMessage message;
+    private final String conflationKey;
+    private final long queued;
+
+    private PendingNotify(final NotifyMessage message, final String conflationKey, final long queued)
+    {
+      this.message = message;
+      this.conflationKey = conflationKey;
+      this.queued = queued;
+    }
+  }
+
+  /**
+   * Sends up to a batch of queued messages and then reschedules itself if more are waiting, so that a busy consumer
+   * does not hold on to a delivery thread.
+   */
+  private final class DeliveryTask implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      final List<NotifyMessage> batch = new ArrayList<NotifyMessage>();
+
+      synchronized (NotifyQueue.this)
+      {
+        final long now = System.nanoTime();
+        while (!closed && !pending.isEmpty() && (MAX_BATCH > batch.size()))
+        {
+          final PendingNotify entry = pending.poll();
+          if (null != entry.conflationKey)
+          {
+            conflationMap.remove(entry.conflationKey);
+          }
+
+          batch.add(entry.message);
+          queueTime.addAndGet(now - entry.queued);
+        }
+      }
+
+      if (!batch.isEmpty())
+      {
+        final NotifyMessageSet msgSet = new NotifyMessageSet();
+        msgSet.details = source.getMsgHeaderDetails();
+        msgSet.messages = CONFLATE.equals(overflow) ? merge(batch) : batch;
+
+        final long start = System.nanoTime();
+        try
+        {
+          handler.deliver(key, msgSet);
+        }
+        catch (MALInteractionException ex)
+        {
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Error sending NOTIFY to consumer : " + source.getSignature(), ex);
+        }
+        catch (MALException ex)
+        {
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Error sending NOTIFY to consumer : " + source.getSignature(), ex);
+        }
+        catch (RuntimeException ex)
+        {
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Error sending NOTIFY to consumer : " + source.getSignature(), ex);
+        }
+
+        sendTime.addAndGet(System.nanoTime() - start);
+        deliveredCount.addAndGet(batch.size());
+      }
+
+      boolean reschedule = false;
+      synchronized (NotifyQueue.this)
+      {
+        if (closed || pending.isEmpty())
+        {
+          scheduled = false;
+        }
+        else
+        {
+          reschedule = true;
+        }
+      }
+
+      if (reschedule)
+      {
+        schedule();
+      }
+    }
+  }
+}
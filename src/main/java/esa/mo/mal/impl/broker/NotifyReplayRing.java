@@ -0,0 +1,344 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Holds the most recent publishes of each broker key, numbered in publish order, so that a consumer that lost its
+ * subscriptions can be sent the updates it missed when it registers again.
+ *
+ * The NOTIFY messages of a publish carry its sequence number in the SEQUENCE_PROPERTY QoS property, as the text
+ * "run:sequence" where run identifies this run of the broker. A consumer that registers with the last value it received
+ * in the LAST_SEEN_PROPERTY QoS property is sent the later publishes that match the new subscription, provided they
+ * are all still held. Sequence numbers start again from one when the broker restarts, so a last seen value of another
+ * run is treated as not replayable.
+ *
+ * A publish is matched against the subscriptions and given its sequence number while holding the monitor of its
+ * broker key, see getMonitor, and a registration marks its subscription with the next sequence number while holding
+ * the same monitor. A publish numbered from the mark on was matched against the subscription and is sent live, only
+ * the earlier ones are replayed, so each publish reaches the subscription once. The mark is kept until the
+ * subscription is deregistered, so registering a live subscription again replays nothing it was already sent.
+ * Concurrent publishes to the same broker key may still reach a consumer in a different order to their sequence
+ * numbers, as they are sent after the monitor is released.
+ *
+ * Enabled by setting SIZE_PROPERTY to the number of publishes held per broker key.
+ */
+public final class NotifyReplayRing
+{
+  /**
+   * Property that sets the number of publishes held per broker key, zero disables the replay.
+   */
+  public static final String SIZE_PROPERTY = "org.ccsds.moims.mo.mal.broker.replay.size";
+  /**
+   * QoS property of a REGISTER message holding the last SEQUENCE_PROPERTY value received by the consumer.
+   */
+  public static final String LAST_SEEN_PROPERTY = "org.ccsds.moims.mo.mal.broker.replay.lastSeen";
+  /**
+   * QoS property of a NOTIFY message holding the sequence number of the publish.
+   */
+  public static final String SEQUENCE_PROPERTY = "org.ccsds.moims.mo.mal.broker.replay.sequence";
+  private final int size;
+  private final long run = System.currentTimeMillis();
+  private final ConcurrentMap<BrokerKey, Ring> rings = new ConcurrentHashMap<BrokerKey, Ring>();
+
+  /**
+   * Constructor.
+   *
+   * @param size The number of publishes held per broker key.
+   */
+  NotifyReplayRing(final int size)
+  {
+    this.size = size;
+  }
+
+  /**
+   * Adds a publish to the ring of its broker key.
+   *
+   * @param key The broker key of the publish.
+   * @param hdr The publish message header.
+   * @param payload The updates of the publish.
+   * @return The sequence number of the publish.
+   */
+  long add(final BrokerKey key, final MALMessageHeader hdr, final NotifyPayload payload)
+  {
+    return getRing(key).add(hdr, payload);
+  }
+
+  /**
+   * Returns the monitor held while the publishes of a broker key are matched and numbered. A caller that holds it
+   * while registering a subscription and marking it knows that every later numbered publish has been matched
+   * against the subscription.
+   *
+   * @param key The broker key.
+   * @return The monitor.
+   */
+  Object getMonitor(final BrokerKey key)
+  {
+    return getRing(key);
+  }
+
+  /**
+   * Marks a subscription with the sequence number of the next publish of its broker key, unless it is already
+   * marked. Must be called while holding the monitor of the broker key.
+   *
+   * @param key The broker key.
+   * @param consumerUri The URI of the consumer.
+   * @param subscriptionId The identifier of the subscription.
+   */
+  void mark(final BrokerKey key, final String consumerUri, final String subscriptionId)
+  {
+    getRing(key).mark(markKey(consumerUri, subscriptionId));
+  }
+
+  /**
+   * Removes the marks of deregistered subscriptions.
+   *
+   * @param key The broker key.
+   * @param consumerUri The URI of the consumer.
+   * @param subscriptions The identifiers of the subscriptions, or null for all the subscriptions of the consumer.
+   */
+  void forget(final BrokerKey key, final String consumerUri, final IdentifierList subscriptions)
+  {
+    final Ring ring = rings.get(key);
+
+    if (null != ring)
+    {
+      if (null == subscriptions)
+      {
+        ring.forget(markKey(consumerUri, ""));
+      }
+      else
+      {
+        for (Identifier id : subscriptions)
+        {
+          ring.forget(markKey(consumerUri, id.getValue()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the SEQUENCE_PROPERTY value of a sequence number of this run of the broker.
+   *
+   * @param sequence The sequence number.
+   * @return The property value.
+   */
+  String toSequenceValue(final long sequence)
+  {
+    return run + ":" + sequence;
+  }
+
+  /**
+   * Returns the publishes of a broker key that follow the last sequence received by a consumer and precede the mark
+   * of its subscription.
+   *
+   * @param key The broker key.
+   * @param lastSeen The last SEQUENCE_PROPERTY value received by the consumer.
+   * @param consumerUri The URI of the consumer.
+   * @param subscriptionId The identifier of the subscription.
+   * @return The publishes in sequence order, or null if the value is of another run of the broker, the subscription
+   * is not marked or some of the publishes are no longer held.
+   */
+  List<Entry> getSince(final BrokerKey key, final String lastSeen, final String consumerUri,
+          final String subscriptionId)
+  {
+    final int sep = lastSeen.indexOf(':');
+
+    try
+    {
+      if ((0 > sep) || (run != Long.parseLong(lastSeen.substring(0, sep).trim())))
+      {
+        return null;
+      }
+
+      final long sequence = Long.parseLong(lastSeen.substring(sep + 1).trim());
+      final Ring ring = rings.get(key);
+
+      return (null == ring) ? null : ring.getSince(sequence, markKey(consumerUri, subscriptionId));
+    }
+    catch (NumberFormatException ex)
+    {
+      MALBrokerImpl.LOGGER.log(Level.WARNING, "Ignoring invalid {0} QoS property: {1}",
+              new Object[]
+              {
+                LAST_SEEN_PROPERTY, lastSeen
+              });
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the last seen sequence from the QoS properties of a REGISTER message.
+   *
+   * @param qosProperties The QoS properties, may be null.
+   * @return The SEQUENCE_PROPERTY value last received by the consumer, or null if not supplied.
+   */
+  static String getLastSeen(final Map qosProperties)
+  {
+    final Object value = (null == qosProperties) ? null : qosProperties.get(LAST_SEEN_PROPERTY);
+
+    return (null == value) ? null : value.toString();
+  }
+
+  private Ring getRing(final BrokerKey key)
+  {
+    Ring ring = rings.get(key);
+
+    if (null == ring)
+    {
+      final Ring newRing = new Ring(size);
+      ring = rings.putIfAbsent(key, newRing);
+
+      if (null == ring)
+      {
+        ring = newRing;
+      }
+    }
+
+    return ring;
+  }
+
+  private static String markKey(final String consumerUri, final String subscriptionId)
+  {
+    // the URI cannot hold a new line, so the marks of a consumer sort together after its prefix
+    return consumerUri + '\n' + subscriptionId;
+  }
+
+  /**
+   * The publishes held for one broker key, and the marks of its subscriptions.
+   */
+  private static final class Ring
+  {
+    private final Entry[] entries;
+    private final TreeMap<String, Long> marks = new TreeMap<String, Long>();
+    private long nextSequence = 1;
+
+    private Ring(final int size)
+    {
+      this.entries = new Entry[size];
+    }
+
+    private synchronized long add(final MALMessageHeader hdr, final NotifyPayload payload)
+    {
+      final long sequence = nextSequence++;
+      entries[(int) (sequence % entries.length)] = new Entry(sequence, hdr, payload);
+      return sequence;
+    }
+
+    private synchronized void mark(final String markKey)
+    {
+      if (!marks.containsKey(markKey))
+      {
+        marks.put(markKey, nextSequence);
+      }
+    }
+
+    private synchronized void forget(final String markKey)
+    {
+      if (markKey.endsWith("\n"))
+      {
+        marks.subMap(markKey, markKey + Character.MAX_VALUE).clear();
+      }
+      else
+      {
+        marks.remove(markKey);
+      }
+    }
+
+    private synchronized List<Entry> getSince(final long lastSeen, final String markKey)
+    {
+      final Long mark = marks.get(markKey);
+      final long oldest = Math.max(1, nextSequence - entries.length);
+
+      if ((null == mark) || (lastSeen < oldest - 1) || (nextSequence <= lastSeen))
+      {
+        return null;
+      }
+
+      final List<Entry> missed = new ArrayList<Entry>();
+      for (long sequence = lastSeen + 1; sequence < mark; ++sequence)
+      {
+        missed.add(entries[(int) (sequence % entries.length)]);
+      }
+
+      return missed;
+    }
+  }
+
+  /**
+   * A publish held in a ring.
+   */
+  static final class Entry
+  {
+    private final long sequence;
+    private final MALMessageHeader hdr;
+    private final NotifyPayload payload;
+
+    private Entry(final long sequence, final MALMessageHeader hdr, final NotifyPayload payload)
+    {
+      this.sequence = sequence;
+      this.hdr = hdr;
+      this.payload = payload;
+    }
+
+    /**
+     * Returns the sequence number of the publish.
+     *
+     * @return the sequence number.
+     */
+    long getSequence()
+    {
+      return sequence;
+    }
+
+    /**
+     * Returns the publish message header.
+     *
+     * @return the header.
+     */
+    MALMessageHeader getHeader()
+    {
+      return hdr;
+    }
+
+    /**
+     * Returns the updates of the publish.
+     *
+     * @return the updates.
+     */
+    NotifyPayload getPayload()
+    {
+      return payload;
+    }
+  }
+}
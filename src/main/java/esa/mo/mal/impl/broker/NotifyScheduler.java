@@ -0,0 +1,424 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+
+/**
+ * Schedules the delivery tasks of the consumer NOTIFY queues by class of service, so that the consumers of TIMELY and
+ * high priority subscriptions are served before bulk BESTEFFORT consumers such as archives. At most THREADS_PROPERTY
+ * delivery tasks run at once on the broker executor, each runner takes the next task from the highest class that has
+ * one waiting. A task of a lower class that has waited longer than MAX_WAIT_PROPERTY is taken first so that busy
+ * higher classes cannot starve it, the one that has waited longest when several are over the limit. Such a promotion
+ * is allowed at most once in PROMOTION_INTERVAL picks, so an overloaded lower class, such as an archive backlog, gets
+ * a quarter of the runner turns and never more.
+ *
+ * This bounds the latency of the URGENT class whatever the load of the others: of every PROMOTION_INTERVAL tasks a
+ * runner takes, at least PROMOTION_INTERVAL - 1 are URGENT while URGENT tasks are waiting. An URGENT task with n
+ * URGENT tasks ahead of it therefore starts after at most n + 1 + (n + 1) / (PROMOTION_INTERVAL - 1) tasks, rounded
+ * up, have been taken by the THREADS_PROPERTY runners, plus the tasks those runners were running when it arrived.
+ *
+ * The class of a consumer is URGENT for TIMELY subscriptions and for those at or above HIGH_PRIORITY_PROPERTY when it
+ * is set, BULK for BESTEFFORT subscriptions and NORMAL otherwise. The broker handler hands the NOTIFY messages of a
+ * publish to the consumers in the same class order even when the scheduler is disabled. The latency of each class,
+ * from scheduling to the end of the delivery task, is recorded.
+ *
+ * The scheduler is used whenever NOTIFY messages are queued, that is when NotifyQueue.DISPATCH_PROPERTY is not
+ * "inline".
+ */
+public final class NotifyScheduler
+{
+  /**
+   * The property that holds the maximum number of delivery tasks running at once, the number of processors by
+   * default. Zero disables the scheduler and the delivery tasks are passed straight to the broker executor.
+   */
+  public static final String THREADS_PROPERTY = "org.ccsds.moims.mo.mal.broker.notify.scheduler.threads";
+  /**
+   * The property that holds the time in milliseconds after which a waiting task is taken before those of higher
+   * classes.
+   */
+  public static final String MAX_WAIT_PROPERTY = "org.ccsds.moims.mo.mal.broker.notify.scheduler.maxWait";
+  /**
+   * The property that holds the subscription priority from which consumers are in the URGENT class, zero disables it.
+   */
+  public static final String HIGH_PRIORITY_PROPERTY = "org.ccsds.moims.mo.mal.broker.notify.highPriority";
+  /**
+   * The default maximum wait in milliseconds.
+   */
+  public static final long DEFAULT_MAX_WAIT = 100;
+  /**
+   * The class of TIMELY and high priority consumers.
+   */
+  public static final int URGENT = 0;
+  /**
+   * The class of ASSURED and QUEUED consumers.
+   */
+  public static final int NORMAL = 1;
+  /**
+   * The class of BESTEFFORT consumers.
+   */
+  public static final int BULK = 2;
+  private static final int CLASS_COUNT = 3;
+  /**
+   * The number of picks over which at most one task is taken before those of higher classes.
+   */
+  private static final int PROMOTION_INTERVAL = 4;
+  private final Executor executor;
+  private final int maxRunning;
+  private final long maxWait;
+  private final List<ArrayDeque<ScheduledTask>> queues = new ArrayList<ArrayDeque<ScheduledTask>>(CLASS_COUNT);
+  private final List<ClassExecutor> executors = new ArrayList<ClassExecutor>(CLASS_COUNT);
+  private final Runner runner = new Runner();
+  private int running = 0;
+  private int sincePromotion = 0;
+  private boolean closed = false;
+
+  /**
+   * Constructor.
+   *
+   * @param executor The broker executor that runs the delivery tasks.
+   * @param maxRunning The maximum number of delivery tasks running at once.
+   * @param maxWait The maximum wait in milliseconds before a task is taken before higher classes.
+   */
+  NotifyScheduler(final Executor executor, final int maxRunning, final long maxWait)
+  {
+    this.executor = executor;
+    this.maxRunning = Math.max(1, maxRunning);
+    this.maxWait = maxWait * 1000000L;
+
+    for (int i = 0; i < CLASS_COUNT; ++i)
+    {
+      queues.add(new ArrayDeque<ScheduledTask>());
+      executors.add(new ClassExecutor(i));
+    }
+  }
+
+  /**
+   * Returns the class of a consumer.
+   *
+   * @param details The message header details of the consumer.
+   * @param highPriority The priority from which consumers are URGENT, zero if priorities are not used.
+   * @return URGENT, NORMAL or BULK.
+   */
+  static int getNotifyClass(final NotifyMessageSet.MessageHeaderDetails details, final long highPriority)
+  {
+    if ((null != details.qosLevel) && (QoSLevel._TIMELY_INDEX == details.qosLevel.getOrdinal()))
+    {
+      return URGENT;
+    }
+
+    if ((0 < highPriority) && (null != details.priority) && (highPriority <= details.priority.getValue()))
+    {
+      return URGENT;
+    }
+
+    if ((null != details.qosLevel) && (QoSLevel._BESTEFFORT_INDEX == details.qosLevel.getOrdinal()))
+    {
+      return BULK;
+    }
+
+    return NORMAL;
+  }
+
+  /**
+   * Returns the executor used by the queues of a class of consumers.
+   *
+   * @param notifyClass The class.
+   * @return the executor.
+   */
+  Executor getExecutor(final int notifyClass)
+  {
+    return executors.get(notifyClass);
+  }
+
+  /**
+   * Returns the number of tasks of a class waiting to run.
+   *
+   * @param notifyClass The class.
+   * @return the number of waiting tasks.
+   */
+  public synchronized int getWaiting(final int notifyClass)
+  {
+    return queues.get(notifyClass).size();
+  }
+
+  /**
+   * Returns the number of tasks of a class that have run.
+   *
+   * @param notifyClass The class.
+   * @return the task count.
+   */
+  public long getCompletedCount(final int notifyClass)
+  {
+    return executors.get(notifyClass).completedCount.get();
+  }
+
+  /**
+   * Returns the total time the tasks of a class waited before running.
+   *
+   * @param notifyClass The class.
+   * @return the wait time in nanoseconds.
+   */
+  public long getWaitTime(final int notifyClass)
+  {
+    return executors.get(notifyClass).waitTime.get();
+  }
+
+  /**
+   * Returns the total latency of the tasks of a class, from being scheduled to the end of their run.
+   *
+   * @param notifyClass The class.
+   * @return the latency in nanoseconds.
+   */
+  public long getLatency(final int notifyClass)
+  {
+    return executors.get(notifyClass).latency.get();
+  }
+
+  /**
+   * Returns the largest latency of a task of a class.
+   *
+   * @param notifyClass The class.
+   * @return the latency in nanoseconds.
+   */
+  public long getMaxLatency(final int notifyClass)
+  {
+    return executors.get(notifyClass).maxLatency.get();
+  }
+
+  /**
+   * Returns the number of tasks of a class taken before those of higher classes because they had waited too long.
+   *
+   * @param notifyClass The class.
+   * @return the promoted count.
+   */
+  public long getPromotedCount(final int notifyClass)
+  {
+    return executors.get(notifyClass).promotedCount.get();
+  }
+
+  /**
+   * Returns the default maximum number of delivery tasks running at once.
+   *
+   * @return the number of processors.
+   */
+  static int getDefaultThreads()
+  {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Discards the waiting tasks and rejects any new one. The broker handler closes the consumer NOTIFY queues
+   * afterwards, as those whose task was discarded would otherwise wait for it forever.
+   */
+  synchronized void close()
+  {
+    closed = true;
+
+    for (ArrayDeque<ScheduledTask> queue : queues)
+    {
+      queue.clear();
+    }
+  }
+
+  private void schedule(final int notifyClass, final Runnable task)
+  {
+    final boolean start;
+
+    synchronized (this)
+    {
+      if (closed)
+      {
+        throw new RejectedExecutionException("NOTIFY scheduler closed");
+      }
+
+      queues.get(notifyClass).add(new ScheduledTask(task, notifyClass, System.nanoTime()));
+      start = running < maxRunning;
+
+      if (start)
+      {
+        ++running;
+      }
+    }
+
+    if (start)
+    {
+      try
+      {
+        executor.execute(runner);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        synchronized (this)
+        {
+          --running;
+        }
+
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Takes the next task to run, or releases the runner if there is none.
+   */
+  private synchronized ScheduledTask next()
+  {
+    int chosen = -1;
+
+    for (int i = 0; (i < CLASS_COUNT) && (0 > chosen); ++i)
+    {
+      if (!queues.get(i).isEmpty())
+      {
+        chosen = i;
+      }
+    }
+
+    if (0 > chosen)
+    {
+      --running;
+      return null;
+    }
+
+    // starvation guard, the lower class task that has waited longest over the limit goes first, within the budget of
+    // one promotion every PROMOTION_INTERVAL picks so that the class order still holds under overload
+    int promoted = -1;
+    if (PROMOTION_INTERVAL - 1 <= sincePromotion)
+    {
+      long oldest = System.nanoTime() - maxWait;
+      for (int i = chosen + 1; i < CLASS_COUNT; ++i)
+      {
+        final ScheduledTask head = queues.get(i).peek();
+
+        if ((null != head) && (head.scheduled < oldest))
+        {
+          oldest = head.scheduled;
+          promoted = i;
+        }
+      }
+    }
+
+    if (0 <= promoted)
+    {
+      executors.get(promoted).promotedCount.incrementAndGet();
+      chosen = promoted;
+      sincePromotion = 0;
+    }
+    else if (PROMOTION_INTERVAL - 1 > sincePromotion)
+    {
+      ++sincePromotion;
+    }
+
+    return queues.get(chosen).poll();
+  }
+
+  /**
+   * Runs the waiting tasks until there are none left.
+   */
+  private final class Runner implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      ScheduledTask task = next();
+
+      while (null != task)
+      {
+        final ClassExecutor classExecutor = executors.get(task.notifyClass);
+        final long start = System.nanoTime();
+
+        try
+        {
+          task.task.run();
+        }
+        catch (RuntimeException ex)
+        {
+          // the runner must carry on or its place would be lost
+          MALBrokerImpl.LOGGER.log(Level.WARNING, "Error running NOTIFY delivery task", ex);
+        }
+        finally
+        {
+          final long end = System.nanoTime();
+          final long latency = end - task.scheduled;
+          classExecutor.completedCount.incrementAndGet();
+          classExecutor.waitTime.addAndGet(start - task.scheduled);
+          classExecutor.latency.addAndGet(latency);
+
+          long max = classExecutor.maxLatency.get();
+          while ((max < latency) && !classExecutor.maxLatency.compareAndSet(max, latency))
+          {
+            max = classExecutor.maxLatency.get();
+          }
+        }
+
+        task = next();
+      }
+    }
+  }
+
+  /**
+   * The executor given to the queues of one class, it also holds the metrics of the class.
+   */
+  private final class ClassExecutor implements Executor
+  {
+    private final int notifyClass;
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong latency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong promotedCount = new AtomicLong();
+
+    private ClassExecutor(final int notifyClass)
+    {
+      this.notifyClass = notifyClass;
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+      schedule(notifyClass, command);
+    }
+  }
+
+  /**
+   * A delivery task waiting to run.
+   */
+  private static final class ScheduledTask
+  {
+    private final Runnable task;
+    private final int notifyClass;
+    private final long scheduled;
+
+    private ScheduledTask(final Runnable task, final int notifyClass, final long scheduled)
+    {
+      this.task = task;
+      this.notifyClass = notifyClass;
+      this.scheduled = scheduled;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Fork/join task that asks a range of consumers for the NOTIFY messages of a publish, splitting the range in two until
+ * it is small enough to be checked in turn. The message sets of the left half are placed before those of the right
+ * half, so the resulting list is in the same order as when the consumers are checked one by one.
+ */
+public final class ParallelNotifyTask extends RecursiveTask<List<NotifyMessageSet>>
+{
+  /**
+   * Property that sets the number of consumers of a broker key above which a publish is matched in parallel, zero
+   * disables parallel matching.
+   */
+  public static final String THRESHOLD_PROPERTY = "org.ccsds.moims.mo.mal.broker.parallel.threshold";
+  /**
+   * Default value of THRESHOLD_PROPERTY.
+   */
+  public static final long DEFAULT_THRESHOLD = 512;
+  private static final int LEAF_SIZE = 64;
+  private static final long serialVersionUID = 1L;
+  private final SubscriptionSource[] sources;
+  private final int start;
+  private final int end;
+  private final MALMessageHeader hdr;
+  private final UpdateHeaderList hl;
+  private final NotifyPayload payload;
+
+  private ParallelNotifyTask(final SubscriptionSource[] sources, final int start, final int end,
+          final MALMessageHeader hdr, final UpdateHeaderList hl, final NotifyPayload payload)
+  {
+    this.sources = sources;
+    this.start = start;
+    this.end = end;
+    this.hdr = hdr;
+    this.hl = hl;
+    this.payload = payload;
+  }
+
+  /**
+   * Asks the supplied consumers for their NOTIFY messages using the common fork/join pool.
+   *
+   * @param sources The consumers.
+   * @param hdr The publish message header.
+   * @param lst The list of NOTIFY message sets to add to.
+   * @param hl The update header list of the publish.
+   * @param payload The shared updates of the publish.
+   * @throws MALException On error.
+   */
+  static void populateNotifyList(final SubscriptionSource[] sources, final MALMessageHeader hdr,
+          final List<NotifyMessageSet> lst, final UpdateHeaderList hl, final NotifyPayload payload)
+          throws MALException
+  {
+    try
+    {
+      lst.addAll(ForkJoinPool.commonPool().invoke(new ParallelNotifyTask(sources, 0, sources.length, hdr, hl,
+              payload)));
+    }
+    catch (NotifyTaskException ex)
+    {
+      // the pool may wrap the exception again when it is rethrown on another thread
+      Throwable cause = ex.getCause();
+      while (cause instanceof NotifyTaskException)
+      {
+        cause = cause.getCause();
+      }
+
+      if (cause instanceof MALException)
+      {
+        throw (MALException) cause;
+      }
+
+      throw new MALException("Exception raised while matching a publish in parallel", cause);
+    }
+  }
+
+  @Override
+  protected List<NotifyMessageSet> compute()
+  {
+    if (LEAF_SIZE >= (end - start))
+    {
+      final List<NotifyMessageSet> lst = new ArrayList<NotifyMessageSet>();
+
+      try
+      {
+        for (int i = start; i < end; ++i)
+        {
+          sources[i].populateNotifyList(hdr, lst, hl, payload);
+        }
+      }
+      catch (MALException ex)
+      {
+        throw new NotifyTaskException(ex);
+      }
+
+      return lst;
+    }
+
+    final int middle = (start + end) >>> 1;
+    final ParallelNotifyTask left = new ParallelNotifyTask(sources, start, middle, hdr, hl, payload);
+    final ParallelNotifyTask right = new ParallelNotifyTask(sources, middle, end, hdr, hl, payload);
+    right.fork();
+
+    final List<NotifyMessageSet> lst = new LinkedList<NotifyMessageSet>(left.compute());
+    lst.addAll(right.join());
+    return lst;
+  }
+
+  /**
+   * Carries a MALException out of the fork/join task.
+   */
+  private static final class NotifyTaskException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    private NotifyTaskException(final Throwable cause)
+    {
+      super(cause);
+    }
+  }
+}
@@ -20,8 +20,13 @@
  */
 package esa.mo.mal.impl.broker;
 
+import esa.mo.mal.impl.broker.key.DomainNode;
 import esa.mo.mal.impl.broker.key.PublisherKey;
-import esa.mo.mal.impl.util.StructureHelper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Level;
@@ -32,14 +37,19 @@ import org.ccsds.moims.mo.mal.structures.*;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 
 /**
- * Represents a publisher (provider) in a broker, so contains the list of entities it is allowed to publish.
+ * Represents a publisher (provider) in a broker, so contains the list of entities it is allowed to publish. The
+ * allowed keys without wildcards are indexed by sub key so that checking an update is a few hash lookups, the keys
+ * with wildcards are checked in turn.
  */
 public final class PublisherSource
 {
   private final String uri;
   private final QoSLevel qosLevel;
   private final Set<PublisherKey> keySet = new TreeSet<PublisherKey>();
-  private IdentifierList domain = null;
+  private final Map<String, Map<Long, Map<Long, Set<Long>>>> exactKeys
+          = new HashMap<String, Map<Long, Map<Long, Set<Long>>>>();
+  private final List<PublisherKey> wildcardKeys = new ArrayList<PublisherKey>();
+  private DomainNode domain = null;
 
   PublisherSource(final String uri, final QoSLevel qosLevel)
   {
@@ -56,7 +66,7 @@ public final class PublisherSource
   void report()
   {
     MALBrokerImpl.LOGGER.log(Level.FINE, "  START Provider ( {0} )", uri);
-    MALBrokerImpl.LOGGER.log(Level.FINE, "    Domain : {0}", StructureHelper.domainToString(domain));
+    MALBrokerImpl.LOGGER.log(Level.FINE, "    Domain : {0}", domain);
     for (PublisherKey key : keySet)
     {
       MALBrokerImpl.LOGGER.log(Level.FINE, "    Allowed: {0}", key);
@@ -66,37 +76,45 @@ public final class PublisherSource
 
   void setKeyList(final MALMessageHeader hdr, final EntityKeyList l)
   {
-    domain = hdr.getDomain();
+    domain = DomainNode.intern(hdr.getDomain());
     keySet.clear();
+    exactKeys.clear();
+    wildcardKeys.clear();
     for (EntityKey entityKey : l)
     {
-      keySet.add(new PublisherKey(entityKey));
+      final PublisherKey key = new PublisherKey(entityKey);
+      if (keySet.add(key))
+      {
+        if (isWildcard(key.getFirstSubKey(), key.getSecondSubKey(), key.getThirdSubKey(), key.getFourthSubKey()))
+        {
+          wildcardKeys.add(key);
+        }
+        else
+        {
+          addExactKey(key);
+        }
+      }
     }
   }
 
   void checkPublish(final MALMessageHeader hdr, final UpdateHeaderList updateList) throws MALInteractionException
   {
-    if (StructureHelper.isSubDomainOf(domain, hdr.getDomain()))
+    if (domain.contains(DomainNode.find(hdr.getDomain())))
     {
-      final EntityKeyList lst = new EntityKeyList();
+      EntityKeyList lst = null;
       for (final UpdateHeader update : updateList)
       {
         final EntityKey updateKey = update.getKey();
-        boolean matched = false;
-        for (PublisherKey key : keySet)
+        if (!isAllowed(updateKey))
         {
-          if (key.matchesWithWildcard(updateKey))
+          if (null == lst)
           {
-            matched = true;
-            break;
+            lst = new EntityKeyList();
           }
-        }
-        if (!matched)
-        {
           lst.add(updateKey);
         }
       }
-      if (!lst.isEmpty())
+      if (null != lst)
       {
         MALBrokerImpl.LOGGER.warning("Provider not allowed to publish some keys");
         throw new MALInteractionException(new MALStandardError(MALHelper.UNKNOWN_ERROR_NUMBER, lst));
@@ -108,4 +126,89 @@ public final class PublisherSource
       throw new MALInteractionException(new MALStandardError(MALHelper.UNKNOWN_ERROR_NUMBER, null));
     }
   }
+
+  private boolean isAllowed(final EntityKey updateKey)
+  {
+    if (null == updateKey)
+    {
+      return false;
+    }
+
+    final Identifier id = updateKey.getFirstSubKey();
+    final String key1 = (null == id) ? null : id.getValue();
+    final Long key2 = updateKey.getSecondSubKey();
+    final Long key3 = updateKey.getThirdSubKey();
+    final Long key4 = updateKey.getFourthSubKey();
+
+    if (isWildcard(key1, key2, key3, key4))
+    {
+      // a wildcard in the update can match any allowed key, so fall back to checking them all
+      for (PublisherKey key : keySet)
+      {
+        if (key.matchesWithWildcard(updateKey))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    final Map<Long, Map<Long, Set<Long>>> key2Map = exactKeys.get(key1);
+    if (null != key2Map)
+    {
+      final Map<Long, Set<Long>> key3Map = key2Map.get(key2);
+      if (null != key3Map)
+      {
+        final Set<Long> key4Set = key3Map.get(key3);
+        if ((null != key4Set) && key4Set.contains(key4))
+        {
+          return true;
+        }
+      }
+    }
+
+    for (PublisherKey key : wildcardKeys)
+    {
+      if (key.matchesWithWildcard(updateKey))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void addExactKey(final PublisherKey key)
+  {
+    Map<Long, Map<Long, Set<Long>>> key2Map = exactKeys.get(key.getFirstSubKey());
+    if (null == key2Map)
+    {
+      key2Map = new HashMap<Long, Map<Long, Set<Long>>>();
+      exactKeys.put(key.getFirstSubKey(), key2Map);
+    }
+
+    Map<Long, Set<Long>> key3Map = key2Map.get(key.getSecondSubKey());
+    if (null == key3Map)
+    {
+      key3Map = new HashMap<Long, Set<Long>>();
+      key2Map.put(key.getSecondSubKey(), key3Map);
+    }
+
+    Set<Long> key4Set = key3Map.get(key.getThirdSubKey());
+    if (null == key4Set)
+    {
+      key4Set = new HashSet<Long>();
+      key3Map.put(key.getThirdSubKey(), key4Set);
+    }
+
+    key4Set.add(key.getFourthSubKey());
+  }
+
+  private static boolean isWildcard(final String key1, final Long key2, final Long key3, final Long key4)
+  {
+    return PublisherKey.ALL_ID.equals(key1)
+            || PublisherKey.ALL_NUMBER.equals(key2)
+            || PublisherKey.ALL_NUMBER.equals(key3)
+            || PublisherKey.ALL_NUMBER.equals(key4);
+  }
 }
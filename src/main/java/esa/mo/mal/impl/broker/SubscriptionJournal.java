@@ -0,0 +1,970 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Append only journal of the registrations of a broker handler, held in a memory mapped file so that a restarted
+ * broker can rebuild its consumers and providers without any client traffic.
+ *
+ * Each record is written to the mapped file and its length is written last, so a record interrupted by a crash is
+ * ignored on loading. A record is only applied to the live registrations once it has been written, so a change
+ * reported as failed is never persisted. The broker writes each change to the journal before applying it, and reverts
+ * a registration whose application failed with the Change returned for it. The journal keeps the live registrations
+ * in memory and compacts the file by rewriting them to a new file, when the file is full or when it mostly holds
+ * superseded records, and when it is loaded.
+ *
+ * Each compaction writes a new generation file, named after FILE_PROPERTY with the generation number appended, whose
+ * header is completed last so that an interrupted compaction is ignored on loading. A mapped file is never overwritten
+ * or replaced, as some platforms do not allow it until the mapping is released by the garbage collector; the older
+ * generation files are deleted instead, and one that cannot be deleted yet is retried at the next compaction.
+ *
+ * Each broker has its own journal, named after FILE_PROPERTY with the local name of the broker appended, see getPath.
+ * A journal is held with an exclusive lock on a file of the same name ending in ".lock", so that a second broker
+ * using the same name, in this process or another, fails to open it instead of corrupting it.
+ *
+ * Enabled by setting FILE_PROPERTY to the path of the journal file.
+ */
+public final class SubscriptionJournal
+{
+  /**
+   * Property that sets the path of the journal files, to which the broker name and the generation number are
+   * appended, the journal is disabled if not set.
+   */
+  public static final String FILE_PROPERTY = "org.ccsds.moims.mo.mal.broker.journal";
+  /**
+   * Property that sets the initial size in bytes of the journal file, it is doubled when the live registrations no
+   * longer fit in half of it.
+   */
+  public static final String SIZE_PROPERTY = "org.ccsds.moims.mo.mal.broker.journal.size";
+  /**
+   * The default initial size of the journal file.
+   */
+  public static final long DEFAULT_SIZE = 4L * 1024L * 1024L;
+  /**
+   * Record type of a consumer registration.
+   */
+  static final byte REGISTER = 1;
+  /**
+   * Record type of a consumer deregistration.
+   */
+  static final byte DEREGISTER = 2;
+  /**
+   * Record type of a provider registration.
+   */
+  static final byte PUBLISH_REGISTER = 3;
+  /**
+   * Record type of a provider deregistration.
+   */
+  static final byte PUBLISH_DEREGISTER = 4;
+  private static final int MAGIC = 0x4D414C4A;
+  private static final int VERSION = 1;
+  private static final int FILE_HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 4;
+  private final File file;
+  private final Map<String, Map<String, byte[]>> consumers = new LinkedHashMap<String, Map<String, byte[]>>();
+  private final Map<String, byte[]> providers = new LinkedHashMap<String, byte[]>();
+  private RandomAccessFile raf;
+  private RandomAccessFile lockFile;
+  private MappedByteBuffer buffer;
+  private long generation = 0;
+  private long liveBytes = 0;
+
+  private SubscriptionJournal(final File file)
+  {
+    this.file = file;
+  }
+
+  /**
+   * Opens a journal file, creating it if it does not exist, and loads the registrations it holds.
+   *
+   * @param path The path of the journal file.
+   * @param size The initial size in bytes of the journal file.
+   * @return the journal.
+   * @throws IOException If the file cannot be read or created.
+   */
+  static SubscriptionJournal open(final String path, final long size) throws IOException
+  {
+    final SubscriptionJournal journal = new SubscriptionJournal(new File(path));
+    journal.lock();
+
+    try
+    {
+      journal.load(size);
+    }
+    catch (IOException ex)
+    {
+      journal.close();
+      throw ex;
+    }
+
+    return journal;
+  }
+
+  /**
+   * Returns the path of the journal file of a broker.
+   *
+   * @param path The FILE_PROPERTY value.
+   * @param brokerName The local name of the broker, may be null.
+   * @return The path with the broker name appended, reduced to characters safe in a file name.
+   */
+  static String getPath(final String path, final String brokerName)
+  {
+    final String name = (null == brokerName) ? "broker" : brokerName;
+    final StringBuilder buf = new StringBuilder(path.length() + 1 + name.length());
+    buf.append(path).append('-');
+
+    for (int i = 0; i < name.length(); ++i)
+    {
+      final char c = name.charAt(i);
+      // the generation number follows a dot, so the name must not hold one
+      buf.append((Character.isLetterOrDigit(c) || ('-' == c) || ('_' == c)) ? c : '_');
+    }
+
+    return buf.toString();
+  }
+
+  /**
+   * Returns the live registrations, providers first, in the form in which they were received.
+   *
+   * @return the registrations.
+   * @throws IOException If a record cannot be decoded.
+   */
+  synchronized List<Record> getRecords() throws IOException
+  {
+    final List<Record> records = new ArrayList<Record>();
+
+    for (byte[] record : providers.values())
+    {
+      records.add(decode(record));
+    }
+
+    for (Map<String, byte[]> subscriptions : consumers.values())
+    {
+      for (byte[] record : subscriptions.values())
+      {
+        records.add(decode(record));
+      }
+    }
+
+    return records;
+  }
+
+  /**
+   * Records the registration of a subscription.
+   *
+   * @param hdr The register message header.
+   * @param subscription The subscription.
+   * @return The change, to revert should the broker fail to register the subscription.
+   * @throws IOException If the record cannot be written to the journal file.
+   */
+  synchronized Change register(final MALMessageHeader hdr, final Subscription subscription) throws IOException
+  {
+    final String key = consumerKey(new BrokerKey(hdr), hdr.getURIFrom().getValue());
+    final String subscriptionId = subscription.getSubscriptionId().getValue();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(REGISTER);
+    out.writeUTF(key);
+    out.writeUTF(subscriptionId);
+    writeHeader(out, hdr);
+    writeSubscription(out, subscription);
+
+    final Map<String, byte[]> subscriptions = consumers.get(key);
+    byte[] previous = (null == subscriptions) ? null : subscriptions.get(subscriptionId);
+
+    if (null == previous)
+    {
+      final IdentifierList ids = new IdentifierList();
+      ids.add(new Identifier(subscriptionId));
+      previous = deregisterRecord(key, ids);
+    }
+
+    append(bytes.toByteArray());
+    return new Change(previous);
+  }
+
+  /**
+   * Records the deregistration of subscriptions.
+   *
+   * @param key The broker key of the consumer.
+   * @param consumerUri The URI of the consumer.
+   * @param subscriptions The identifiers of the subscriptions, or null for all the subscriptions of the consumer.
+   * @throws IOException If the record cannot be written to the journal file.
+   */
+  synchronized void deregister(final BrokerKey key, final String consumerUri, final IdentifierList subscriptions)
+          throws IOException
+  {
+    append(deregisterRecord(consumerKey(key, consumerUri), subscriptions));
+  }
+
+  /**
+   * Records the registration of a provider.
+   *
+   * @param hdr The publish register message header.
+   * @param entityKeys The keys the provider may publish.
+   * @return The change, to revert should the broker fail to register the provider.
+   * @throws IOException If the record cannot be written to the journal file.
+   */
+  synchronized Change publishRegister(final MALMessageHeader hdr, final EntityKeyList entityKeys) throws IOException
+  {
+    final String key = providerKey(hdr);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(PUBLISH_REGISTER);
+    out.writeUTF(key);
+    writeHeader(out, hdr);
+    writeEntityKeyList(out, entityKeys);
+
+    final byte[] previous = providers.get(key);
+    append(bytes.toByteArray());
+    return new Change((null != previous) ? previous : publishDeregisterRecord(key));
+  }
+
+  /**
+   * Records the deregistration of a provider.
+   *
+   * @param hdr The publish deregister message header.
+   * @throws IOException If the record cannot be written to the journal file.
+   */
+  synchronized void publishDeregister(final MALMessageHeader hdr) throws IOException
+  {
+    append(publishDeregisterRecord(providerKey(hdr)));
+  }
+
+  /**
+   * Restores the registration that a change replaced.
+   *
+   * @param change The change returned when the registration was recorded.
+   * @throws IOException If the record cannot be written to the journal file.
+   */
+  synchronized void revert(final Change change) throws IOException
+  {
+    append(change.previous);
+  }
+
+  /**
+   * Flushes the mapped file to disk and closes it.
+   */
+  synchronized void close()
+  {
+    if (null != raf)
+    {
+      buffer.force();
+
+      try
+      {
+        raf.close();
+      }
+      catch (IOException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to close the subscription journal: {0}", ex);
+      }
+
+      raf = null;
+    }
+
+    if (null != lockFile)
+    {
+      try
+      {
+        // closing the channel releases the lock
+        lockFile.close();
+      }
+      catch (IOException ex)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to release the subscription journal lock: {0}", ex);
+      }
+
+      lockFile = null;
+    }
+  }
+
+  /**
+   * Takes the exclusive lock of the journal, a lock held by another journal of this JVM is reported as one held by
+   * another process.
+   */
+  private void lock() throws IOException
+  {
+    final RandomAccessFile candidate = new RandomAccessFile(file.getPath() + ".lock", "rw");
+    FileLock lock = null;
+
+    try
+    {
+      lock = candidate.getChannel().tryLock();
+    }
+    catch (OverlappingFileLockException ex)
+    {
+      // held by another broker of this JVM
+    }
+    finally
+    {
+      if (null == lock)
+      {
+        candidate.close();
+      }
+    }
+
+    if (null == lock)
+    {
+      throw new IOException("Subscription journal in use by another broker: " + file);
+    }
+
+    lockFile = candidate;
+  }
+
+  /**
+   * Loads the latest complete generation file, it is read rather than mapped so that it can be deleted once compacted.
+   * The next generation follows all the existing ones so that the compaction deletes any incomplete generation.
+   */
+  private void load(final long size) throws IOException
+  {
+    final TreeMap<Long, File> generations = listGenerations();
+
+    if (!generations.isEmpty())
+    {
+      generation = generations.lastKey();
+    }
+
+    for (Map.Entry<Long, File> entry : generations.descendingMap().entrySet())
+    {
+      final byte[] contents = readFile(entry.getValue());
+      final ByteBuffer old = ByteBuffer.wrap(contents);
+
+      if ((FILE_HEADER_SIZE <= contents.length) && (MAGIC == old.getInt(0)) && (VERSION == old.getInt(4)))
+      {
+        int pos = FILE_HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= contents.length)
+        {
+          final int length = old.getInt(pos);
+          if ((0 >= length) || (pos + RECORD_HEADER_SIZE + length > contents.length))
+          {
+            break;
+          }
+
+          final byte[] record = new byte[length];
+          System.arraycopy(contents, pos + RECORD_HEADER_SIZE, record, 0, length);
+          apply(record);
+          pos += RECORD_HEADER_SIZE + length;
+        }
+
+        break;
+      }
+
+      MALBrokerImpl.LOGGER.log(Level.WARNING, "Ignoring incomplete subscription journal file: {0}", entry.getValue());
+    }
+
+    compact(Math.max(size, FILE_HEADER_SIZE + RECORD_HEADER_SIZE), 0);
+  }
+
+  /**
+   * Returns the generation files of the journal by generation number.
+   */
+  private TreeMap<Long, File> listGenerations()
+  {
+    final TreeMap<Long, File> generations = new TreeMap<Long, File>();
+    final File dir = file.getAbsoluteFile().getParentFile();
+    final String prefix = file.getName() + ".";
+    final File[] files = (null == dir) ? null : dir.listFiles();
+
+    if (null != files)
+    {
+      for (File candidate : files)
+      {
+        final String name = candidate.getName();
+
+        if (name.startsWith(prefix) && candidate.isFile())
+        {
+          try
+          {
+            generations.put(Long.parseLong(name.substring(prefix.length())), candidate);
+          }
+          catch (NumberFormatException ex)
+          {
+            // not a generation file
+          }
+        }
+      }
+    }
+
+    return generations;
+  }
+
+  private static byte[] readFile(final File src) throws IOException
+  {
+    final RandomAccessFile in = new RandomAccessFile(src, "r");
+    try
+    {
+      if (Integer.MAX_VALUE < in.length())
+      {
+        throw new IOException("Subscription journal too large: " + src);
+      }
+
+      final byte[] contents = new byte[(int) in.length()];
+      in.readFully(contents);
+      return contents;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  private static byte[] deregisterRecord(final String key, final IdentifierList subscriptions) throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(DEREGISTER);
+    out.writeUTF(key);
+    writeIdentifierList(out, subscriptions);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] publishDeregisterRecord(final String key) throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(PUBLISH_DEREGISTER);
+    out.writeUTF(key);
+    return bytes.toByteArray();
+  }
+
+  private void append(final byte[] record) throws IOException
+  {
+    if (buffer.remaining() < RECORD_HEADER_SIZE + record.length)
+    {
+      // the record is applied once it is written to the new file, so a failed compaction leaves nothing behind
+      compact(buffer.capacity(), RECORD_HEADER_SIZE + record.length);
+    }
+
+    final int pos = buffer.position();
+    buffer.position(pos + RECORD_HEADER_SIZE);
+    buffer.put(record);
+    // the length is written last so that a partly written record reads as the end of the journal
+    buffer.putInt(pos, record.length);
+    apply(record);
+
+    final long used = buffer.position() - FILE_HEADER_SIZE;
+    if ((buffer.capacity() / 2 < used) && (2 * liveBytes < used))
+    {
+      try
+      {
+        compact(buffer.capacity(), 0);
+      }
+      catch (IOException ex)
+      {
+        // the record is already written, the compaction is tried again by the next record
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Unable to compact the subscription journal: {0}", ex);
+      }
+    }
+  }
+
+  /**
+   * Writes the live registrations to the next generation file, doubling its size until they and the reserved space
+   * fill at most half of it, then switches to it and deletes the older generations.
+   */
+  private void compact(final long size, final long reserved) throws IOException
+  {
+    long capacity = size;
+    while (capacity < 2 * (FILE_HEADER_SIZE + liveBytes + reserved))
+    {
+      capacity *= 2;
+    }
+
+    if (Integer.MAX_VALUE < capacity)
+    {
+      throw new IOException("Subscription journal too large: " + capacity);
+    }
+
+    final long next = generation + 1;
+    final File dst = new File(file.getPath() + "." + next);
+    final RandomAccessFile out = new RandomAccessFile(dst, "rw");
+    final MappedByteBuffer mapped;
+    try
+    {
+      out.setLength(0);
+      mapped = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      mapped.position(FILE_HEADER_SIZE);
+
+      for (byte[] record : providers.values())
+      {
+        mapped.putInt(record.length);
+        mapped.put(record);
+      }
+
+      for (Map<String, byte[]> subscriptions : consumers.values())
+      {
+        for (byte[] record : subscriptions.values())
+        {
+          mapped.putInt(record.length);
+          mapped.put(record);
+        }
+      }
+
+      mapped.force();
+      // the header is written last so that a partly written generation is ignored on loading
+      mapped.putInt(4, VERSION);
+      mapped.putInt(0, MAGIC);
+      mapped.force();
+    }
+    catch (IOException ex)
+    {
+      out.close();
+      if (!dst.delete())
+      {
+        MALBrokerImpl.LOGGER.log(Level.FINE, "Unable to delete incomplete subscription journal file: {0}", dst);
+      }
+      throw ex;
+    }
+
+    // the previous mapping is only released when it is garbage collected, so its file may not be deletable yet
+    close();
+    raf = out;
+    buffer = mapped;
+    generation = next;
+
+    for (File old : listGenerations().headMap(next).values())
+    {
+      if (!old.delete())
+      {
+        MALBrokerImpl.LOGGER.log(Level.FINE, "Unable to delete old subscription journal file yet: {0}", old);
+      }
+    }
+  }
+
+  /**
+   * Applies a record to the live registrations.
+   */
+  private void apply(final byte[] record) throws IOException
+  {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    final byte type = in.readByte();
+    final String key = in.readUTF();
+
+    switch (type)
+    {
+      case REGISTER:
+      {
+        final String subscriptionId = in.readUTF();
+        Map<String, byte[]> subscriptions = consumers.get(key);
+        if (null == subscriptions)
+        {
+          subscriptions = new LinkedHashMap<String, byte[]>();
+          consumers.put(key, subscriptions);
+        }
+
+        liveBytes -= recordSize(subscriptions.put(subscriptionId, record));
+        liveBytes += recordSize(record);
+        break;
+      }
+      case DEREGISTER:
+      {
+        final IdentifierList ids = readIdentifierList(in);
+        final Map<String, byte[]> subscriptions = consumers.get(key);
+        if (null != subscriptions)
+        {
+          if (null == ids)
+          {
+            for (byte[] old : subscriptions.values())
+            {
+              liveBytes -= recordSize(old);
+            }
+            subscriptions.clear();
+          }
+          else
+          {
+            for (Identifier id : ids)
+            {
+              liveBytes -= recordSize(subscriptions.remove(id.getValue()));
+            }
+          }
+
+          if (subscriptions.isEmpty())
+          {
+            consumers.remove(key);
+          }
+        }
+        break;
+      }
+      case PUBLISH_REGISTER:
+        liveBytes -= recordSize(providers.put(key, record));
+        liveBytes += recordSize(record);
+        break;
+      case PUBLISH_DEREGISTER:
+        liveBytes -= recordSize(providers.remove(key));
+        break;
+      default:
+        throw new IOException("Unknown subscription journal record type: " + type);
+    }
+  }
+
+  private static long recordSize(final byte[] record)
+  {
+    return (null == record) ? 0 : RECORD_HEADER_SIZE + record.length;
+  }
+
+  private static Record decode(final byte[] record) throws IOException
+  {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    final byte type = in.readByte();
+    in.readUTF();
+
+    if (REGISTER == type)
+    {
+      in.readUTF();
+      final MALMessageHeader hdr = readHeader(in);
+      return new Record(type, hdr, readSubscription(in));
+    }
+
+    final MALMessageHeader hdr = readHeader(in);
+    return new Record(type, hdr, readEntityKeyList(in));
+  }
+
+  private static String consumerKey(final BrokerKey key, final String consumerUri)
+  {
+    final StringBuilder buf = new StringBuilder();
+    buf.append(key.getUri());
+    buf.append(':');
+    buf.append(key.getSession());
+    buf.append(':');
+    buf.append(key.getSessionName());
+    buf.append(':');
+    buf.append(consumerUri);
+    return buf.toString();
+  }
+
+  private static String providerKey(final MALMessageHeader hdr)
+  {
+    final StringBuilder buf = new StringBuilder(consumerKey(new BrokerKey(hdr), hdr.getURIFrom().getValue()));
+    buf.append(':');
+    buf.append(hdr.getNetworkZone());
+    buf.append(':');
+    buf.append(hdr.getDomain());
+    return buf.toString();
+  }
+
+  private static void writeHeader(final DataOutputStream out, final MALMessageHeader hdr) throws IOException
+  {
+    writeString(out, (null == hdr.getURIFrom()) ? null : hdr.getURIFrom().getValue());
+    writeString(out, (null == hdr.getURITo()) ? null : hdr.getURITo().getValue());
+    out.writeInt((null == hdr.getQoSlevel()) ? -1 : hdr.getQoSlevel().getOrdinal());
+    writeLong(out, (null == hdr.getPriority()) ? null : hdr.getPriority().getValue());
+    writeIdentifierList(out, hdr.getDomain());
+    writeIdentifier(out, hdr.getNetworkZone());
+    out.writeInt((null == hdr.getSession()) ? -1 : hdr.getSession().getOrdinal());
+    writeIdentifier(out, hdr.getSessionName());
+    writeLong(out, hdr.getTransactionId());
+    out.writeInt((null == hdr.getServiceArea()) ? -1 : hdr.getServiceArea().getValue());
+    out.writeInt((null == hdr.getService()) ? -1 : hdr.getService().getValue());
+    out.writeInt((null == hdr.getOperation()) ? -1 : hdr.getOperation().getValue());
+    out.writeShort((null == hdr.getAreaVersion()) ? -1 : hdr.getAreaVersion().getValue());
+  }
+
+  private static MALMessageHeader readHeader(final DataInputStream in) throws IOException
+  {
+    final String uriFrom = readString(in);
+    final String uriTo = readString(in);
+    final int qosLevel = in.readInt();
+    final Long priority = readLong(in);
+    final IdentifierList domain = readIdentifierList(in);
+    final Identifier networkZone = readIdentifier(in);
+    final int session = in.readInt();
+    final Identifier sessionName = readIdentifier(in);
+    final Long transactionId = readLong(in);
+    final int area = in.readInt();
+    final int service = in.readInt();
+    final int operation = in.readInt();
+    final short version = in.readShort();
+
+    return new JournalMessageHeader((null == uriFrom) ? null : new URI(uriFrom),
+            null,
+            (null == uriTo) ? null : new URI(uriTo),
+            null,
+            (0 > qosLevel) ? null : QoSLevel.fromOrdinal(qosLevel),
+            (null == priority) ? null : new UInteger(priority),
+            domain,
+            networkZone,
+            (0 > session) ? null : SessionType.fromOrdinal(session),
+            sessionName,
+            InteractionType.PUBSUB,
+            null,
+            transactionId,
+            (0 > area) ? null : new UShort(area),
+            (0 > service) ? null : new UShort(service),
+            (0 > operation) ? null : new UShort(operation),
+            (0 > version) ? null : new UOctet(version),
+            Boolean.FALSE);
+  }
+
+  private static void writeSubscription(final DataOutputStream out, final Subscription subscription)
+          throws IOException
+  {
+    final EntityRequestList entities = subscription.getEntities();
+    writeIdentifier(out, subscription.getSubscriptionId());
+    out.writeInt((null == entities) ? -1 : entities.size());
+
+    if (null != entities)
+    {
+      for (EntityRequest request : entities)
+      {
+        writeIdentifierList(out, request.getSubDomain());
+        writeBoolean(out, request.getAllAreas());
+        writeBoolean(out, request.getAllServices());
+        writeBoolean(out, request.getAllOperations());
+        writeBoolean(out, request.getOnlyOnChange());
+        writeEntityKeyList(out, request.getEntityKeys());
+      }
+    }
+  }
+
+  private static Subscription readSubscription(final DataInputStream in) throws IOException
+  {
+    final Identifier subscriptionId = readIdentifier(in);
+    final int size = in.readInt();
+    EntityRequestList entities = null;
+
+    if (0 <= size)
+    {
+      entities = new EntityRequestList();
+      for (int i = 0; i < size; ++i)
+      {
+        final IdentifierList subDomain = readIdentifierList(in);
+        final Boolean allAreas = readBoolean(in);
+        final Boolean allServices = readBoolean(in);
+        final Boolean allOperations = readBoolean(in);
+        final Boolean onlyOnChange = readBoolean(in);
+        entities.add(new EntityRequest(subDomain, allAreas, allServices, allOperations, onlyOnChange,
+                readEntityKeyList(in)));
+      }
+    }
+
+    return new Subscription(subscriptionId, entities);
+  }
+
+  private static void writeEntityKeyList(final DataOutputStream out, final EntityKeyList keys) throws IOException
+  {
+    out.writeInt((null == keys) ? -1 : keys.size());
+
+    if (null != keys)
+    {
+      for (EntityKey key : keys)
+      {
+        writeIdentifier(out, key.getFirstSubKey());
+        writeLong(out, key.getSecondSubKey());
+        writeLong(out, key.getThirdSubKey());
+        writeLong(out, key.getFourthSubKey());
+      }
+    }
+  }
+
+  private static EntityKeyList readEntityKeyList(final DataInputStream in) throws IOException
+  {
+    final int size = in.readInt();
+
+    if (0 > size)
+    {
+      return null;
+    }
+
+    final EntityKeyList keys = new EntityKeyList();
+    for (int i = 0; i < size; ++i)
+    {
+      keys.add(new EntityKey(readIdentifier(in), readLong(in), readLong(in), readLong(in)));
+    }
+
+    return keys;
+  }
+
+  private static void writeIdentifierList(final DataOutputStream out, final IdentifierList ids) throws IOException
+  {
+    out.writeInt((null == ids) ? -1 : ids.size());
+
+    if (null != ids)
+    {
+      for (Identifier id : ids)
+      {
+        writeIdentifier(out, id);
+      }
+    }
+  }
+
+  private static IdentifierList readIdentifierList(final DataInputStream in) throws IOException
+  {
+    final int size = in.readInt();
+
+    if (0 > size)
+    {
+      return null;
+    }
+
+    final IdentifierList ids = new IdentifierList();
+    for (int i = 0; i < size; ++i)
+    {
+      ids.add(readIdentifier(in));
+    }
+
+    return ids;
+  }
+
+  private static void writeIdentifier(final DataOutputStream out, final Identifier id) throws IOException
+  {
+    writeString(out, (null == id) ? null : id.getValue());
+  }
+
+  private static Identifier readIdentifier(final DataInputStream in) throws IOException
+  {
+    final String value = readString(in);
+    return (null == value) ? null : new Identifier(value);
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException
+  {
+    out.writeBoolean(null != value);
+    if (null != value)
+    {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException
+  {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeLong(final DataOutputStream out, final Long value) throws IOException
+  {
+    out.writeBoolean(null != value);
+    if (null != value)
+    {
+      out.writeLong(value);
+    }
+  }
+
+  private static Long readLong(final DataInputStream in) throws IOException
+  {
+    return in.readBoolean() ? in.readLong() : null;
+  }
+
+  private static void writeBoolean(final DataOutputStream out, final Boolean value) throws IOException
+  {
+    out.writeByte((null == value) ? -1 : (value ? 1 : 0));
+  }
+
+  private static Boolean readBoolean(final DataInputStream in) throws IOException
+  {
+    final byte value = in.readByte();
+    return (0 > value) ? null : Boolean.valueOf(0 != value);
+  }
+
+  /**
+   * A recorded registration, holding the record that restores what it replaced.
+   */
+  static final class Change
+  {
+    private final byte[] previous;
+
+    private Change(final byte[] previous)
+    {
+      this.previous = previous;
+    }
+  }
+
+  /**
+   * A live registration read back from the journal.
+   */
+  static final class Record
+  {
+    private final byte type;
+    private final MALMessageHeader header;
+    private final Object body;
+
+    private Record(final byte type, final MALMessageHeader header, final Object body)
+    {
+      this.type = type;
+      this.header = header;
+      this.body = body;
+    }
+
+    /**
+     * Returns the record type, REGISTER or PUBLISH_REGISTER.
+     *
+     * @return the type.
+     */
+    byte getType()
+    {
+      return type;
+    }
+
+    /**
+     * Returns the header of the registration message.
+     *
+     * @return the header.
+     */
+    MALMessageHeader getHeader()
+    {
+      return header;
+    }
+
+    /**
+     * Returns the body of the registration, a Subscription or the EntityKeyList of a provider.
+     *
+     * @return the body.
+     */
+    Object getBody()
+    {
+      return body;
+    }
+  }
+}
@@ -21,18 +21,20 @@
 package esa.mo.mal.impl.broker;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.structures.*;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
-import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 
 /**
- * Base class for subscription sources.
+ * Base class for subscription sources. Changes to the subscriptions are serialised by the broker handler, but
+ * populateNotifyList may be called concurrently with them from publishing threads.
  */
 public abstract class SubscriptionSource
 {
   private final NotifyMessageSet.MessageHeaderDetails msgHeaderDetails;
-  private int commsErrorCount = 0;
+  private final AtomicInteger commsErrorCount = new AtomicInteger();
+  private volatile NotifyQueue notifyQueue = null;
 
   /**
    * Constructor.
@@ -61,12 +63,34 @@ public abstract class SubscriptionSource
     return msgHeaderDetails;
   }
 
+  /**
+   * Returns the queue of NOTIFY messages waiting to be sent to this source.
+   *
+   * @return the queue, or null if NOTIFY messages are sent inline.
+   */
+  public NotifyQueue getNotifyQueue()
+  {
+    return notifyQueue;
+  }
+
+  /**
+   * Sets the queue of NOTIFY messages waiting to be sent to this source.
+   *
+   * @param notifyQueue the queue.
+   */
+  void setNotifyQueue(final NotifyQueue notifyQueue)
+  {
+    this.notifyQueue = notifyQueue;
+  }
+
   /**
    * Increments the count of communication errors.
+   *
+   * @return the new error count.
    */
-  public void incCommsErrorCount()
+  public int incCommsErrorCount()
   {
-    ++commsErrorCount;
+    return commsErrorCount.incrementAndGet();
   }
 
   /**
@@ -76,7 +100,7 @@ public abstract class SubscriptionSource
    */
   public int getCommsErrorCount()
   {
-    return commsErrorCount;
+    return commsErrorCount.get();
   }
 
   /**
@@ -84,7 +108,7 @@ public abstract class SubscriptionSource
    */
   public void resetCommsErrorCount()
   {
-    commsErrorCount = 0;
+    commsErrorCount.set(0);
   }
 
   /**
@@ -111,8 +135,10 @@ public abstract class SubscriptionSource
    *
    * @param srcHdr Source message.
    * @param subscription New subscription.
+   * @throws MALException If the subscription could not be applied.
    */
-  public abstract void addSubscription(final MALMessageHeader srcHdr, final Subscription subscription);
+  public abstract void addSubscription(final MALMessageHeader srcHdr, final Subscription subscription)
+          throws MALException;
 
   /**
    * Adds messages to the list of notify messages to be sent out.
@@ -120,18 +146,19 @@ public abstract class SubscriptionSource
    * @param srcHdr Source publish message.
    * @param lst List of broker messages.
    * @param updateHeaderList The update header list.
-   * @param publishBody The publish message body.
+   * @param payload The shared updates of the publish.
    * @throws MALException On error.
    */
   public abstract void populateNotifyList(final MALMessageHeader srcHdr,
           final List<NotifyMessageSet> lst,
           final UpdateHeaderList updateHeaderList,
-          final MALPublishBody publishBody) throws MALException;
+          final NotifyPayload payload) throws MALException;
 
   /**
    * Removes a subscription.
    *
    * @param subscriptions List of subscription identifiers to remove.
+   * @throws MALException If the removal could not be applied.
    */
-  public abstract void removeSubscriptions(final IdentifierList subscriptions);
+  public abstract void removeSubscriptions(final IdentifierList subscriptions) throws MALException;
 }
@@ -0,0 +1,153 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.broker.key.DomainNode;
+import esa.mo.mal.impl.broker.key.UpdateKey;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Remembers a fingerprint of the last published value of each entity so that only on change subscriptions are only
+ * notified when the value actually changed, whatever update type the provider used. Creations and deletions are
+ * always changes, updates and modifications are changes when their fingerprint differs from the last one seen for the
+ * same domain, service, operation and entity key. Encoded values are remembered as a 64 bit hash, so a change can
+ * very rarely be missed; decoded values, as published by in process providers, are remembered themselves and compared
+ * with equals, so none is missed. An update whose values cannot be read has no fingerprint and is always a change.
+ *
+ * The number of entities remembered per broker key is capped by SIZE_PROPERTY, the updates of entities beyond it are
+ * always changes. The fingerprints of a broker key are dropped when its last provider deregisters.
+ *
+ * Enabled by setting ENABLED_PROPERTY to true, otherwise only on change subscriptions skip the updates of type UPDATE.
+ */
+final class ValueChangeCache
+{
+  /**
+   * Property that enables the cache.
+   */
+  public static final String ENABLED_PROPERTY = "org.ccsds.moims.mo.mal.broker.onchange.fingerprint";
+  /**
+   * Property that sets the maximum number of entities remembered per broker key.
+   */
+  public static final String SIZE_PROPERTY = "org.ccsds.moims.mo.mal.broker.onchange.size";
+  /**
+   * The default maximum number of entities remembered per broker key.
+   */
+  public static final int DEFAULT_SIZE = 100000;
+  private final int maxSize;
+  private final ConcurrentMap<BrokerKey, ConcurrentMap<ValueKey, Object>> fingerprints
+          = new ConcurrentHashMap<BrokerKey, ConcurrentMap<ValueKey, Object>>();
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize The maximum number of entities remembered per broker key.
+   */
+  ValueChangeCache(final int maxSize)
+  {
+    this.maxSize = Math.max(1, maxSize);
+  }
+
+  /**
+   * Compares the updates of a publish with the last values seen and records the new values.
+   *
+   * @param key The broker key of the publish.
+   * @param hdr The publish message header.
+   * @param payload The shared updates of the publish, its changes are set by this call.
+   */
+  void detectChanges(final BrokerKey key, final MALMessageHeader hdr, final NotifyPayload payload)
+  {
+    ConcurrentMap<ValueKey, Object> values = fingerprints.get(key);
+    if (null == values)
+    {
+      final ConcurrentMap<ValueKey, Object> newValues = new ConcurrentHashMap<ValueKey, Object>();
+      values = fingerprints.putIfAbsent(key, newValues);
+      if (null == values)
+      {
+        values = newValues;
+      }
+    }
+
+    final UpdateHeaderList hl = payload.getUpdateHeaderList();
+    final DomainNode domain = DomainNode.find(hdr.getDomain());
+    final BitSet changes = new BitSet(hl.size());
+
+    for (int i = 0; i < hl.size(); ++i)
+    {
+      final UpdateHeader updateHeader = hl.get(i);
+      final ValueKey valueKey = new ValueKey(new UpdateKey(hdr, domain, updateHeader.getKey()));
+      final int updateType = updateHeader.getUpdateType().getOrdinal();
+
+      if (UpdateType._DELETION_INDEX == updateType)
+      {
+        values.remove(valueKey);
+        changes.set(i);
+      }
+      else
+      {
+        final Object fingerprint = payload.fingerprint(i);
+
+        if (null == fingerprint)
+        {
+          values.remove(valueKey);
+          changes.set(i);
+        }
+        else
+        {
+          final Object previous = values.get(valueKey);
+
+          if (null == previous)
+          {
+            // beyond the cap the entity is not remembered, so all of its updates are changes
+            if (values.size() < maxSize)
+            {
+              values.put(valueKey, fingerprint);
+            }
+
+            changes.set(i);
+          }
+          else if (!fingerprint.equals(values.put(valueKey, fingerprint)) || (UpdateType._CREATION_INDEX == updateType))
+          {
+            changes.set(i);
+          }
+        }
+      }
+    }
+
+    payload.setChanges(changes);
+  }
+
+  /**
+   * Forgets the values published to a broker key.
+   *
+   * @param key The broker key.
+   */
+  void clear(final BrokerKey key)
+  {
+    fingerprints.remove(key);
+  }
+}
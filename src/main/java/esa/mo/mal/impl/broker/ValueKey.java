@@ -0,0 +1,78 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.broker.key.UpdateKey;
+import org.ccsds.moims.mo.mal.structures.UShort;
+
+/**
+ * Identifies the value of an entity, the update key plus the area, service and operation it was published on.
+ */
+final class ValueKey
+{
+  private static final int HASH_MAGIC_NUMBER = 53;
+  private final UpdateKey key;
+
+  /**
+   * Constructor.
+   *
+   * @param key The update key.
+   */
+  ValueKey(final UpdateKey key)
+  {
+    this.key = key;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = key.hashCode();
+    hash = HASH_MAGIC_NUMBER * hash + hashOf(key.getArea());
+    hash = HASH_MAGIC_NUMBER * hash + hashOf(key.getService());
+    hash = HASH_MAGIC_NUMBER * hash + hashOf(key.getOperation());
+    return hash;
+  }
+
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (!(obj instanceof ValueKey))
+    {
+      return false;
+    }
+
+    final UpdateKey other = ((ValueKey) obj).key;
+    return key.equals(other)
+            && equalsOf(key.getArea(), other.getArea())
+            && equalsOf(key.getService(), other.getService())
+            && equalsOf(key.getOperation(), other.getOperation());
+  }
+
+  private static int hashOf(final UShort value)
+  {
+    return (null == value) ? 0 : value.hashCode();
+  }
+
+  private static boolean equalsOf(final UShort lhs, final UShort rhs)
+  {
+    return (null == lhs) ? (null == rhs) : lhs.equals(rhs);
+  }
+}
@@ -0,0 +1,93 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.indexed;
+
+import esa.mo.mal.impl.broker.MALBrokerHandlerImpl;
+import esa.mo.mal.impl.broker.NotifyMessageSet;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.SubscriptionSource;
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.util.MALClose;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Extends the base broker handler with an index of the subscriptions, so that a publish only checks the subscriptions
+ * that can match its update keys rather than every subscription of every consumer. Selected by setting the property
+ * org.ccsds.moims.mo.mal.broker.class to the name of this class.
+ */
+public class IndexedBrokerHandler extends MALBrokerHandlerImpl
+{
+  private final Map<BrokerKey, SubscriptionIndex> indexMap = new ConcurrentHashMap<BrokerKey, SubscriptionIndex>();
+
+  /**
+   * Constructor
+   *
+   * @param parent The parent of this class.
+   */
+  public IndexedBrokerHandler(MALClose parent)
+  {
+    super(parent);
+  }
+
+  @Override
+  protected SubscriptionSource createEntry(final MALMessageHeader hdr)
+  {
+    return new IndexedSubscriptionSource(hdr, getIndex(new BrokerKey(hdr)));
+  }
+
+  @Override
+  protected void populateNotifyList(final BrokerKey key, final MALMessageHeader hdr,
+          final List<NotifyMessageSet> lst, final UpdateHeaderList hl, final NotifyPayload payload)
+          throws MALException
+  {
+    final SubscriptionIndex index = indexMap.get(key);
+
+    if ((null != index) && (0 < index.size()))
+    {
+      index.populateNotifyList(hdr, lst, hl, payload, null);
+    }
+  }
+
+  @Override
+  protected void lastConsumerRemoved(final BrokerKey key)
+  {
+    // a publish still holding the index only finds it empty
+    indexMap.remove(key);
+  }
+
+  private SubscriptionIndex getIndex(final BrokerKey key)
+  {
+    SubscriptionIndex index = indexMap.get(key);
+
+    if (null == index)
+    {
+      index = new SubscriptionIndex();
+      indexMap.put(key, index);
+    }
+
+    return index;
+  }
+}
@@ -0,0 +1,131 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.indexed;
+
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.indexed.SubscriptionIndex.IndexEntry;
+import esa.mo.mal.impl.broker.key.SubscriptionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * An IndexedSubscriptionDetails is keyed on subscription Id and holds the entries it has added to the index.
+ */
+class IndexedSubscriptionDetails
+{
+  private final IndexedSubscriptionSource source;
+  private final String subscriptionId;
+  private Set<SubscriptionKey> onAll = new TreeSet<SubscriptionKey>();
+  private Set<SubscriptionKey> onChange = new TreeSet<SubscriptionKey>();
+  private List<IndexEntry> entries = new ArrayList<IndexEntry>();
+
+  IndexedSubscriptionDetails(final IndexedSubscriptionSource source, final String subscriptionId)
+  {
+    this.source = source;
+    this.subscriptionId = subscriptionId;
+  }
+
+  IndexedSubscriptionSource getSource()
+  {
+    return source;
+  }
+
+  String getSubscriptionId()
+  {
+    return subscriptionId;
+  }
+
+  boolean active()
+  {
+    return !entries.isEmpty();
+  }
+
+  void report()
+  {
+    MALBrokerImpl.LOGGER.log(Level.FINE, "    START Subscription ( {0} )", subscriptionId);
+    MALBrokerImpl.LOGGER.log(Level.FINE, "     Indexed: {0}", entries.size());
+    for (SubscriptionKey key : onAll)
+    {
+      MALBrokerImpl.LOGGER.log(Level.FINE, "            : All : {0}", key);
+    }
+    for (SubscriptionKey key : onChange)
+    {
+      MALBrokerImpl.LOGGER.log(Level.FINE, "            : Chg : {0}", key);
+    }
+    MALBrokerImpl.LOGGER.log(Level.FINE, "    END Subscription ( {0} )", subscriptionId);
+  }
+
+  void setIds(final MALMessageHeader srcHdr, final EntityRequestList lst, final SubscriptionIndex index)
+  {
+    final Set<SubscriptionKey> newOnAll = new TreeSet<SubscriptionKey>();
+    final Set<SubscriptionKey> newOnChange = new TreeSet<SubscriptionKey>();
+
+    for (EntityRequest rqst : lst)
+    {
+      final EntityKeyList keyList = rqst.getEntityKeys();
+      final boolean bOnChange = rqst.getOnlyOnChange();
+
+      for (EntityKey id : keyList)
+      {
+        final SubscriptionKey key = new SubscriptionKey(srcHdr, rqst, id);
+        if (bOnChange)
+        {
+          newOnChange.add(key);
+        }
+        else
+        {
+          newOnAll.add(key);
+        }
+      }
+    }
+
+    final List<IndexEntry> newEntries = new ArrayList<IndexEntry>(newOnAll.size() + newOnChange.size());
+    for (SubscriptionKey key : newOnAll)
+    {
+      newEntries.add(new IndexEntry(key, this, false));
+    }
+    for (SubscriptionKey key : newOnChange)
+    {
+      newEntries.add(new IndexEntry(key, this, true));
+    }
+
+    index.update(entries, newEntries);
+    entries = newEntries;
+    onAll = newOnAll;
+    onChange = newOnChange;
+  }
+
+  void removeIds(final SubscriptionIndex index)
+  {
+    index.update(entries, new ArrayList<IndexEntry>());
+    entries = new ArrayList<IndexEntry>();
+    onAll = new TreeSet<SubscriptionKey>();
+    onChange = new TreeSet<SubscriptionKey>();
+  }
+}
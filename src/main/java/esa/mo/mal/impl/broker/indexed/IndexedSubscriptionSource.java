@@ -0,0 +1,142 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.indexed;
+
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyMessageSet;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.SubscriptionSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * An IndexedSubscriptionSource represents a single consumer indexed by URI. Its subscription keys are held in the
+ * index shared by all consumers of the same broker key.
+ */
+class IndexedSubscriptionSource extends SubscriptionSource
+{
+  private final String signature;
+  private final SubscriptionIndex index;
+  private final Map<String, IndexedSubscriptionDetails> details
+          = new HashMap<String, IndexedSubscriptionDetails>();
+
+  /**
+   * Constructor.
+   *
+   * @param hdr The message header of the subscription message.
+   * @param index The subscription index of the broker key.
+   */
+  IndexedSubscriptionSource(final MALMessageHeader hdr, final SubscriptionIndex index)
+  {
+    super(hdr, hdr.getURIFrom());
+    this.signature = hdr.getURIFrom().getValue();
+    this.index = index;
+  }
+
+  @Override
+  public boolean active()
+  {
+    for (IndexedSubscriptionDetails sub : details.values())
+    {
+      if (sub.active())
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public void report()
+  {
+    MALBrokerImpl.LOGGER.log(Level.FINE, "  START Consumer ( {0} )", signature);
+    MALBrokerImpl.LOGGER.log(Level.FINE, "   Subscriptions: {0}", details.size());
+    for (Map.Entry<String, IndexedSubscriptionDetails> entry : details.entrySet())
+    {
+      entry.getValue().report();
+    }
+    MALBrokerImpl.LOGGER.log(Level.FINE, "  END Consumer ( {0} )", signature);
+  }
+
+  @Override
+  public String getSignature()
+  {
+    return signature;
+  }
+
+  @Override
+  public void addSubscription(final MALMessageHeader srcHdr, final Subscription subscription)
+  {
+    final String subId = subscription.getSubscriptionId().getValue();
+    IndexedSubscriptionDetails sub = details.get(subId);
+    if (null == sub)
+    {
+      sub = new IndexedSubscriptionDetails(this, subId);
+      details.put(subId, sub);
+    }
+    sub.setIds(srcHdr, subscription.getEntities(), index);
+  }
+
+  @Override
+  public void populateNotifyList(final MALMessageHeader srcHdr,
+          final List<NotifyMessageSet> lst,
+          final UpdateHeaderList updateHeaderList,
+          final NotifyPayload payload) throws MALException
+  {
+    MALBrokerImpl.LOGGER.log(Level.FINE, "Checking IdxComSource : {0}", signature);
+
+    index.populateNotifyList(srcHdr, lst, updateHeaderList, payload, this);
+  }
+
+  @Override
+  public void removeSubscriptions(final IdentifierList subscriptions)
+  {
+    if (null != subscriptions)
+    {
+      for (Identifier sub : subscriptions)
+      {
+        final IndexedSubscriptionDetails removed = details.remove(sub.getValue());
+        if (null != removed)
+        {
+          removed.removeIds(index);
+        }
+      }
+    }
+    else
+    {
+      // remove all
+      for (IndexedSubscriptionDetails sub : details.values())
+      {
+        sub.removeIds(index);
+      }
+      details.clear();
+    }
+  }
+}
@@ -0,0 +1,465 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.indexed;
+
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyMessageSet;
+import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.key.DomainNode;
+import esa.mo.mal.impl.broker.key.PublisherKey;
+import esa.mo.mal.impl.broker.key.SubscriptionKey;
+import esa.mo.mal.impl.broker.key.UpdateKey;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Index of the subscription keys of all consumers of a single broker key. The keys are held per interned domain,
+ * each domain having one set of keys for the exact domain and one for the keys that also match sub domains. Inside a
+ * domain the keys are hashed on each of the four sub keys in turn, with a separate branch for the wildcard value, so
+ * an update key only visits the branches that it can match instead of every subscription.
+ *
+ * Publishes match against the index under a shared read lock so that they run concurrently, changes to the
+ * subscriptions take the write lock.
+ */
+final class SubscriptionIndex
+{
+  private static final int SUBKEY_COUNT = 4;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<DomainNode, DomainKeys> domains = new HashMap<DomainNode, DomainKeys>();
+  private volatile int size = 0;
+
+  /**
+   * Replaces the entries of a subscription in one step, so that a publish sees either the old or the new keys.
+   *
+   * @param removed The entries to remove.
+   * @param added The entries to add.
+   */
+  void update(final List<IndexEntry> removed, final List<IndexEntry> added)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      for (IndexEntry entry : removed)
+      {
+        remove(entry);
+      }
+      for (IndexEntry entry : added)
+      {
+        add(entry);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void add(final IndexEntry entry)
+  {
+    DomainKeys keys = domains.get(entry.key.getDomain());
+    if (null == keys)
+    {
+      keys = new DomainKeys();
+      domains.put(entry.key.getDomain(), keys);
+    }
+
+    if (keys.keys(entry.key.isAndSubDomains()).add(entry))
+    {
+      ++size;
+    }
+  }
+
+  /**
+   * Removes a subscription key from the index, dropping the keys of its domain if they become empty.
+   */
+  private void remove(final IndexEntry entry)
+  {
+    final DomainKeys keys = domains.get(entry.key.getDomain());
+    if ((null != keys) && keys.keys(entry.key.isAndSubDomains()).remove(entry))
+    {
+      --size;
+
+      if (keys.isEmpty())
+      {
+        domains.remove(entry.key.getDomain());
+      }
+    }
+  }
+
+  /**
+   * Returns the number of subscription keys held in the index.
+   *
+   * @return the size.
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * Adds the NOTIFY messages for the matching subscriptions of a publish to the supplied list, one message set per
+   * consumer.
+   *
+   * @param srcHdr Source publish message.
+   * @param lst List of broker messages.
+   * @param updateHeaderList The update header list.
+   * @param payload The shared updates of the publish.
+   * @param source Only match subscriptions of this consumer, or null for all consumers.
+   * @throws MALException On error.
+   */
+  void populateNotifyList(final MALMessageHeader srcHdr,
+          final List<NotifyMessageSet> lst,
+          final UpdateHeaderList updateHeaderList,
+          final NotifyPayload payload,
+          final IndexedSubscriptionSource source) throws MALException
+  {
+    final DomainNode srcDomain = DomainNode.find(srcHdr.getDomain());
+    final List<NotifyBuilder> matched;
+
+    lock.readLock().lock();
+    try
+    {
+      matched = match(srcHdr, srcDomain, updateHeaderList, payload, source);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+
+    final Map<IndexedSubscriptionSource, NotifyMessageSet> sets
+            = new IdentityHashMap<IndexedSubscriptionSource, NotifyMessageSet>();
+    for (NotifyBuilder builder : matched)
+    {
+      final IndexedSubscriptionSource consumer = builder.details.getSource();
+      NotifyMessageSet msgSet = sets.get(consumer);
+      if (null == msgSet)
+      {
+        msgSet = new NotifyMessageSet();
+        msgSet.details = consumer.getMsgHeaderDetails();
+        msgSet.messages = new LinkedList<NotifyMessage>();
+        sets.put(consumer, msgSet);
+        lst.add(msgSet);
+      }
+
+      msgSet.messages.add(builder.createMessage(srcHdr, payload));
+    }
+  }
+
+  private List<NotifyBuilder> match(final MALMessageHeader srcHdr,
+          final DomainNode srcDomain,
+          final UpdateHeaderList updateHeaderList,
+          final NotifyPayload payload,
+          final IndexedSubscriptionSource source)
+  {
+    final List<NotifyBuilder> matched = new ArrayList<NotifyBuilder>();
+    final List<SubKeyNode> domainMatches = new ArrayList<SubKeyNode>();
+    collectDomainMatches(srcDomain, domainMatches);
+
+    if (domainMatches.isEmpty())
+    {
+      return matched;
+    }
+
+    final Map<IndexedSubscriptionDetails, NotifyBuilder> builders
+            = new IdentityHashMap<IndexedSubscriptionDetails, NotifyBuilder>();
+    final List<Set<IndexEntry>> candidates = new ArrayList<Set<IndexEntry>>();
+
+    for (int i = 0; i < updateHeaderList.size(); ++i)
+    {
+      final UpdateHeader updateHeader = updateHeaderList.get(i);
+      final UpdateKey key = new UpdateKey(srcHdr, srcDomain, updateHeader.getKey());
+      final boolean isChange = payload.isChange(i);
+      MALBrokerImpl.LOGGER.log(Level.FINE, "Checking {0}", key);
+
+      candidates.clear();
+      for (SubKeyNode node : domainMatches)
+      {
+        node.collect(key, candidates);
+      }
+
+      for (Set<IndexEntry> entries : candidates)
+      {
+        for (IndexEntry entry : entries)
+        {
+          if ((null != source) && (source != entry.details.getSource()))
+          {
+            continue;
+          }
+
+          // only on change subscriptions are not interested in updates that did not change the value
+          if ((!entry.onChange || isChange) && entry.key.matchesWithWildcard(key))
+          {
+            NotifyBuilder builder = builders.get(entry.details);
+            if (null == builder)
+            {
+              builder = new NotifyBuilder(entry.details, updateHeaderList.size());
+              builders.put(entry.details, builder);
+              matched.add(builder);
+            }
+
+            builder.matched.set(i);
+          }
+        }
+      }
+    }
+
+    return matched;
+  }
+
+  /**
+   * Collects the key sets that an update domain can match. These are the exact keys of the domain itself plus the sub
+   * domain keys of the domain and of each of its parents.
+   */
+  private void collectDomainMatches(final DomainNode domain, final List<SubKeyNode> domainMatches)
+  {
+    for (DomainNode node = domain; null != node; node = node.getParent())
+    {
+      final DomainKeys keys = domains.get(node);
+      if (null != keys)
+      {
+        if (node == domain)
+        {
+          addIfNotEmpty(keys.exactKeys, domainMatches);
+        }
+        addIfNotEmpty(keys.subDomainKeys, domainMatches);
+      }
+    }
+  }
+
+  private static void addIfNotEmpty(final SubKeyNode node, final List<SubKeyNode> domainMatches)
+  {
+    if (!node.isEmpty())
+    {
+      domainMatches.add(node);
+    }
+  }
+
+  /**
+   * An index entry is a single subscription key of a subscription.
+   */
+  static final class IndexEntry
+  {
+    private final SubscriptionKey key;
+    private final IndexedSubscriptionDetails details;
+    private final boolean onChange;
+
+    /**
+     * Constructor.
+     *
+     * @param key The subscription key.
+     * @param details The subscription the key belongs to.
+     * @param onChange True if the key only matches changes, i.e. not plain updates.
+     */
+    IndexEntry(final SubscriptionKey key, final IndexedSubscriptionDetails details, final boolean onChange)
+    {
+      this.key = key;
+      this.details = details;
+      this.onChange = onChange;
+    }
+  }
+
+  /**
+   * The subscription keys of a single domain.
+   */
+  private static final class DomainKeys
+  {
+    private final SubKeyNode exactKeys = new SubKeyNode(0);
+    private final SubKeyNode subDomainKeys = new SubKeyNode(0);
+
+    private SubKeyNode keys(final boolean andSubDomains)
+    {
+      return andSubDomains ? subDomainKeys : exactKeys;
+    }
+
+    private boolean isEmpty()
+    {
+      return exactKeys.isEmpty() && subDomainKeys.isEmpty();
+    }
+  }
+
+  /**
+   * A level of the sub key hash index. Each level hashes on one sub key, the last level holds the entries.
+   */
+  private static final class SubKeyNode
+  {
+    private final int level;
+    private final Map<Object, SubKeyNode> children;
+    private final Set<IndexEntry> entries;
+
+    private SubKeyNode(final int level)
+    {
+      this.level = level;
+
+      if (SUBKEY_COUNT > level)
+      {
+        this.children = new HashMap<Object, SubKeyNode>();
+        this.entries = null;
+      }
+      else
+      {
+        this.children = null;
+        this.entries = new LinkedHashSet<IndexEntry>();
+      }
+    }
+
+    private boolean add(final IndexEntry entry)
+    {
+      if (null != entries)
+      {
+        return entries.add(entry);
+      }
+
+      final Object value = subKey(entry.key, level);
+      SubKeyNode child = children.get(value);
+      if (null == child)
+      {
+        child = new SubKeyNode(level + 1);
+        children.put(value, child);
+      }
+
+      return child.add(entry);
+    }
+
+    private boolean remove(final IndexEntry entry)
+    {
+      if (null != entries)
+      {
+        return entries.remove(entry);
+      }
+
+      final Object value = subKey(entry.key, level);
+      final SubKeyNode child = children.get(value);
+      if ((null != child) && child.remove(entry))
+      {
+        if (child.isEmpty())
+        {
+          children.remove(value);
+        }
+
+        return true;
+      }
+
+      return false;
+    }
+
+    private boolean isEmpty()
+    {
+      return (null != entries) ? entries.isEmpty() : children.isEmpty();
+    }
+
+    private void collect(final PublisherKey key, final List<Set<IndexEntry>> candidates)
+    {
+      if (null != entries)
+      {
+        candidates.add(entries);
+        return;
+      }
+
+      final Object value = subKey(key, level);
+      final Object wildcard = (0 == level) ? PublisherKey.ALL_ID : PublisherKey.ALL_NUMBER;
+
+      if (wildcard.equals(value))
+      {
+        // a wildcard in the update matches every branch
+        for (SubKeyNode child : children.values())
+        {
+          child.collect(key, candidates);
+        }
+      }
+      else
+      {
+        SubKeyNode child = children.get(value);
+        if (null != child)
+        {
+          child.collect(key, candidates);
+        }
+
+        child = children.get(wildcard);
+        if (null != child)
+        {
+          child.collect(key, candidates);
+        }
+      }
+    }
+
+    private static Object subKey(final PublisherKey key, final int level)
+    {
+      switch (level)
+      {
+        case 0:
+          return key.getFirstSubKey();
+        case 1:
+          return key.getSecondSubKey();
+        case 2:
+          return key.getThirdSubKey();
+        default:
+          return key.getFourthSubKey();
+      }
+    }
+  }
+
+  /**
+   * Accumulates the matched updates of a single subscription during a publish.
+   */
+  private static final class NotifyBuilder
+  {
+    private final IndexedSubscriptionDetails details;
+    private final BitSet matched;
+
+    private NotifyBuilder(final IndexedSubscriptionDetails details, final int updateCount)
+    {
+      this.details = details;
+      this.matched = new BitSet(updateCount);
+    }
+
+    private NotifyMessage createMessage(final MALMessageHeader srcHdr, final NotifyPayload payload)
+    {
+      final NotifyPayload.Selection selection = payload.select(matched);
+      final NotifyMessage msg = new NotifyMessage();
+      msg.subscriptionId = new Identifier(details.getSubscriptionId());
+      msg.updateHeaderList = selection.updateHeaderList;
+      msg.updateList = selection.updateList;
+      msg.domain = srcHdr.getDomain();
+      msg.networkZone = srcHdr.getNetworkZone();
+      msg.area = srcHdr.getServiceArea();
+      msg.service = srcHdr.getService();
+      msg.operation = srcHdr.getOperation();
+      msg.version = srcHdr.getAreaVersion();
+      return msg;
+    }
+  }
+}
@@ -57,6 +57,36 @@ public class BrokerKey implements Comparable
     this.sessionName = sessionName;
   }
 
+  /**
+   * Returns the broker URI.
+   *
+   * @return the URI.
+   */
+  public String getUri()
+  {
+    return uri;
+  }
+
+  /**
+   * Returns the broker session enumeration ordinal.
+   *
+   * @return the session ordinal.
+   */
+  public int getSession()
+  {
+    return session;
+  }
+
+  /**
+   * Returns the broker session name.
+   *
+   * @return the session name.
+   */
+  public String getSessionName()
+  {
+    return sessionName;
+  }
+
   @Override
   public boolean equals(final Object obj)
   {
@@ -0,0 +1,225 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.key;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+
+/**
+ * A canonical node of the tree of domains known to the broker. Each distinct domain is interned once, so two interned
+ * domains are equal only if they are the same node, and a sub domain test is a walk up the parent references instead
+ * of a comparison of strings or identifier lists. The dot delimited name of a domain is built once when its node is
+ * created.
+ *
+ * Nodes are never removed, so only registrations intern their domains. Publishes look their domain up with find,
+ * which returns a node detached from the tree for a domain that is not in it, equal to the node it would be interned
+ * as, so that a publisher cannot grow the tree.
+ */
+public final class DomainNode
+{
+  /**
+   * The root of the tree, the empty domain.
+   */
+  public static final DomainNode ROOT = new DomainNode(null, null);
+  private final DomainNode parent;
+  private final String id;
+  private final String name;
+  private final int depth;
+  private final ConcurrentMap<String, DomainNode> children = new ConcurrentHashMap<String, DomainNode>();
+
+  private DomainNode(final DomainNode parent, final String id)
+  {
+    this.parent = parent;
+    this.id = id;
+
+    if (null == parent)
+    {
+      this.name = "";
+      this.depth = 0;
+    }
+    else
+    {
+      this.name = (0 == parent.depth) ? id : parent.name + '.' + id;
+      this.depth = parent.depth + 1;
+    }
+  }
+
+  /**
+   * Returns the canonical node of a domain. A null domain is treated as the empty domain.
+   *
+   * @param domain The domain.
+   * @return the interned node.
+   */
+  public static DomainNode intern(final IdentifierList domain)
+  {
+    DomainNode node = ROOT;
+
+    if (null != domain)
+    {
+      for (int i = 0; i < domain.size(); ++i)
+      {
+        node = node.child(domain.get(i));
+      }
+    }
+
+    return node;
+  }
+
+  /**
+   * Returns the node of a domain without adding it to the tree. A domain that is not in the tree is returned as a node
+   * detached from it, whose parents are the nodes of the part of the domain that is in the tree. A null domain is
+   * treated as the empty domain.
+   *
+   * @param domain The domain.
+   * @return the interned node, or a detached node equal to it.
+   */
+  public static DomainNode find(final IdentifierList domain)
+  {
+    DomainNode node = ROOT;
+
+    if (null != domain)
+    {
+      for (int i = 0; i < domain.size(); ++i)
+      {
+        final Identifier subId = domain.get(i);
+        final String key = String.valueOf((null == subId) ? null : subId.getValue());
+        final DomainNode child = node.children.get(key);
+
+        node = (null == child) ? new DomainNode(node, key) : child;
+      }
+    }
+
+    return node;
+  }
+
+  /**
+   * Returns the canonical node of a direct sub domain of this domain.
+   *
+   * @param subId The identifier of the sub domain.
+   * @return the interned node.
+   */
+  public DomainNode child(final Identifier subId)
+  {
+    return child((null == subId) ? null : subId.getValue());
+  }
+
+  /**
+   * Returns the canonical node of a direct sub domain of this domain.
+   *
+   * @param subId The identifier value of the sub domain.
+   * @return the interned node.
+   */
+  public DomainNode child(final String subId)
+  {
+    final String key = String.valueOf(subId);
+    DomainNode node = children.get(key);
+
+    if (null == node)
+    {
+      final DomainNode newNode = new DomainNode(this, key);
+      node = children.putIfAbsent(key, newNode);
+      if (null == node)
+      {
+        node = newNode;
+      }
+    }
+
+    return node;
+  }
+
+  /**
+   * Determines if the supplied domain is this domain or one of its sub domains.
+   *
+   * @param other The domain to test.
+   * @return True if other is this domain or a sub domain of it.
+   */
+  public boolean contains(final DomainNode other)
+  {
+    DomainNode node = other;
+    while ((null != node) && (node.depth > depth))
+    {
+      node = node.parent;
+    }
+
+    return equals(node);
+  }
+
+  /**
+   * Returns the parent domain.
+   *
+   * @return the parent, or null for the root.
+   */
+  public DomainNode getParent()
+  {
+    return parent;
+  }
+
+  /**
+   * Returns the last identifier of the domain.
+   *
+   * @return the identifier, or null for the root.
+   */
+  public String getId()
+  {
+    return id;
+  }
+
+  /**
+   * Returns the number of identifiers in the domain.
+   *
+   * @return the depth, zero for the root.
+   */
+  public int getDepth()
+  {
+    return depth;
+  }
+
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+
+    // a detached node equals the interned node of the same domain
+    return (obj instanceof DomainNode) && (depth == ((DomainNode) obj).depth) && name.equals(((DomainNode) obj).name);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return name.hashCode();
+  }
+
+  /**
+   * Returns the dot delimited name of the domain.
+   *
+   * @return the name.
+   */
+  @Override
+  public String toString()
+  {
+    return name;
+  }
+}
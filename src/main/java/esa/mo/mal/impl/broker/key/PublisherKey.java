@@ -212,6 +212,46 @@ public class PublisherKey implements Comparable
     return false;
   }
 
+  /**
+   * Returns the first sub key.
+   *
+   * @return the first sub key, may be null.
+   */
+  public String getFirstSubKey()
+  {
+    return key1;
+  }
+
+  /**
+   * Returns the second sub key.
+   *
+   * @return the second sub key, may be null.
+   */
+  public Long getSecondSubKey()
+  {
+    return key2;
+  }
+
+  /**
+   * Returns the third sub key.
+   *
+   * @return the third sub key, may be null.
+   */
+  public Long getThirdSubKey()
+  {
+    return key3;
+  }
+
+  /**
+   * Returns the fourth sub key.
+   *
+   * @return the fourth sub key, may be null.
+   */
+  public Long getFourthSubKey()
+  {
+    return key4;
+  }
+
   /**
    * Helper method to return the string value from an Identifier.
    * @param id The identifier.
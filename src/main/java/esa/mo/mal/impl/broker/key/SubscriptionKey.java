@@ -20,7 +20,6 @@
  */
 package esa.mo.mal.impl.broker.key;
 
-import esa.mo.mal.impl.util.StructureHelper;
 import org.ccsds.moims.mo.mal.structures.*;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 
@@ -29,7 +28,7 @@ import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
  */
 public final class SubscriptionKey extends PublisherKey
 {
-  private final String domain;
+  private final DomainNode domain;
   private final boolean andSubDomains;
   private final UShort area;
   private final UShort service;
@@ -46,42 +45,25 @@ public final class SubscriptionKey extends PublisherKey
   {
     super(key);
 
-    // Converts the domain from list form to string form.
-    String tmpDomain = "";
+    // Appends the sub domain of the request to the domain of the message.
+    DomainNode tmpDomain = DomainNode.intern(hdr.getDomain());
     boolean tmpAndSubDomains = false;
 
-    final IdentifierList mdomain = hdr.getDomain();
     final IdentifierList sdomain = rqst.getSubDomain();
-    if ((null != mdomain) || (null != sdomain))
+    if (null != sdomain)
     {
-      final StringBuilder buf = new StringBuilder();
-      if ((null != mdomain) && !mdomain.isEmpty())
+      for (Identifier identifier : sdomain)
       {
-        buf.append(StructureHelper.domainToString(mdomain));
-      }
-
-      if ((null != sdomain) && !sdomain.isEmpty())
-      {
-        for (Identifier identifier : sdomain)
+        final String id = identifier.getValue();
+        if (ALL_ID.equals(id))
         {
-          final String id = identifier.getValue();
-          if (ALL_ID.equals(id))
-          {
-            tmpAndSubDomains = true;
-          }
-          else
-          {
-            if (0 < buf.length())
-            {
-              buf.append('.');
-            }
-
-            buf.append(id);
-          }
+          tmpAndSubDomains = true;
+        }
+        else
+        {
+          tmpDomain = tmpDomain.child(id);
         }
       }
-
-      tmpDomain = buf.toString();
     }
 
     this.domain = tmpDomain;
@@ -95,7 +77,7 @@ public final class SubscriptionKey extends PublisherKey
   public int hashCode()
   {
     int hash = super.hashCode();
-    hash = HASH_MAGIC_NUMBER * hash + (this.domain != null ? this.domain.hashCode() : 0);
+    hash = HASH_MAGIC_NUMBER * hash + this.domain.hashCode();
     hash = HASH_MAGIC_NUMBER * hash + (this.andSubDomains ? 1 : 0);
     hash = HASH_MAGIC_NUMBER * hash + (this.area != null ? this.area.hashCode() : 0);
     hash = HASH_MAGIC_NUMBER * hash + (this.service != null ? this.service.hashCode() : 0);
@@ -119,7 +101,7 @@ public final class SubscriptionKey extends PublisherKey
     {
       return false;
     }
-    if (this.domain == null ? other.domain != null : !this.domain.equals(other.domain))
+    if (this.domain != other.domain)
     {
       return false;
     }
@@ -153,25 +135,24 @@ public final class SubscriptionKey extends PublisherKey
     boolean matched = super.matchesWithWildcard(rhs);
     if (matched)
     {
-      matched = rhs.getDomain().startsWith(this.domain);
+      if (this.andSubDomains)
+      {
+        matched = this.domain.contains(rhs.getDomain());
+      }
+      else
+      {
+        matched = this.domain.equals(rhs.getDomain());
+      }
 
       if (matched)
       {
-        if (this.domain.length() < rhs.getDomain().length())
-        {
-          matched = this.andSubDomains;
-        }
-
+        matched = matchedSubkeyWithWildcard(area, rhs.getArea());
         if (matched)
         {
-          matched = matchedSubkeyWithWildcard(area, rhs.getArea());
+          matched = matchedSubkeyWithWildcard(service, rhs.getService());
           if (matched)
           {
-            matched = matchedSubkeyWithWildcard(service, rhs.getService());
-            if (matched)
-            {
-              matched = matchedSubkeyWithWildcard(operation, rhs.getOperation());
-            }
+            matched = matchedSubkeyWithWildcard(operation, rhs.getOperation());
           }
         }
       }
@@ -201,4 +182,24 @@ public final class SubscriptionKey extends PublisherKey
     buf.append(']');
     return buf.toString();
   }
+
+  /**
+   * Returns the interned domain.
+   *
+   * @return the domain.
+   */
+  public DomainNode getDomain()
+  {
+    return domain;
+  }
+
+  /**
+   * Returns true if this subscription also matches the sub domains of its domain.
+   *
+   * @return the andSubDomains flag.
+   */
+  public boolean isAndSubDomains()
+  {
+    return andSubDomains;
+  }
 }
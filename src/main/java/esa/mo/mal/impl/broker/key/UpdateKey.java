@@ -32,7 +32,7 @@ public final class UpdateKey extends PublisherKey
   /**
    * The domain of the update.
    */
-  private final String domain;
+  private final DomainNode domain;
   /**
    * The area of the update.
    */
@@ -53,7 +53,7 @@ public final class UpdateKey extends PublisherKey
    * @param domainId Update domain.
    * @param key Entity key.
    */
-  public UpdateKey(final MALMessageHeader srcHdr, final String domainId, final EntityKey key)
+  public UpdateKey(final MALMessageHeader srcHdr, final DomainNode domainId, final EntityKey key)
   {
     super(key);
 
@@ -72,7 +72,7 @@ public final class UpdateKey extends PublisherKey
     }
 
     final UpdateKey other = (UpdateKey) obj;
-    if (this.domain == null ? other.domain != null : !this.domain.equals(other.domain))
+    if ((this.domain != other.domain) && ((null == this.domain) || !this.domain.equals(other.domain)))
     {
       return false;
     }
@@ -104,11 +104,11 @@ public final class UpdateKey extends PublisherKey
   }
 
   /**
-   * Returns the domain string.
+   * Returns the interned domain.
    *
    * @return the domain.
    */
-  public String getDomain()
+  public DomainNode getDomain()
   {
     return domain;
   }
@@ -0,0 +1,294 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.sharded;
+
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.broker.key.DomainNode;
+import esa.mo.mal.impl.broker.key.PublisherKey;
+import esa.mo.mal.impl.broker.key.SubscriptionKey;
+import esa.mo.mal.impl.broker.key.UpdateKey;
+import esa.mo.mal.impl.util.DispatchExecutors;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * A shard of the subscription keys of a sharded broker handler. The shard owns the keys whose first sub key hashes
+ * to it, plus a copy of every key whose first sub key is the wildcard. All access to the keys is done by tasks run on
+ * the single thread of the shard, so the keys are never shared between threads and need no locking.
+ */
+final class BrokerShard
+{
+  private final ExecutorService executor;
+  private final Map<BrokerKey, ShardTable> tables = new HashMap<BrokerKey, ShardTable>();
+
+  /**
+   * Constructor.
+   *
+   * @param name The name of the shard thread.
+   */
+  BrokerShard(final String name)
+  {
+    this.executor = Executors.newSingleThreadExecutor(DispatchExecutors.daemonThreadFactory(name));
+  }
+
+  /**
+   * Queues a change of the subscription keys of a broker key on the shard thread.
+   *
+   * @param key The broker key.
+   * @param removed The entries to remove.
+   * @param added The entries to add.
+   * @return the future of the change.
+   */
+  Future<?> update(final BrokerKey key, final Collection<ShardEntry> removed, final Collection<ShardEntry> added)
+  {
+    return executor.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        ShardTable table = tables.get(key);
+        if (null == table)
+        {
+          table = new ShardTable();
+          tables.put(key, table);
+        }
+
+        for (ShardEntry entry : removed)
+        {
+          table.remove(entry);
+        }
+        for (ShardEntry entry : added)
+        {
+          table.add(entry);
+        }
+
+        if (table.isEmpty())
+        {
+          tables.remove(key);
+        }
+      }
+    });
+  }
+
+  /**
+   * Queues the matching of some of the updates of a publish on the shard thread.
+   *
+   * @param key The broker key of the publish.
+   * @param srcHdr The publish message header.
+   * @param srcDomain The interned domain of the publish.
+   * @param updateHeaderList The update header list of the publish.
+   * @param payload The shared updates of the publish.
+   * @param updates The indexes of the updates that this shard must match.
+   * @param source Only match subscriptions of this consumer, or null for all consumers.
+   * @return the future of the matched updates of each subscription.
+   */
+  Future<Map<ShardSubscription, BitSet>> match(final BrokerKey key,
+          final MALMessageHeader srcHdr,
+          final DomainNode srcDomain,
+          final UpdateHeaderList updateHeaderList,
+          final NotifyPayload payload,
+          final List<Integer> updates,
+          final ShardedSubscriptionSource source)
+  {
+    return executor.submit(new Callable<Map<ShardSubscription, BitSet>>()
+    {
+      @Override
+      public Map<ShardSubscription, BitSet> call()
+      {
+        final Map<ShardSubscription, BitSet> matched = new LinkedHashMap<ShardSubscription, BitSet>();
+        final ShardTable table = tables.get(key);
+
+        if (null != table)
+        {
+          for (Integer i : updates)
+          {
+            final UpdateHeader updateHeader = updateHeaderList.get(i);
+            final UpdateKey updateKey = new UpdateKey(srcHdr, srcDomain, updateHeader.getKey());
+            final boolean isChange = payload.isChange(i);
+            MALBrokerImpl.LOGGER.log(Level.FINE, "Checking {0}", updateKey);
+
+            for (Set<ShardEntry> entries : table.candidates(updateKey))
+            {
+              for (ShardEntry entry : entries)
+              {
+                if ((null != source) && (source != entry.subscription.getSource()))
+                {
+                  continue;
+                }
+
+                // only on change subscriptions are not interested in updates that did not change the value
+                if ((!entry.onChange || isChange) && entry.key.matchesWithWildcard(updateKey))
+                {
+                  BitSet bits = matched.get(entry.subscription);
+                  if (null == bits)
+                  {
+                    bits = new BitSet(updateHeaderList.size());
+                    matched.put(entry.subscription, bits);
+                  }
+
+                  bits.set(i);
+                }
+              }
+            }
+          }
+        }
+
+        return matched;
+      }
+    });
+  }
+
+  /**
+   * Stops the shard thread.
+   */
+  void close()
+  {
+    executor.shutdown();
+  }
+
+  /**
+   * A single subscription key of a subscription.
+   */
+  static final class ShardEntry
+  {
+    private final SubscriptionKey key;
+    private final ShardSubscription subscription;
+    private final boolean onChange;
+
+    /**
+     * Constructor.
+     *
+     * @param key The subscription key.
+     * @param subscription The subscription the key belongs to.
+     * @param onChange True if the key only matches changes, i.e. not plain updates.
+     */
+    ShardEntry(final SubscriptionKey key, final ShardSubscription subscription, final boolean onChange)
+    {
+      this.key = key;
+      this.subscription = subscription;
+      this.onChange = onChange;
+    }
+
+    /**
+     * Returns the subscription key.
+     *
+     * @return the key.
+     */
+    SubscriptionKey getKey()
+    {
+      return key;
+    }
+  }
+
+  /**
+   * The keys of a broker key held by a shard, hashed on the first sub key with the wildcard keys held apart.
+   */
+  private static final class ShardTable
+  {
+    private final Map<String, Set<ShardEntry>> exactKeys = new HashMap<String, Set<ShardEntry>>();
+    private final Set<ShardEntry> wildcardKeys = new LinkedHashSet<ShardEntry>();
+
+    private void add(final ShardEntry entry)
+    {
+      final String key1 = entry.key.getFirstSubKey();
+      if (PublisherKey.ALL_ID.equals(key1))
+      {
+        wildcardKeys.add(entry);
+      }
+      else
+      {
+        Set<ShardEntry> entries = exactKeys.get(key1);
+        if (null == entries)
+        {
+          entries = new LinkedHashSet<ShardEntry>();
+          exactKeys.put(key1, entries);
+        }
+        entries.add(entry);
+      }
+    }
+
+    private void remove(final ShardEntry entry)
+    {
+      final String key1 = entry.key.getFirstSubKey();
+      if (PublisherKey.ALL_ID.equals(key1))
+      {
+        wildcardKeys.remove(entry);
+      }
+      else
+      {
+        final Set<ShardEntry> entries = exactKeys.get(key1);
+        if ((null != entries) && entries.remove(entry) && entries.isEmpty())
+        {
+          exactKeys.remove(key1);
+        }
+      }
+    }
+
+    private boolean isEmpty()
+    {
+      return exactKeys.isEmpty() && wildcardKeys.isEmpty();
+    }
+
+    private List<Set<ShardEntry>> candidates(final UpdateKey updateKey)
+    {
+      final List<Set<ShardEntry>> candidates = new ArrayList<Set<ShardEntry>>();
+      final String key1 = updateKey.getFirstSubKey();
+
+      if (PublisherKey.ALL_ID.equals(key1))
+      {
+        // a wildcard in the update matches every first sub key
+        candidates.addAll(exactKeys.values());
+      }
+      else
+      {
+        final Set<ShardEntry> entries = exactKeys.get(key1);
+        if (null != entries)
+        {
+          candidates.add(entries);
+        }
+      }
+
+      if (!wildcardKeys.isEmpty())
+      {
+        candidates.add(wildcardKeys);
+      }
+
+      return candidates;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.sharded;
+
+import esa.mo.mal.impl.broker.sharded.BrokerShard.ShardEntry;
+import java.util.List;
+
+/**
+ * A single subscription of a consumer, shared by all of its keys in the shards.
+ */
+final class ShardSubscription
+{
+  private final ShardedSubscriptionSource source;
+  private final String subscriptionId;
+  private List<ShardEntry> entries;
+
+  /**
+   * Constructor.
+   *
+   * @param source The consumer of the subscription.
+   * @param subscriptionId The subscription identifier.
+   */
+  ShardSubscription(final ShardedSubscriptionSource source, final String subscriptionId)
+  {
+    this.source = source;
+    this.subscriptionId = subscriptionId;
+  }
+
+  ShardedSubscriptionSource getSource()
+  {
+    return source;
+  }
+
+  String getSubscriptionId()
+  {
+    return subscriptionId;
+  }
+
+  List<ShardEntry> getEntries()
+  {
+    return entries;
+  }
+
+  void setEntries(final List<ShardEntry> entries)
+  {
+    this.entries = entries;
+  }
+}
@@ -0,0 +1,379 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.sharded;
+
+import esa.mo.mal.impl.broker.MALBrokerHandlerImpl;
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyMessageSet;
+import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.SubscriptionSource;
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.broker.key.DomainNode;
+import esa.mo.mal.impl.broker.key.PublisherKey;
+import esa.mo.mal.impl.broker.sharded.BrokerShard.ShardEntry;
+import esa.mo.mal.impl.util.MALClose;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Extends the base broker handler by splitting the subscription keys over several shards, each owned by its own
+ * thread, so that the matching of publishes uses several cores. A key is placed in the shard selected by the hash of
+ * its first sub key, keys whose first sub key is the wildcard are placed in every shard. A publish sends each update
+ * to the shard of its first sub key, or to every shard if that is the wildcard, waits for the shards and merges their
+ * results into one NOTIFY message per matched subscription.
+ *
+ * Selected by setting the property org.ccsds.moims.mo.mal.broker.class to the name of this class. The number of
+ * shards is set by SHARDS_PROPERTY and defaults to the number of available processors.
+ */
+public class ShardedBrokerHandler extends MALBrokerHandlerImpl
+{
+  /**
+   * Property that sets the number of shards.
+   */
+  public static final String SHARDS_PROPERTY = "org.ccsds.moims.mo.mal.broker.shards";
+  private final BrokerShard[] shards;
+
+  /**
+   * Constructor
+   *
+   * @param parent The parent of this class.
+   */
+  public ShardedBrokerHandler(MALClose parent)
+  {
+    super(parent);
+
+    final int count = (int) getLongProperty(SHARDS_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+    shards = new BrokerShard[Math.max(1, count)];
+    for (int i = 0; i < shards.length; ++i)
+    {
+      shards[i] = new BrokerShard("MALBrokerShard-" + i);
+    }
+  }
+
+  @Override
+  protected SubscriptionSource createEntry(final MALMessageHeader hdr)
+  {
+    return new ShardedSubscriptionSource(hdr, this);
+  }
+
+  @Override
+  protected void populateNotifyList(final BrokerKey key, final MALMessageHeader hdr,
+          final List<NotifyMessageSet> lst, final UpdateHeaderList hl, final NotifyPayload payload)
+          throws MALException
+  {
+    populateNotifyList(key, hdr, lst, hl, payload, null);
+  }
+
+  @Override
+  protected void parentClose() throws MALException
+  {
+    super.parentClose();
+
+    for (BrokerShard shard : shards)
+    {
+      shard.close();
+    }
+  }
+
+  /**
+   * Changes the subscription keys of a broker key in the shards and waits for the change to be applied in all of
+   * them, so that any later publish sees it. If the change fails in a shard, or cannot be queued on one as the handler
+   * is closing, it is reverted in the shards it reached so that the keys are as they were before the call.
+   *
+   * @param key The broker key.
+   * @param removed The entries to remove.
+   * @param added The entries to add.
+   * @throws MALException If the change failed in a shard.
+   */
+  void update(final BrokerKey key, final List<ShardEntry> removed, final List<ShardEntry> added)
+          throws MALException
+  {
+    final List<List<ShardEntry>> removedByShard = partition(removed);
+    final List<List<ShardEntry>> addedByShard = partition(added);
+    final List<Integer> submitted = new ArrayList<Integer>(shards.length);
+    final List<Future<?>> futures = new ArrayList<Future<?>>(shards.length);
+    Throwable failure = null;
+
+    for (int i = 0; (i < shards.length) && (null == failure); ++i)
+    {
+      if (!removedByShard.get(i).isEmpty() || !addedByShard.get(i).isEmpty())
+      {
+        try
+        {
+          futures.add(shards[i].update(key, removedByShard.get(i), addedByShard.get(i)));
+          submitted.add(i);
+        }
+        catch (RejectedExecutionException ex)
+        {
+          failure = ex;
+        }
+      }
+    }
+
+    final Throwable updateFailure = await(futures);
+    if (null == failure)
+    {
+      failure = updateFailure;
+    }
+
+    if (null != failure)
+    {
+      // reverting a shard whose change failed part way is safe too, as the keys of a shard are held in sets
+      final List<Future<?>> reverts = new ArrayList<Future<?>>(submitted.size());
+      for (int i : submitted)
+      {
+        try
+        {
+          reverts.add(shards[i].update(key, addedByShard.get(i), removedByShard.get(i)));
+        }
+        catch (RejectedExecutionException ex)
+        {
+          // the shard is closed and its keys are discarded with it
+        }
+      }
+
+      final Throwable revertFailure = await(reverts);
+      if (null != revertFailure)
+      {
+        MALBrokerImpl.LOGGER.log(Level.WARNING, "Exception raised while reverting the broker shards", revertFailure);
+      }
+
+      MALBrokerImpl.LOGGER.log(Level.WARNING, "Exception raised while updating the broker shards", failure);
+      throw new MALException("Unable to update the broker shards", failure);
+    }
+  }
+
+  /**
+   * Waits for changes queued on the shards, an interrupt does not return before every shard has applied its change.
+   *
+   * @return the first failure, or null if all the changes were applied.
+   */
+  private static Throwable await(final List<Future<?>> futures)
+  {
+    boolean interrupted = false;
+    Throwable failure = null;
+
+    for (Future<?> future : futures)
+    {
+      boolean done = false;
+      while (!done)
+      {
+        try
+        {
+          future.get();
+          done = true;
+        }
+        catch (InterruptedException ex)
+        {
+          interrupted = true;
+        }
+        catch (ExecutionException ex)
+        {
+          if (null == failure)
+          {
+            failure = ex.getCause();
+          }
+          done = true;
+        }
+      }
+    }
+
+    if (interrupted)
+    {
+      Thread.currentThread().interrupt();
+    }
+
+    return failure;
+  }
+
+  /**
+   * Matches the updates of a publish in the shards and adds one NOTIFY message set per consumer to the list.
+   *
+   * @param key The broker key of the publish.
+   * @param hdr The publish message header.
+   * @param lst The list of NOTIFY message sets to add to.
+   * @param hl The update header list of the publish.
+   * @param payload The shared updates of the publish.
+   * @param source Only match subscriptions of this consumer, or null for all consumers.
+   * @throws MALException On error.
+   */
+  void populateNotifyList(final BrokerKey key, final MALMessageHeader hdr,
+          final List<NotifyMessageSet> lst, final UpdateHeaderList hl, final NotifyPayload payload,
+          final ShardedSubscriptionSource source) throws MALException
+  {
+    final DomainNode srcDomain = DomainNode.find(hdr.getDomain());
+    final List<List<Integer>> updatesByShard = new ArrayList<List<Integer>>(shards.length);
+    for (int i = 0; i < shards.length; ++i)
+    {
+      updatesByShard.add(new ArrayList<Integer>());
+    }
+
+    for (int u = 0; u < hl.size(); ++u)
+    {
+      final EntityKey updateKey = hl.get(u).getKey();
+      final Identifier key1 = (null == updateKey) ? null : updateKey.getFirstSubKey();
+      final String value = (null == key1) ? null : key1.getValue();
+
+      if (PublisherKey.ALL_ID.equals(value))
+      {
+        for (List<Integer> updates : updatesByShard)
+        {
+          updates.add(u);
+        }
+      }
+      else
+      {
+        updatesByShard.get(shardOf(value)).add(u);
+      }
+    }
+
+    final List<Future<Map<ShardSubscription, BitSet>>> futures
+            = new ArrayList<Future<Map<ShardSubscription, BitSet>>>(shards.length);
+    for (int i = 0; i < shards.length; ++i)
+    {
+      if (!updatesByShard.get(i).isEmpty())
+      {
+        futures.add(shards[i].match(key, hdr, srcDomain, hl, payload, updatesByShard.get(i), source));
+      }
+    }
+
+    // merged by consumer and subscription identifier, a wildcard update matches the wildcard keys in every shard
+    final Map<ShardedSubscriptionSource, Map<String, BitSet>> merged
+            = new LinkedHashMap<ShardedSubscriptionSource, Map<String, BitSet>>();
+    for (Future<Map<ShardSubscription, BitSet>> future : futures)
+    {
+      for (Map.Entry<ShardSubscription, BitSet> entry : waitFor(future).entrySet())
+      {
+        Map<String, BitSet> subscriptions = merged.get(entry.getKey().getSource());
+        if (null == subscriptions)
+        {
+          subscriptions = new LinkedHashMap<String, BitSet>();
+          merged.put(entry.getKey().getSource(), subscriptions);
+        }
+
+        final BitSet bits = subscriptions.get(entry.getKey().getSubscriptionId());
+        if (null == bits)
+        {
+          subscriptions.put(entry.getKey().getSubscriptionId(), entry.getValue());
+        }
+        else
+        {
+          bits.or(entry.getValue());
+        }
+      }
+    }
+
+    for (Map.Entry<ShardedSubscriptionSource, Map<String, BitSet>> consumer : merged.entrySet())
+    {
+      final NotifyMessageSet msgSet = new NotifyMessageSet();
+      msgSet.details = consumer.getKey().getMsgHeaderDetails();
+      msgSet.messages = new LinkedList<NotifyMessage>();
+
+      for (Map.Entry<String, BitSet> subscription : consumer.getValue().entrySet())
+      {
+        final NotifyPayload.Selection selection = payload.select(subscription.getValue());
+        final NotifyMessage msg = new NotifyMessage();
+        msg.subscriptionId = new Identifier(subscription.getKey());
+        msg.updateHeaderList = selection.updateHeaderList;
+        msg.updateList = selection.updateList;
+        msg.domain = hdr.getDomain();
+        msg.networkZone = hdr.getNetworkZone();
+        msg.area = hdr.getServiceArea();
+        msg.service = hdr.getService();
+        msg.operation = hdr.getOperation();
+        msg.version = hdr.getAreaVersion();
+        msgSet.messages.add(msg);
+      }
+
+      lst.add(msgSet);
+    }
+  }
+
+  private List<List<ShardEntry>> partition(final List<ShardEntry> entries)
+  {
+    final List<List<ShardEntry>> byShard = new ArrayList<List<ShardEntry>>(shards.length);
+    for (int i = 0; i < shards.length; ++i)
+    {
+      byShard.add(new ArrayList<ShardEntry>());
+    }
+
+    for (ShardEntry entry : entries)
+    {
+      final String key1 = entry.getKey().getFirstSubKey();
+      if (PublisherKey.ALL_ID.equals(key1))
+      {
+        for (List<ShardEntry> shardEntries : byShard)
+        {
+          shardEntries.add(entry);
+        }
+      }
+      else
+      {
+        byShard.get(shardOf(key1)).add(entry);
+      }
+    }
+
+    return byShard;
+  }
+
+  private int shardOf(final String key1)
+  {
+    if (null == key1)
+    {
+      return 0;
+    }
+
+    return (key1.hashCode() & Integer.MAX_VALUE) % shards.length;
+  }
+
+  private static Map<ShardSubscription, BitSet> waitFor(final Future<Map<ShardSubscription, BitSet>> future)
+          throws MALException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new MALException("Interrupted while matching a publish in the broker shards", ex);
+    }
+    catch (ExecutionException ex)
+    {
+      throw new MALException("Exception raised while matching a publish in the broker shards", ex.getCause());
+    }
+  }
+}
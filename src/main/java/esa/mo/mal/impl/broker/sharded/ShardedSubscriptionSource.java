@@ -0,0 +1,189 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker.sharded;
+
+import esa.mo.mal.impl.broker.MALBrokerImpl;
+import esa.mo.mal.impl.broker.NotifyMessageSet;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.SubscriptionSource;
+import esa.mo.mal.impl.broker.key.BrokerKey;
+import esa.mo.mal.impl.broker.key.SubscriptionKey;
+import esa.mo.mal.impl.broker.sharded.BrokerShard.ShardEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * A ShardedSubscriptionSource represents a single consumer indexed by URI. Its subscription keys are spread over the
+ * shards of the handler, the source only keeps track of them so that they can be removed again.
+ */
+class ShardedSubscriptionSource extends SubscriptionSource
+{
+  private final String signature;
+  private final ShardedBrokerHandler handler;
+  private final BrokerKey brokerKey;
+  private final Map<String, ShardSubscription> details = new HashMap<String, ShardSubscription>();
+  private volatile int keyCount = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param hdr The message header of the subscription message.
+   * @param handler The handler that owns the shards.
+   */
+  ShardedSubscriptionSource(final MALMessageHeader hdr, final ShardedBrokerHandler handler)
+  {
+    super(hdr, hdr.getURIFrom());
+    this.signature = hdr.getURIFrom().getValue();
+    this.handler = handler;
+    this.brokerKey = new BrokerKey(hdr);
+  }
+
+  @Override
+  public boolean active()
+  {
+    return 0 < keyCount;
+  }
+
+  @Override
+  public void report()
+  {
+    MALBrokerImpl.LOGGER.log(Level.FINE, "  START Consumer ( {0} )", signature);
+    MALBrokerImpl.LOGGER.log(Level.FINE, "   Keys: {0}", keyCount);
+    MALBrokerImpl.LOGGER.log(Level.FINE, "  END Consumer ( {0} )", signature);
+  }
+
+  @Override
+  public String getSignature()
+  {
+    return signature;
+  }
+
+  @Override
+  public void addSubscription(final MALMessageHeader srcHdr, final Subscription subscription)
+          throws MALException
+  {
+    final String subId = subscription.getSubscriptionId().getValue();
+    final ShardSubscription sub = new ShardSubscription(this, subId);
+    final Set<SubscriptionKey> onAll = new TreeSet<SubscriptionKey>();
+    final Set<SubscriptionKey> onChange = new TreeSet<SubscriptionKey>();
+
+    for (EntityRequest rqst : subscription.getEntities())
+    {
+      for (EntityKey id : rqst.getEntityKeys())
+      {
+        final SubscriptionKey key = new SubscriptionKey(srcHdr, rqst, id);
+        if (rqst.getOnlyOnChange())
+        {
+          onChange.add(key);
+        }
+        else
+        {
+          onAll.add(key);
+        }
+      }
+    }
+
+    final List<ShardEntry> added = new ArrayList<ShardEntry>(onAll.size() + onChange.size());
+    for (SubscriptionKey key : onAll)
+    {
+      added.add(new ShardEntry(key, sub, false));
+    }
+    for (SubscriptionKey key : onChange)
+    {
+      added.add(new ShardEntry(key, sub, true));
+    }
+    sub.setEntries(added);
+
+    final ShardSubscription old = details.get(subId);
+    final List<ShardEntry> removed = (null == old) ? Collections.<ShardEntry>emptyList() : old.getEntries();
+
+    // the shards revert a failed change, so the subscription is only recorded once they all hold it
+    handler.update(brokerKey, removed, added);
+    details.put(subId, sub);
+    keyCount += added.size() - removed.size();
+  }
+
+  @Override
+  public void populateNotifyList(final MALMessageHeader srcHdr,
+          final List<NotifyMessageSet> lst,
+          final UpdateHeaderList updateHeaderList,
+          final NotifyPayload payload) throws MALException
+  {
+    MALBrokerImpl.LOGGER.log(Level.FINE, "Checking ShardComSource : {0}", signature);
+
+    handler.populateNotifyList(brokerKey, srcHdr, lst, updateHeaderList, payload, this);
+  }
+
+  @Override
+  public void removeSubscriptions(final IdentifierList subscriptions) throws MALException
+  {
+    final List<ShardEntry> removed = new ArrayList<ShardEntry>();
+    final List<String> removedIds = new ArrayList<String>();
+
+    if (null != subscriptions)
+    {
+      for (Identifier sub : subscriptions)
+      {
+        final ShardSubscription old = details.get(sub.getValue());
+        if ((null != old) && !removedIds.contains(sub.getValue()))
+        {
+          removed.addAll(old.getEntries());
+          removedIds.add(sub.getValue());
+        }
+      }
+    }
+    else
+    {
+      // remove all
+      for (Map.Entry<String, ShardSubscription> old : details.entrySet())
+      {
+        removed.addAll(old.getValue().getEntries());
+        removedIds.add(old.getKey());
+      }
+    }
+
+    if (!removed.isEmpty())
+    {
+      // the shards revert a failed change, so the subscriptions are only forgotten once no shard holds them
+      handler.update(brokerKey, removed, Collections.<ShardEntry>emptyList());
+      keyCount -= removed.size();
+    }
+
+    for (String subId : removedIds)
+    {
+      details.remove(subId);
+    }
+  }
+}
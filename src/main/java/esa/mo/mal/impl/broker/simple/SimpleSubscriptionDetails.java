@@ -22,31 +22,32 @@ package esa.mo.mal.impl.broker.simple;
 
 import esa.mo.mal.impl.broker.MALBrokerImpl;
 import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
+import esa.mo.mal.impl.broker.NotifyPayload;
+import esa.mo.mal.impl.broker.key.DomainNode;
 import esa.mo.mal.impl.broker.key.SubscriptionKey;
 import esa.mo.mal.impl.broker.key.UpdateKey;
-import java.util.List;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.structures.*;
-import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
-import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 
 /**
- * A SimpleSubscriptionDetails is keyed on subscription Id
+ * A SimpleSubscriptionDetails is keyed on subscription Id. The keys are set once on creation and never changed.
  */
 class SimpleSubscriptionDetails
 {
   private final String subscriptionId;
-  private Set<SubscriptionKey> required = new TreeSet<SubscriptionKey>();
-  private Set<SubscriptionKey> onAll = new TreeSet<SubscriptionKey>();
-  private Set<SubscriptionKey> onChange = new TreeSet<SubscriptionKey>();
+  private final Set<SubscriptionKey> required = new TreeSet<SubscriptionKey>();
+  private final Set<SubscriptionKey> onAll = new TreeSet<SubscriptionKey>();
+  private final Set<SubscriptionKey> onChange = new TreeSet<SubscriptionKey>();
 
-  SimpleSubscriptionDetails(final String subscriptionId)
+  SimpleSubscriptionDetails(final String subscriptionId, final MALMessageHeader srcHdr, final EntityRequestList lst)
   {
     this.subscriptionId = subscriptionId;
+    setIds(srcHdr, lst);
   }
 
   void report()
@@ -68,11 +69,8 @@ class SimpleSubscriptionDetails
     MALBrokerImpl.LOGGER.log(Level.FINE, "    END Subscription ( {0} )", subscriptionId);
   }
 
-  void setIds(final MALMessageHeader srcHdr, final EntityRequestList lst)
+  private void setIds(final MALMessageHeader srcHdr, final EntityRequestList lst)
   {
-    required.clear();
-    onAll.clear();
-    onChange.clear();
     for (EntityRequest rqst : lst)
     {
       final EntityKeyList keyList = rqst.getEntityKeys();
@@ -95,98 +93,51 @@ class SimpleSubscriptionDetails
   }
 
   NotifyMessage populateNotifyList(final MALMessageHeader srcHdr,
-          final String srcDomainId,
+          final DomainNode srcDomain,
           final UpdateHeaderList updateHeaderList,
-          final MALPublishBody publishBody) throws MALException
+          final NotifyPayload payload) throws MALException
   {
     MALBrokerImpl.LOGGER.fine("Checking SimSubDetails");
 
-    final UpdateHeaderList notifyHeaders = new UpdateHeaderList();
+    final BitSet matched = new BitSet(updateHeaderList.size());
 
-    final List[] updateLists = publishBody.getUpdateLists((List[]) null);
-    final List[] notifyLists;
-
-    // have to check for the case where the pubsub message does not contain a body
-    if (null == updateLists)
-    {
-      notifyLists = null;
-    }
-    else
+    for (int i = 0; i < updateHeaderList.size(); ++i)
     {
-      notifyLists = new List[updateLists.length];
-
-      for (int i = 0; i < notifyLists.length; i++)
+      if (updateRequired(srcHdr, srcDomain, updateHeaderList.get(i), payload.isChange(i)))
       {
-        if (null != updateLists[i])
-        {
-          if (updateLists[i] instanceof MALEncodedElementList)
-          {
-            MALEncodedElementList encodedElementList = (MALEncodedElementList) updateLists[i];
-            notifyLists[i] = new MALEncodedElementList(encodedElementList.getShortForm(), encodedElementList.size());
-          }
-          else
-          {
-            notifyLists[i] = (List) ((Element) updateLists[i]).createElement();
-          }
-        }
-        else
-        {
-          // publishing an empty list
-          notifyLists[i] = null;
-        }
+        // add update for this consumer/subscription
+        matched.set(i);
       }
     }
 
-    for (int i = 0; i < updateHeaderList.size(); ++i)
-    {
-      populateNotifyList(srcHdr, srcDomainId, updateHeaderList.get(i), updateLists, i, notifyHeaders, notifyLists);
-    }
-
     NotifyMessage retVal = null;
-    if (!notifyHeaders.isEmpty())
+    if (!matched.isEmpty())
     {
+      final NotifyPayload.Selection selection = payload.select(matched);
       retVal = new NotifyMessage();
       retVal.subscriptionId = new Identifier(subscriptionId);
-      retVal.updateHeaderList = notifyHeaders;
-      retVal.updateList = notifyLists;
+      retVal.updateHeaderList = selection.updateHeaderList;
+      retVal.updateList = selection.updateList;
     }
 
     return retVal;
   }
 
-  private void populateNotifyList(final MALMessageHeader srcHdr,
-          final String srcDomainId,
+  private boolean updateRequired(final MALMessageHeader srcHdr,
+          final DomainNode srcDomain,
           final UpdateHeader updateHeader,
-          final List[] updateLists,
-          final int index,
-          final UpdateHeaderList notifyHeaders,
-          final List[] notifyLists) throws MALException
+          final boolean isChange)
   {
-    final UpdateKey key = new UpdateKey(srcHdr, srcDomainId, updateHeader.getKey());
+    final UpdateKey key = new UpdateKey(srcHdr, srcDomain, updateHeader.getKey());
     MALBrokerImpl.LOGGER.log(Level.FINE, "Checking {0}", key);
     boolean updateRequired = matchedUpdate(key, onAll);
 
-    if (!updateRequired && (updateHeader.getUpdateType().getOrdinal() != UpdateType._UPDATE_INDEX))
+    if (!updateRequired && isChange)
     {
       updateRequired = matchedUpdate(key, onChange);
     }
 
-    if (updateRequired)
-    {
-      // add update for this consumer/subscription
-      notifyHeaders.add(updateHeader);
-
-      if (null != notifyLists)
-      {
-        for (int i = 0; i < notifyLists.length; i++)
-        {
-          if ((null != notifyLists[i]) && (null != updateLists[i]))
-          {
-            notifyLists[i].add(updateLists[i].get(index));
-          }
-        }
-      }
-    }
+    return updateRequired;
   }
 
   private static boolean matchedUpdate(final UpdateKey key, final Set<SubscriptionKey> searchSet)
@@ -209,8 +160,8 @@ class SimpleSubscriptionDetails
     return matched;
   }
 
-  void appendIds(final Set<SubscriptionKey> subSet)
+  Set<SubscriptionKey> getIds()
   {
-    subSet.addAll(required);
+    return required;
   }
 }
@@ -22,11 +22,13 @@ package esa.mo.mal.impl.broker.simple;
 
 import esa.mo.mal.impl.broker.MALBrokerImpl;
 import esa.mo.mal.impl.broker.NotifyMessageSet;
+import esa.mo.mal.impl.broker.NotifyPayload;
 import esa.mo.mal.impl.broker.NotifyMessageSet.NotifyMessage;
 import esa.mo.mal.impl.broker.SubscriptionSource;
+import esa.mo.mal.impl.broker.key.DomainNode;
 import esa.mo.mal.impl.broker.key.SubscriptionKey;
-import esa.mo.mal.impl.util.StructureHelper;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.structures.Identifier;
@@ -34,16 +36,19 @@ import org.ccsds.moims.mo.mal.structures.IdentifierList;
 import org.ccsds.moims.mo.mal.structures.Subscription;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
-import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 
 /**
- * A SimpleSubscriptionSource represents a single consumer indexed by URI.
+ * A SimpleSubscriptionSource represents a single consumer indexed by URI. The subscription details are never changed
+ * once created, an update replaces the entry in the concurrent map of details so that publishes can read it without
+ * locking. The set of required keys is reference counted and updated with the keys of the changed subscription only.
  */
 class SimpleSubscriptionSource extends SubscriptionSource
 {
   private final String signature;
-  private final Set<SubscriptionKey> required = new TreeSet<SubscriptionKey>();
-  private final Map<String, SimpleSubscriptionDetails> details = new HashMap<String, SimpleSubscriptionDetails>();
+  private final Map<SubscriptionKey, Integer> required = new TreeMap<SubscriptionKey, Integer>();
+  private final Map<String, SimpleSubscriptionDetails> details
+          = new ConcurrentHashMap<String, SimpleSubscriptionDetails>();
+  private volatile int requiredSize = 0;
 
   /**
    * Constructor.
@@ -60,14 +65,14 @@ class SimpleSubscriptionSource extends SubscriptionSource
   @Override
   public boolean active()
   {
-    return !required.isEmpty();
+    return 0 < requiredSize;
   }
 
   @Override
   public void report()
   {
     MALBrokerImpl.LOGGER.log(Level.FINE, "  START Consumer ( {0} )", signature);
-    MALBrokerImpl.LOGGER.log(Level.FINE, "   Required: {0}", required.size());
+    MALBrokerImpl.LOGGER.log(Level.FINE, "   Required: {0}", requiredSize);
     for (Map.Entry<String, SimpleSubscriptionDetails> entry : details.entrySet())
     {
       entry.getValue().report();
@@ -85,32 +90,28 @@ class SimpleSubscriptionSource extends SubscriptionSource
   public void addSubscription(final MALMessageHeader srcHdr, final Subscription subscription)
   {
     final String subId = subscription.getSubscriptionId().getValue();
-    SimpleSubscriptionDetails sub = details.get(subId);
-    if (null == sub)
-    {
-      sub = new SimpleSubscriptionDetails(subId);
-      details.put(subId, sub);
-    }
-    sub.setIds(srcHdr, subscription.getEntities());
+    final SimpleSubscriptionDetails sub = new SimpleSubscriptionDetails(subId, srcHdr, subscription.getEntities());
 
-    updateIds();
+    addIds(sub);
+    releaseIds(details.put(subId, sub));
+    requiredSize = required.size();
   }
 
   @Override
   public void populateNotifyList(final MALMessageHeader srcHdr,
           final List<NotifyMessageSet> lst,
           final UpdateHeaderList updateHeaderList,
-          final MALPublishBody publishBody) throws MALException
+          final NotifyPayload payload) throws MALException
   {
     MALBrokerImpl.LOGGER.log(Level.FINE, "Checking SimComSource : {0}", signature);
 
-    final String srcDomainId = StructureHelper.domainToString(srcHdr.getDomain());
+    final DomainNode srcDomain = DomainNode.find(srcHdr.getDomain());
     final List<NotifyMessage> msgs = new LinkedList<NotifyMessage>();
 
     for (Map.Entry<String, SimpleSubscriptionDetails> ent : details.entrySet())
     {
       final NotifyMessage subUpdate
-              = ent.getValue().populateNotifyList(srcHdr, srcDomainId, updateHeaderList, publishBody);
+              = ent.getValue().populateNotifyList(srcHdr, srcDomain, updateHeaderList, payload);
       if (null != subUpdate)
       {
         msgs.add(subUpdate);
@@ -144,10 +145,8 @@ class SimpleSubscriptionSource extends SubscriptionSource
     {
       for (Identifier sub : subscriptions)
       {
-        details.remove(sub.getValue());
+        releaseIds(details.remove(sub.getValue()));
       }
-
-      updateIds();
     }
     else
     {
@@ -155,15 +154,38 @@ class SimpleSubscriptionSource extends SubscriptionSource
       details.clear();
       required.clear();
     }
+
+    requiredSize = required.size();
   }
 
-  private void updateIds()
+  private void addIds(final SimpleSubscriptionDetails sub)
   {
-    required.clear();
+    for (SubscriptionKey key : sub.getIds())
+    {
+      final Integer count = required.get(key);
+      required.put(key, null == count ? 1 : count + 1);
+    }
+  }
 
-    for (Map.Entry<String, SimpleSubscriptionDetails> entry : details.entrySet())
+  private void releaseIds(final SimpleSubscriptionDetails sub)
+  {
+    if (null != sub)
     {
-      entry.getValue().appendIds(required);
+      for (SubscriptionKey key : sub.getIds())
+      {
+        final Integer count = required.get(key);
+        if (null != count)
+        {
+          if (1 < count)
+          {
+            required.put(key, count - 1);
+          }
+          else
+          {
+            required.remove(key);
+          }
+        }
+      }
     }
   }
 }
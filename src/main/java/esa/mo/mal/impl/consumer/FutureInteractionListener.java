@@ -0,0 +1,269 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.consumer;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
+
+/**
+ * Interaction listener that completes a future when the final stage of an interaction arrives. Intermediate stages
+ * are passed on to an optional user supplied listener.
+ */
+final class FutureInteractionListener implements MALInteractionListener
+{
+  private final CompletableFuture<MALMessageHeader> ackFuture;
+  private final CompletableFuture<MALMessageBody> responseFuture;
+  private final MALInteractionListener listener;
+
+  private FutureInteractionListener(final CompletableFuture<MALMessageHeader> ackFuture,
+          final CompletableFuture<MALMessageBody> responseFuture,
+          final MALInteractionListener listener)
+  {
+    this.ackFuture = ackFuture;
+    this.responseFuture = responseFuture;
+    this.listener = listener;
+  }
+
+  /**
+   * Creates a listener whose future is completed by the acknowledgement of a SUBMIT.
+   *
+   * @param future The future to complete.
+   * @return The new listener.
+   */
+  static FutureInteractionListener forAck(final CompletableFuture<MALMessageHeader> future)
+  {
+    return new FutureInteractionListener(future, null, null);
+  }
+
+  /**
+   * Creates a listener whose future is completed by the final response of a REQUEST, INVOKE or PROGRESS.
+   *
+   * @param future The future to complete.
+   * @param listener Optional listener for the intermediate stages, may be null.
+   * @return The new listener.
+   */
+  static FutureInteractionListener forResponse(final CompletableFuture<MALMessageBody> future,
+          final MALInteractionListener listener)
+  {
+    return new FutureInteractionListener(null, future, listener);
+  }
+
+  @Override
+  public void submitAckReceived(final MALMessageHeader header, final Map qosProperties) throws MALException
+  {
+    ackFuture.complete(header);
+  }
+
+  @Override
+  public void submitErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void requestResponseReceived(final MALMessageHeader header,
+          final MALMessageBody body,
+          final Map qosProperties) throws MALException
+  {
+    responseFuture.complete(body);
+  }
+
+  @Override
+  public void requestErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void invokeAckReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    if (null != listener)
+    {
+      try
+      {
+        listener.invokeAckReceived(header, body, qosProperties);
+      }
+      catch (MALException ex)
+      {
+        responseFuture.completeExceptionally(ex);
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public void invokeAckErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void invokeResponseReceived(final MALMessageHeader header,
+          final MALMessageBody body,
+          final Map qosProperties) throws MALException
+  {
+    responseFuture.complete(body);
+  }
+
+  @Override
+  public void invokeResponseErrorReceived(final MALMessageHeader header,
+          final MALErrorBody body,
+          final Map qosProperties) throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void progressAckReceived(final MALMessageHeader header, final MALMessageBody body, final Map qosProperties)
+          throws MALException
+  {
+    if (null != listener)
+    {
+      try
+      {
+        listener.progressAckReceived(header, body, qosProperties);
+      }
+      catch (MALException ex)
+      {
+        responseFuture.completeExceptionally(ex);
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public void progressAckErrorReceived(final MALMessageHeader header,
+          final MALErrorBody body,
+          final Map qosProperties) throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void progressUpdateReceived(final MALMessageHeader header,
+          final MALMessageBody body,
+          final Map qosProperties) throws MALException
+  {
+    if (null != listener)
+    {
+      try
+      {
+        listener.progressUpdateReceived(header, body, qosProperties);
+      }
+      catch (MALException ex)
+      {
+        responseFuture.completeExceptionally(ex);
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public void progressUpdateErrorReceived(final MALMessageHeader header,
+          final MALErrorBody body,
+          final Map qosProperties) throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void progressResponseReceived(final MALMessageHeader header,
+          final MALMessageBody body,
+          final Map qosProperties) throws MALException
+  {
+    responseFuture.complete(body);
+  }
+
+  @Override
+  public void progressResponseErrorReceived(final MALMessageHeader header,
+          final MALErrorBody body,
+          final Map qosProperties) throws MALException
+  {
+    fail(body);
+  }
+
+  @Override
+  public void registerAckReceived(final MALMessageHeader header, final Map qosProperties) throws MALException
+  {
+    // not used for futures
+  }
+
+  @Override
+  public void registerErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    // not used for futures
+  }
+
+  @Override
+  public void deregisterAckReceived(final MALMessageHeader header, final Map qosProperties) throws MALException
+  {
+    // not used for futures
+  }
+
+  @Override
+  public void notifyReceived(final MALMessageHeader header, final MALNotifyBody body, final Map qosProperties)
+          throws MALException
+  {
+    // not used for futures
+  }
+
+  @Override
+  public void notifyErrorReceived(final MALMessageHeader header, final MALErrorBody body, final Map qosProperties)
+          throws MALException
+  {
+    // not used for futures
+  }
+
+  private void fail(final MALErrorBody body)
+  {
+    Throwable cause;
+
+    try
+    {
+      cause = new MALInteractionException(body.getError());
+    }
+    catch (MALException ex)
+    {
+      cause = ex;
+    }
+
+    if (null != ackFuture)
+    {
+      ackFuture.completeExceptionally(cause);
+    }
+    else
+    {
+      responseFuture.completeExceptionally(cause);
+    }
+  }
+}
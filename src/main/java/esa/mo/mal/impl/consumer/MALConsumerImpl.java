@@ -26,20 +26,21 @@ import esa.mo.mal.impl.MessageSend;
 import esa.mo.mal.impl.transport.TransportSingleton;
 import esa.mo.mal.impl.util.MALClose;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.ccsds.moims.mo.mal.*;
-import org.ccsds.moims.mo.mal.consumer.MALConsumer;
 import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
 import org.ccsds.moims.mo.mal.structures.*;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
 import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 import org.ccsds.moims.mo.mal.transport.MALTransmitErrorListener;
 
 /**
  * Implementation of the MALConsumer interface. Delegates most of the work to the MessageSend class.
  */
-class MALConsumerImpl extends MALClose implements MALConsumer
+class MALConsumerImpl extends MALClose implements MALFutureConsumer
 {
   private final MessageSend sender;
   private final MessageDetails details;
@@ -340,6 +341,118 @@ class MALConsumerImpl extends MALClose implements MALConsumer
     return sender.asynchronousInteraction(details, op, MALProgressOperation.PROGRESS_STAGE, listener, body);
   }
 
+  @Override
+  public CompletableFuture<MALMessageHeader> submitAsync(final MALSubmitOperation op, final Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageHeader> future = new CompletableFuture<MALMessageHeader>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALSubmitOperation.SUBMIT_STAGE,
+            FutureInteractionListener.forAck(future),
+            requestBody);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageHeader> submitAsync(final MALSubmitOperation op, final MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageHeader> future = new CompletableFuture<MALMessageHeader>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALSubmitOperation.SUBMIT_STAGE,
+            FutureInteractionListener.forAck(future),
+            body);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageBody> requestAsync(final MALRequestOperation op, final Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageBody> future = new CompletableFuture<MALMessageBody>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALRequestOperation.REQUEST_STAGE,
+            FutureInteractionListener.forResponse(future, null),
+            requestBody);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageBody> requestAsync(final MALRequestOperation op, final MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageBody> future = new CompletableFuture<MALMessageBody>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALRequestOperation.REQUEST_STAGE,
+            FutureInteractionListener.forResponse(future, null),
+            body);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageBody> invokeAsync(final MALInvokeOperation op,
+          final MALInteractionListener listener,
+          final Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageBody> future = new CompletableFuture<MALMessageBody>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALInvokeOperation.INVOKE_STAGE,
+            FutureInteractionListener.forResponse(future, listener),
+            requestBody);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageBody> invokeAsync(final MALInvokeOperation op,
+          final MALInteractionListener listener,
+          final MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageBody> future = new CompletableFuture<MALMessageBody>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALInvokeOperation.INVOKE_STAGE,
+            FutureInteractionListener.forResponse(future, listener),
+            body);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageBody> progressAsync(final MALProgressOperation op,
+          final MALInteractionListener listener,
+          final Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageBody> future = new CompletableFuture<MALMessageBody>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALProgressOperation.PROGRESS_STAGE,
+            FutureInteractionListener.forResponse(future, listener),
+            requestBody);
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<MALMessageBody> progressAsync(final MALProgressOperation op,
+          final MALInteractionListener listener,
+          final MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException
+  {
+    final CompletableFuture<MALMessageBody> future = new CompletableFuture<MALMessageBody>();
+    sender.asynchronousInteraction(details,
+            op,
+            MALProgressOperation.PROGRESS_STAGE,
+            FutureInteractionListener.forResponse(future, listener),
+            body);
+    return future;
+  }
+
   @Override
   public MALMessage asyncRegister(final MALPubSubOperation op,
           final Subscription subscription,
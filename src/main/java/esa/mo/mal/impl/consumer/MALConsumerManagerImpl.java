@@ -22,6 +22,7 @@ package esa.mo.mal.impl.consumer;
 
 import esa.mo.mal.impl.MALContextImpl;
 import esa.mo.mal.impl.util.MALClose;
+import esa.mo.mal.impl.util.OperationCache;
 import java.util.Map;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALService;
@@ -63,6 +64,8 @@ public class MALConsumerManagerImpl extends MALClose implements MALConsumerManag
           final Map qosProps,
           final UInteger priority) throws MALException
   {
+    OperationCache.serviceLoaded(service);
+
     return (MALConsumer) addChild(new MALConsumerImpl(impl,
             this,
             localName,
@@ -93,6 +96,8 @@ public class MALConsumerManagerImpl extends MALClose implements MALConsumerManag
           final Map qosProps,
           final UInteger priority) throws IllegalArgumentException, MALException
   {
+    OperationCache.serviceLoaded(service);
+
     return (MALConsumer) addChild(new MALConsumerImpl(impl,
             this,
             endPoint,
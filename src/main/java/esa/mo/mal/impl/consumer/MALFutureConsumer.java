@@ -0,0 +1,163 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.consumer;
+
+import java.util.concurrent.CompletableFuture;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALInvokeOperation;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALSubmitOperation;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Extension of the MALConsumer interface that returns futures rather than blocking the calling thread. Consumers
+ * created by this implementation implement this interface, so a MALConsumer may be cast to it.
+ *
+ * The returned futures are completed directly from the thread that delivers the final interaction stage, so dependent
+ * actions attached without an executor run on the transport delivery thread and must not block. Errors returned by
+ * the provider, including delivery timeouts, complete the future exceptionally with a MALInteractionException.
+ * Exceptions raised while sending the initial message are thrown directly as with the asynchronous MALConsumer
+ * operations.
+ */
+public interface MALFutureConsumer extends MALConsumer
+{
+  /**
+   * Initiates a SUBMIT interaction.
+   *
+   * @param op The operation.
+   * @param requestBody The body of the submit message.
+   * @return A future completed with the header of the acknowledgement message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageHeader> submitAsync(MALSubmitOperation op, Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates a SUBMIT interaction with a pre-encoded body.
+   *
+   * @param op The operation.
+   * @param body The encoded body of the submit message.
+   * @return A future completed with the header of the acknowledgement message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageHeader> submitAsync(MALSubmitOperation op, MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates a REQUEST interaction.
+   *
+   * @param op The operation.
+   * @param requestBody The body of the request message.
+   * @return A future completed with the body of the response message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageBody> requestAsync(MALRequestOperation op, Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates a REQUEST interaction with a pre-encoded body.
+   *
+   * @param op The operation.
+   * @param body The encoded body of the request message.
+   * @return A future completed with the body of the response message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageBody> requestAsync(MALRequestOperation op, MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates an INVOKE interaction.
+   *
+   * @param op The operation.
+   * @param listener Optional listener informed of the acknowledgement, may be null.
+   * @param requestBody The body of the invoke message.
+   * @return A future completed with the body of the response message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageBody> invokeAsync(MALInvokeOperation op,
+          MALInteractionListener listener,
+          Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates an INVOKE interaction with a pre-encoded body.
+   *
+   * @param op The operation.
+   * @param listener Optional listener informed of the acknowledgement, may be null.
+   * @param body The encoded body of the invoke message.
+   * @return A future completed with the body of the response message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageBody> invokeAsync(MALInvokeOperation op,
+          MALInteractionListener listener,
+          MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates a PROGRESS interaction.
+   *
+   * @param op The operation.
+   * @param listener Optional listener informed of the acknowledgement and updates, may be null.
+   * @param requestBody The body of the progress message.
+   * @return A future completed with the body of the response message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageBody> progressAsync(MALProgressOperation op,
+          MALInteractionListener listener,
+          Object... requestBody)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+
+  /**
+   * Initiates a PROGRESS interaction with a pre-encoded body.
+   *
+   * @param op The operation.
+   * @param listener Optional listener informed of the acknowledgement and updates, may be null.
+   * @param body The encoded body of the progress message.
+   * @return A future completed with the body of the response message.
+   * @throws IllegalArgumentException If an argument is null.
+   * @throws MALInteractionException If the message could not be sent.
+   * @throws MALException If the consumer is closed or an internal error occurs.
+   */
+  CompletableFuture<MALMessageBody> progressAsync(MALProgressOperation op,
+          MALInteractionListener listener,
+          MALEncodedBody body)
+          throws IllegalArgumentException, MALInteractionException, MALException;
+}
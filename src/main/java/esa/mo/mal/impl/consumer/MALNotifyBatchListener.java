@@ -0,0 +1,43 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.consumer;
+
+import java.util.List;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+
+/**
+ * Optional interface of the listener of a PubSub registration. When the listener passed to register also implements
+ * this interface, NOTIFY messages of the subscription are delivered through notifyBatchReceived instead of
+ * notifyReceived, and all the NOTIFY messages of the subscription that arrive in one transport batch are delivered
+ * in a single call. NOTIFY errors are still delivered through notifyErrorReceived.
+ */
+public interface MALNotifyBatchListener
+{
+  /**
+   * Receives the NOTIFY messages of one subscription, in the order they were received. The body of each message is a
+   * MALNotifyBody.
+   *
+   * @param notifies The NOTIFY messages, never empty.
+   * @throws MALException if an error occurs, the remaining messages of the list are not redelivered.
+   */
+  void notifyBatchReceived(List<MALMessage> notifies) throws MALException;
+}
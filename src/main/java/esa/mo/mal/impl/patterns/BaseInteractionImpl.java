@@ -22,12 +22,12 @@ package esa.mo.mal.impl.patterns;
 
 import esa.mo.mal.impl.Address;
 import esa.mo.mal.impl.MessageSend;
+import esa.mo.mal.impl.util.OperationCache;
 import java.util.HashMap;
 import java.util.Map;
 import org.ccsds.moims.mo.mal.*;
 import org.ccsds.moims.mo.mal.provider.MALInteraction;
 import org.ccsds.moims.mo.mal.structures.UOctet;
-import org.ccsds.moims.mo.mal.structures.Union;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
@@ -50,16 +50,7 @@ public abstract class BaseInteractionImpl implements MALInteraction
     this.sender = sender;
     this.address = address;
     this.msg = msg;
-    this.operation = MALContextFactory.lookupArea(msg.getHeader().getServiceArea(), msg.getHeader().getAreaVersion())
-            .getServiceByNumber(msg.getHeader().getService())
-            .getOperationByNumber(msg.getHeader().getOperation());
-
-    if (null == this.operation)
-    {
-      throw new MALInteractionException(new MALStandardError(MALHelper.UNSUPPORTED_OPERATION_ERROR_NUMBER,
-              new Union(msg.getHeader().getServiceArea()
-              + "::" + msg.getHeader().getService() + "::" + msg.getHeader().getOperation())));
-    }
+    this.operation = OperationCache.lookup(msg.getHeader());
   }
 
   @Override
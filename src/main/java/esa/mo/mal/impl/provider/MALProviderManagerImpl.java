@@ -22,6 +22,7 @@ package esa.mo.mal.impl.provider;
 
 import esa.mo.mal.impl.MALContextImpl;
 import esa.mo.mal.impl.util.MALClose;
+import esa.mo.mal.impl.util.OperationCache;
 import java.util.Map;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALService;
@@ -65,6 +66,8 @@ public class MALProviderManagerImpl extends MALClose implements MALProviderManag
           final Boolean isPublisher,
           final URI sharedBrokerUri) throws MALException
   {
+    OperationCache.serviceLoaded(service);
+
     return (MALProvider) addChild(new MALProviderImpl(this,
             impl,
             localName,
@@ -91,6 +94,8 @@ public class MALProviderManagerImpl extends MALClose implements MALProviderManag
           final Boolean isPublisher,
           final URI sharedBrokerUri) throws MALException
   {
+    OperationCache.serviceLoaded(service);
+
     return (MALProvider) addChild(new MALProviderImpl(this,
             impl,
             endPoint,
@@ -21,7 +21,9 @@
 package esa.mo.mal.impl.state;
 
 import esa.mo.mal.impl.MALContextFactoryImpl;
+import esa.mo.mal.impl.util.HashedWheelTimer;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALInteractionException;
 import org.ccsds.moims.mo.mal.MALStandardError;
@@ -30,12 +32,16 @@ import org.ccsds.moims.mo.mal.transport.MALMessage;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 
 /**
- *
+ * Base class of the consumer side interaction state machines. The stage handling methods are not thread safe, callers
+ * must hold the lock of the handler, which is a ReentrantLock rather than a monitor so that a virtual thread blocked in a
+ * listener called while holding it does not pin its carrier thread.
  */
 public abstract class BaseOperationHandler
 {
   protected final boolean syncOperation;
   protected final OperationResponseHolder responseHolder;
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile HashedWheelTimer.Timeout deadline = null;
 
   protected BaseOperationHandler(final boolean syncOperation, final OperationResponseHolder responseHolder)
   {
@@ -43,6 +49,45 @@ public abstract class BaseOperationHandler
     this.responseHolder = responseHolder;
   }
 
+  /**
+   * Acquires the lock that serialises the stages of this interaction.
+   */
+  public void lock()
+  {
+    lock.lock();
+  }
+
+  /**
+   * Releases the lock that serialises the stages of this interaction.
+   */
+  public void unlock()
+  {
+    lock.unlock();
+  }
+
+  /**
+   * Sets the deadline of the interaction.
+   *
+   * @param deadline The timeout that expires the interaction.
+   */
+  public void setDeadline(final HashedWheelTimer.Timeout deadline)
+  {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Cancels the deadline of the interaction, if one is set.
+   */
+  public void cancelDeadline()
+  {
+    final HashedWheelTimer.Timeout timeout = deadline;
+
+    if (null != timeout)
+    {
+      timeout.cancel();
+    }
+  }
+
   public abstract MessageHandlerDetails handleStage(final MALMessage msg) throws MALInteractionException;
 
   public abstract void processStage(final MessageHandlerDetails details) throws MALInteractionException;
@@ -153,7 +153,7 @@ public final class InvokeOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
+  public void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
   {
     if (syncOperation)
     {
@@ -181,7 +181,7 @@ public final class InvokeOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized boolean finished()
+  public boolean finished()
   {
     return receivedResponse;
   }
@@ -22,6 +22,7 @@ package esa.mo.mal.impl.state;
 
 import esa.mo.mal.impl.MALContextFactoryImpl;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALInteractionException;
@@ -34,11 +35,12 @@ import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
 
 /**
- * This small class is used to hold the response to interactions for a consumer.
+ * This small class is used to hold the response to interactions for a consumer. The waiting thread is parked on a latch
+ * rather than a monitor so that a blocked virtual thread releases its carrier thread.
  */
 public class OperationResponseHolder
 {
-  private final BooleanHolder responseSignal = new BooleanHolder();
+  private final CountDownLatch responseSignal = new CountDownLatch(1);
   private final MALInteractionListener listener;
   private boolean inError = false;
   private MALMessage result = null;
@@ -61,18 +63,15 @@ public class OperationResponseHolder
   public void waitForResponseSignal()
   {
     // wait for the bat signal
-    synchronized (responseSignal)
+    while (0 < responseSignal.getCount())
     {
-      while (!responseSignal.getValue())
+      try
       {
-        try
-        {
-          responseSignal.wait();
-        }
-        catch (InterruptedException ex)
-        {
-          MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Interrupted waiting for handler lock ", ex);
-        }
+        responseSignal.await();
+      }
+      catch (InterruptedException ex)
+      {
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING, "Interrupted waiting for handler lock ", ex);
       }
     }
   }
@@ -82,11 +81,7 @@ public class OperationResponseHolder
     this.inError = isError;
     this.result = msg;
 
-    synchronized (responseSignal)
-    {
-      responseSignal.setValue();
-      responseSignal.notifyAll();
-    }
+    responseSignal.countDown();
   }
 
   public MALMessage getResult() throws MALInteractionException, MALException
@@ -99,32 +94,6 @@ public class OperationResponseHolder
     return result;
   }
 
-  /**
-   * Small class to hold a boolean value. Can be used for signalling purposes as can be synchronised on and have its value set.
-   */
-  private static final class BooleanHolder
-  {
-    private boolean value = false;
-
-    /**
-     * Returns the current value.
-     *
-     * @return the current value.
-     */
-    public synchronized boolean getValue()
-    {
-      return value;
-    }
-
-    /**
-     * Sets the held value to true.
-     */
-    public synchronized void setValue()
-    {
-      value = true;
-    }
-  }
-
   /**
    * Wrapper class to allow an PubSub interaction to be processed by common code.
    */
@@ -75,47 +75,44 @@ public final class ProgressOperationHandler extends BaseOperationHandler
     final int interactionType = msg.getHeader().getInteractionType().getOrdinal();
     final int interactionStage = msg.getHeader().getInteractionStage().getValue();
     boolean isError = msg.getHeader().getIsErrorMessage();
-    synchronized (this)
+    if (!receivedAck)
     {
-      if (!receivedAck)
+      if ((interactionType == InteractionType._PROGRESS_INDEX) && (interactionStage == MALProgressOperation._PROGRESS_ACK_STAGE))
       {
-        if ((interactionType == InteractionType._PROGRESS_INDEX) && (interactionStage == MALProgressOperation._PROGRESS_ACK_STAGE))
-        {
-          receivedAck = true;
-          if (isError)
-          {
-            receivedResponse = true;
-          }
-          return new MessageHandlerDetails(true, msg);
-        }
-        else
+        receivedAck = true;
+        if (isError)
         {
           receivedResponse = true;
-          logUnexpectedTransitionError(interactionType, interactionStage);
-          return new MessageHandlerDetails(true, msg, MALHelper.INCORRECT_STATE_ERROR_NUMBER);
         }
+        return new MessageHandlerDetails(true, msg);
       }
-      else if ((!receivedResponse) && (interactionType == InteractionType._PROGRESS_INDEX) && ((interactionStage == MALProgressOperation._PROGRESS_UPDATE_STAGE) || (interactionStage == MALProgressOperation._PROGRESS_RESPONSE_STAGE)))
+      else
       {
-        if (interactionStage == MALProgressOperation._PROGRESS_UPDATE_STAGE)
-        {
-          if (isError)
-          {
-            receivedResponse = true;
-          }
-        }
-        else
+        receivedResponse = true;
+        logUnexpectedTransitionError(interactionType, interactionStage);
+        return new MessageHandlerDetails(true, msg, MALHelper.INCORRECT_STATE_ERROR_NUMBER);
+      }
+    }
+    else if ((!receivedResponse) && (interactionType == InteractionType._PROGRESS_INDEX) && ((interactionStage == MALProgressOperation._PROGRESS_UPDATE_STAGE) || (interactionStage == MALProgressOperation._PROGRESS_RESPONSE_STAGE)))
+    {
+      if (interactionStage == MALProgressOperation._PROGRESS_UPDATE_STAGE)
+      {
+        if (isError)
         {
           receivedResponse = true;
         }
-        return new MessageHandlerDetails(false, msg);
       }
       else
       {
         receivedResponse = true;
-        logUnexpectedTransitionError(interactionType, interactionStage);
-        return new MessageHandlerDetails(!receivedAck, msg, MALHelper.INCORRECT_STATE_ERROR_NUMBER);
       }
+      return new MessageHandlerDetails(false, msg);
+    }
+    else
+    {
+      receivedResponse = true;
+      logUnexpectedTransitionError(interactionType, interactionStage);
+      return new MessageHandlerDetails(!receivedAck, msg, MALHelper.INCORRECT_STATE_ERROR_NUMBER);
     }
   }
 
@@ -180,7 +177,7 @@ public final class ProgressOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
+  public void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
   {
     if (syncOperation)
     {
@@ -208,7 +205,7 @@ public final class ProgressOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized boolean finished()
+  public boolean finished()
   {
     return receivedResponse;
   }
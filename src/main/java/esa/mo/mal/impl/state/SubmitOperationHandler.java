@@ -76,7 +76,7 @@ public class SubmitOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized MessageHandlerDetails handleStage(final MALMessage msg) throws MALInteractionException
+  public MessageHandlerDetails handleStage(final MALMessage msg) throws MALInteractionException
   {
     if (!receivedInitialStage)
     {
@@ -129,7 +129,7 @@ public class SubmitOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
+  public void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap)
   {
     if (syncOperation)
     {
@@ -150,7 +150,7 @@ public class SubmitOperationHandler extends BaseOperationHandler
   }
 
   @Override
-  public synchronized boolean finished()
+  public boolean finished()
   {
     return receivedInitialStage;
   }
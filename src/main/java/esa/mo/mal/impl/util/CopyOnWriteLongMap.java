@@ -0,0 +1,258 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.util;
+
+/**
+ * A map from primitive long keys to values for data that is read far more often than it is changed. Reads are lock
+ * free and allocate nothing, they probe an immutable open addressing table held in a volatile field. Writes are
+ * serialised and replace the whole table, so they cost time proportional to the size of the map.
+ *
+ * Null values are not supported.
+ *
+ * @param <V> The type of the values.
+ */
+public class CopyOnWriteLongMap<V>
+{
+  private static final int MIN_CAPACITY = 8;
+  private volatile Table table = new Table(MIN_CAPACITY);
+
+  /**
+   * Returns the value of a key.
+   *
+   * @param key The key.
+   * @return The value, or null if the key is not present.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(final long key)
+  {
+    return (V) table.get(key);
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return the size.
+   */
+  public int size()
+  {
+    return table.size;
+  }
+
+  /**
+   * Returns true if there are no entries.
+   *
+   * @return true if empty.
+   */
+  public boolean isEmpty()
+  {
+    return 0 == table.size;
+  }
+
+  /**
+   * Returns the keys present when called.
+   *
+   * @return the keys, in no particular order.
+   */
+  public long[] keys()
+  {
+    final Table current = table;
+    final long[] rv = new long[current.size];
+    int count = 0;
+
+    for (int i = 0; i < current.values.length; i++)
+    {
+      if (null != current.values[i])
+      {
+        rv[count++] = current.keys[i];
+      }
+    }
+
+    return rv;
+  }
+
+  /**
+   * Sets the value of a key.
+   *
+   * @param key The key.
+   * @param value The value, must not be null.
+   * @return The previous value of the key, or null if it was not present.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized V put(final long key, final V value)
+  {
+    if (null == value)
+    {
+      throw new IllegalArgumentException("Null values are not supported");
+    }
+
+    final Table current = table;
+    final Object previous = current.get(key);
+    table = current.copy((null == previous) ? current.size + 1 : current.size, key, value);
+
+    return (V) previous;
+  }
+
+  /**
+   * Sets the value of a key if it is not already present.
+   *
+   * @param key The key.
+   * @param value The value, must not be null.
+   * @return The existing value of the key, or null if the value was added.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized V putIfAbsent(final long key, final V value)
+  {
+    final Object previous = table.get(key);
+
+    if (null == previous)
+    {
+      put(key, value);
+    }
+
+    return (V) previous;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key The key.
+   * @return The value of the removed key, or null if it was not present.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized V remove(final long key)
+  {
+    final Table current = table;
+    final Object previous = current.get(key);
+
+    if (null != previous)
+    {
+      table = current.copy(current.size - 1, key, null);
+    }
+
+    return (V) previous;
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public synchronized void clear()
+  {
+    table = new Table(MIN_CAPACITY);
+  }
+
+  private static int indexFor(final long key, final int mask)
+  {
+    // murmur3 finaliser to spread keys that only differ in their high bits
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return ((int) h) & mask;
+  }
+
+  /**
+   * Immutable once published, an open addressing table with linear probing kept at most half full.
+   */
+  private static final class Table
+  {
+    private final long[] keys;
+    private final Object[] values;
+    private final int mask;
+    private final int size;
+
+    private Table(final int capacity)
+    {
+      this.keys = new long[capacity];
+      this.values = new Object[capacity];
+      this.mask = capacity - 1;
+      this.size = 0;
+    }
+
+    private Table(final int capacity, final int size)
+    {
+      this.keys = new long[capacity];
+      this.values = new Object[capacity];
+      this.mask = capacity - 1;
+      this.size = size;
+    }
+
+    private Object get(final long key)
+    {
+      int i = indexFor(key, mask);
+      Object value;
+
+      while (null != (value = values[i]))
+      {
+        if (keys[i] == key)
+        {
+          return value;
+        }
+
+        i = (i + 1) & mask;
+      }
+
+      return null;
+    }
+
+    /**
+     * Returns a copy of this table with the key set to the value, or removed if the value is null.
+     */
+    private Table copy(final int newSize, final long key, final Object value)
+    {
+      int capacity = MIN_CAPACITY;
+
+      while (capacity < newSize * 2)
+      {
+        capacity <<= 1;
+      }
+
+      final Table rv = new Table(capacity, newSize);
+
+      for (int i = 0; i < values.length; i++)
+      {
+        if ((null != values[i]) && (keys[i] != key))
+        {
+          rv.insert(keys[i], values[i]);
+        }
+      }
+
+      if (null != value)
+      {
+        rv.insert(key, value);
+      }
+
+      return rv;
+    }
+
+    private void insert(final long key, final Object value)
+    {
+      int i = indexFor(key, mask);
+
+      while (null != values[i])
+      {
+        i = (i + 1) & mask;
+      }
+
+      keys[i] = key;
+      values[i] = value;
+    }
+  }
+}
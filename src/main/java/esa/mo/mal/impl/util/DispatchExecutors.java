@@ -0,0 +1,152 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the executors used to dispatch received messages away from the transport delivery threads. The dispatch
+ * mode is given as a string:
+ * <ul>
+ * <li>inline - no executor, messages are processed on the delivery thread (the default)</li>
+ * <li>virtual - a new virtual thread per message, where the JVM supports them</li>
+ * <li>a positive number - a fixed pool of that many daemon threads</li>
+ * </ul>
+ */
+public final class DispatchExecutors
+{
+  /**
+   * Dispatch mode that processes messages on the transport delivery thread.
+   */
+  public static final String INLINE = "inline";
+  /**
+   * Dispatch mode that processes each message on its own virtual thread.
+   */
+  public static final String VIRTUAL = "virtual";
+  private static final Logger LOGGER = Logger.getLogger("org.ccsds.moims.mo.mal.impl.util");
+
+  private DispatchExecutors()
+  {
+    // prevent instantiation
+  }
+
+  /**
+   * Creates the executor for a dispatch mode.
+   *
+   * @param mode The dispatch mode, may be null.
+   * @param name The base name of the created threads.
+   * @return The executor, or null if messages should be processed inline.
+   */
+  public static ExecutorService createExecutor(final String mode, final String name)
+  {
+    if ((null == mode) || INLINE.equalsIgnoreCase(mode.trim()))
+    {
+      return null;
+    }
+
+    if (VIRTUAL.equalsIgnoreCase(mode.trim()))
+    {
+      final ExecutorService executor = createVirtualThreadExecutor();
+
+      if (null != executor)
+      {
+        return executor;
+      }
+
+      LOGGER.log(Level.WARNING, "Virtual threads are not supported by this JVM, using a thread pool for {0}", name);
+      return Executors.newCachedThreadPool(new DaemonThreadFactory(name));
+    }
+
+    try
+    {
+      final int size = Integer.parseInt(mode.trim());
+
+      if (0 < size)
+      {
+        return Executors.newFixedThreadPool(size, new DaemonThreadFactory(name));
+      }
+    }
+    catch (NumberFormatException ex)
+    {
+      // falls through to the warning below
+    }
+
+    LOGGER.log(Level.WARNING, "Ignoring unknown dispatch mode {0} for {1}, dispatching inline", new Object[]
+    {
+      mode, name
+    });
+
+    return null;
+  }
+
+  /**
+   * Returns a thread factory that creates named daemon threads.
+   *
+   * @param name The base name of the created threads.
+   * @return The thread factory.
+   */
+  public static ThreadFactory daemonThreadFactory(final String name)
+  {
+    return new DaemonThreadFactory(name);
+  }
+
+  private static ExecutorService createVirtualThreadExecutor()
+  {
+    try
+    {
+      // looked up reflectively so that the implementation still runs on JVMs without virtual threads
+      final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    }
+    catch (Exception ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Creates named daemon threads so that an unclosed context does not prevent the JVM from exiting.
+   */
+  private static final class DaemonThreadFactory implements ThreadFactory
+  {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private DaemonThreadFactory(final String name)
+    {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r)
+    {
+      final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel for large numbers of coarse grained timeouts that are usually cancelled before they expire.
+ * Scheduling and cancelling are constant time and lock free, a single daemon thread advances the wheel one bucket per
+ * tick and runs the tasks whose deadline has passed. Tasks are run on the wheel thread so they must be short.
+ *
+ * The wheel thread is only started when the first timeout is scheduled.
+ */
+public class HashedWheelTimer
+{
+  private static final Logger LOGGER = Logger.getLogger("org.ccsds.moims.mo.mal.impl.util");
+  private static final int STATE_PENDING = 0;
+  private static final int STATE_CANCELLED = 1;
+  private static final int STATE_EXPIRED = 2;
+  private final String name;
+  private final long tickNanos;
+  private final int wheelSize;
+  private final int mask;
+  private volatile Worker worker = null;
+
+  /**
+   * Constructor.
+   *
+   * @param name Name of the wheel thread.
+   * @param tickMillis Duration of one tick in milliseconds, the resolution of the timer.
+   * @param wheelSize Number of buckets in the wheel, rounded up to a power of two.
+   */
+  public HashedWheelTimer(final String name, final long tickMillis, final int wheelSize)
+  {
+    int size = 1;
+    while (size < wheelSize)
+    {
+      size <<= 1;
+    }
+
+    this.name = name;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    this.wheelSize = size;
+    this.mask = size - 1;
+  }
+
+  /**
+   * Schedules a task to be run once the delay has passed.
+   *
+   * @param task The task to run.
+   * @param delayMillis The delay in milliseconds.
+   * @return The timeout handle that can be used to cancel the task.
+   */
+  public Timeout schedule(final Runnable task, final long delayMillis)
+  {
+    Worker current = worker;
+
+    if (null == current)
+    {
+      current = start();
+    }
+
+    final Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    current.pending.add(timeout);
+
+    return timeout;
+  }
+
+  /**
+   * Stops the wheel thread, outstanding timeouts are discarded without being run.
+   */
+  public synchronized void stop()
+  {
+    final Worker current = worker;
+    worker = null;
+
+    if (null != current)
+    {
+      current.running = false;
+      current.thread.interrupt();
+      current.pending.clear();
+    }
+  }
+
+  private synchronized Worker start()
+  {
+    if (null == worker)
+    {
+      // each start gets its own buckets as the thread of a stopped wheel may still be working on the old ones
+      worker = new Worker();
+      worker.thread.start();
+    }
+
+    return worker;
+  }
+
+  /**
+   * The wheel thread and the state it owns, only the pending queue is shared with the scheduling threads.
+   */
+  private final class Worker implements Runnable
+  {
+    private final Thread thread;
+    private final List<List<Timeout>> wheel = new ArrayList<List<Timeout>>(wheelSize);
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final long startTime = System.nanoTime();
+    private volatile boolean running = true;
+    private long tick = 0;
+
+    private Worker()
+    {
+      for (int i = 0; i < wheelSize; i++)
+      {
+        wheel.add(new ArrayList<Timeout>());
+      }
+
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      while (running)
+      {
+        final long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+
+        if (0 < sleepNanos)
+        {
+          try
+          {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+          }
+          catch (InterruptedException ex)
+          {
+            // stop() interrupts us, the running flag decides
+            continue;
+          }
+        }
+
+        transferPending();
+        expireBucket(wheel.get((int) (tick & mask)));
+        ++tick;
+      }
+    }
+
+    private void transferPending()
+    {
+      Timeout timeout;
+
+      while (null != (timeout = pending.poll()))
+      {
+        if (STATE_PENDING == timeout.state.get())
+        {
+          final long ticks = Math.max(0, timeout.deadline - startTime) / tickNanos;
+          final long target = Math.max(ticks, tick);
+
+          timeout.remainingRounds = (target - tick) / wheelSize;
+          wheel.get((int) (target & mask)).add(timeout);
+        }
+      }
+    }
+
+    private void expireBucket(final List<Timeout> bucket)
+    {
+      int kept = 0;
+
+      for (int i = 0; i < bucket.size(); i++)
+      {
+        final Timeout timeout = bucket.get(i);
+
+        if (STATE_PENDING == timeout.state.get())
+        {
+          if (0 < timeout.remainingRounds)
+          {
+            --timeout.remainingRounds;
+            bucket.set(kept++, timeout);
+          }
+          else
+          {
+            timeout.expire();
+          }
+        }
+      }
+
+      // drop the expired and cancelled entries in one go
+      for (int i = bucket.size() - 1; i >= kept; i--)
+      {
+        bucket.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Handle of a scheduled task.
+   */
+  public static final class Timeout
+  {
+    private final Runnable task;
+    private final long deadline;
+    private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+    private long remainingRounds;
+
+    private Timeout(final Runnable task, final long deadline)
+    {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the timeout, the task will not be run.
+     *
+     * @return True if the timeout was cancelled, false if it had already expired or been cancelled.
+     */
+    public boolean cancel()
+    {
+      return state.compareAndSet(STATE_PENDING, STATE_CANCELLED);
+    }
+
+    private void expire()
+    {
+      if (state.compareAndSet(STATE_PENDING, STATE_EXPIRED))
+      {
+        try
+        {
+          task.run();
+        }
+        catch (RuntimeException ex)
+        {
+          LOGGER.log(Level.WARNING, "Exception thrown by timer task", ex);
+        }
+      }
+    }
+  }
+}
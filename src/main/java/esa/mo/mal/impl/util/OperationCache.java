@@ -0,0 +1,184 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Caches the resolution of the operation of a received message, which otherwise walks the area, service and operation
+ * tables of the MALContextFactory for every message. The area number, area version, service number and operation
+ * number are packed into a single long key.
+ *
+ * Operations that cannot be resolved are cached as negative entries holding the UNSUPPORTED_OPERATION error, these
+ * expire after a short time so that areas registered later are found, and their number is capped so that messages
+ * for random operations cannot grow the cache without limit. The negative entries of an area are dropped straight
+ * away when a consumer or provider of one of its services is created, as the area must be registered by then.
+ */
+public final class OperationCache
+{
+  private static final long NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int MAX_NEGATIVE_ENTRIES = 1024;
+  private static final long AREA_MASK = 0xFFFFFFFF00000000L;
+  private static final CopyOnWriteLongMap<Object> CACHE = new CopyOnWriteLongMap<Object>();
+  private static final AtomicInteger NEGATIVE_COUNT = new AtomicInteger();
+
+  private OperationCache()
+  {
+    // prevent instantiation
+  }
+
+  /**
+   * Returns the operation of a message.
+   *
+   * @param hdr The message header.
+   * @return The operation.
+   * @throws MALInteractionException with UNSUPPORTED_OPERATION if the operation is not known.
+   */
+  public static MALOperation lookup(final MALMessageHeader hdr) throws MALInteractionException
+  {
+    final long key = areaKey(hdr.getServiceArea().getValue(), hdr.getAreaVersion().getValue())
+            | (((long) hdr.getService().getValue()) << 16)
+            | hdr.getOperation().getValue();
+
+    final Object value = CACHE.get(key);
+
+    if (value instanceof MALOperation)
+    {
+      return (MALOperation) value;
+    }
+
+    if ((null != value) && (0 < ((NegativeEntry) value).expiry - System.nanoTime()))
+    {
+      throw new MALInteractionException(((NegativeEntry) value).error);
+    }
+
+    return resolve(key, hdr, (NegativeEntry) value);
+  }
+
+  /**
+   * Removes the cached failures of the area of a service, for use when the area may just have been registered.
+   *
+   * @param service The service, may be null.
+   */
+  public static void serviceLoaded(final MALService service)
+  {
+    if ((null == service) || (null == service.getArea()))
+    {
+      return;
+    }
+
+    final MALArea area = service.getArea();
+    final long areaKey = areaKey(area.getNumber().getValue(), area.getVersion().getValue());
+
+    synchronized (CACHE)
+    {
+      for (long key : CACHE.keys())
+      {
+        if ((AREA_MASK & key) == areaKey)
+        {
+          final Object value = CACHE.get(key);
+
+          if (value instanceof NegativeEntry)
+          {
+            CACHE.remove(key);
+            NEGATIVE_COUNT.decrementAndGet();
+          }
+        }
+      }
+    }
+  }
+
+  private static long areaKey(final int area, final short version)
+  {
+    return (((long) area) << 40) | (((long) version & 0xFF) << 32);
+  }
+
+  private static MALOperation resolve(final long key, final MALMessageHeader hdr, final NegativeEntry expired)
+          throws MALInteractionException
+  {
+    MALOperation operation = null;
+    final MALArea area = MALContextFactory.lookupArea(hdr.getServiceArea(), hdr.getAreaVersion());
+
+    if (null != area)
+    {
+      final MALService service = area.getServiceByNumber(hdr.getService());
+
+      if (null != service)
+      {
+        operation = service.getOperationByNumber(hdr.getOperation());
+      }
+    }
+
+    synchronized (CACHE)
+    {
+      if (null != expired)
+      {
+        if (expired == CACHE.get(key))
+        {
+          CACHE.remove(key);
+          NEGATIVE_COUNT.decrementAndGet();
+        }
+      }
+
+      if (null != operation)
+      {
+        CACHE.put(key, operation);
+        return operation;
+      }
+
+      final MALStandardError error = new MALStandardError(MALHelper.UNSUPPORTED_OPERATION_ERROR_NUMBER,
+              new Union(hdr.getServiceArea() + "::" + hdr.getService() + "::" + hdr.getOperation()));
+
+      if ((null == CACHE.get(key)) && (MAX_NEGATIVE_ENTRIES > NEGATIVE_COUNT.get()))
+      {
+        CACHE.put(key, new NegativeEntry(System.nanoTime() + NEGATIVE_TTL_NANOS, error));
+        NEGATIVE_COUNT.incrementAndGet();
+      }
+
+      throw new MALInteractionException(error);
+    }
+  }
+
+  /**
+   * A cached failure to resolve an operation.
+   */
+  private static final class NegativeEntry
+  {
+    private final long expiry;
+    private final MALStandardError error;
+
+    private NegativeEntry(final long expiry, final MALStandardError error)
+    {
+      this.expiry = expiry;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2016      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An executor that runs tasks in parallel while keeping the tasks that share a key in submission order. Each key is
+ * hashed to one of a fixed number of lanes, every lane is served by a single thread, so tasks of different keys may run
+ * concurrently but the tasks of one key never overtake each other.
+ */
+public class OrderedExecutor
+{
+  private final ExecutorService[] lanes;
+
+  /**
+   * Constructor.
+   *
+   * @param name The base name of the lane threads.
+   * @param laneCount The number of lanes, and therefore threads.
+   */
+  public OrderedExecutor(final String name, final int laneCount)
+  {
+    if (0 >= laneCount)
+    {
+      throw new IllegalArgumentException("Lane count must be positive: " + laneCount);
+    }
+
+    this.lanes = new ExecutorService[laneCount];
+
+    for (int i = 0; i < laneCount; i++)
+    {
+      lanes[i] = Executors.newSingleThreadExecutor(DispatchExecutors.daemonThreadFactory(name + "-lane" + i));
+    }
+  }
+
+  /**
+   * Returns the number of lanes.
+   *
+   * @return the lane count.
+   */
+  public int getLaneCount()
+  {
+    return lanes.length;
+  }
+
+  /**
+   * Runs a task on the lane of its key.
+   *
+   * @param keyHash The hash of the ordering key of the task.
+   * @param task The task to run.
+   * @throws RejectedExecutionException if the executor has been shut down.
+   */
+  public void execute(final int keyHash, final Runnable task)
+  {
+    // spread the high bits so that keys differing only in them still use different lanes
+    final int h = keyHash ^ (keyHash >>> 16);
+
+    lanes[(h & 0x7fffffff) % lanes.length].execute(task);
+  }
+
+  /**
+   * Stops the lanes, tasks already submitted are allowed to complete.
+   */
+  public void shutdown()
+  {
+    for (ExecutorService lane : lanes)
+    {
+      lane.shutdown();
+    }
+  }
+}
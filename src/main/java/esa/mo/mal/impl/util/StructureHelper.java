@@ -20,6 +20,7 @@
  */
 package esa.mo.mal.impl.util;
 
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
@@ -85,6 +86,43 @@ public abstract class StructureHelper
     return topProps;
   }
 
+  /**
+   * Returns the value of a numeric property held in a property map, which may hold it either as a number or as a
+   * String.
+   *
+   * @param properties The property map, may be null.
+   * @param name The name of the property.
+   * @param defaultValue The value to return if the property is not present or cannot be parsed.
+   * @return The property value.
+   */
+  public static long getLongProperty(final Map properties, final String name, final long defaultValue)
+  {
+    final Object value = (null == properties) ? null : properties.get(name);
+
+    if (value instanceof Number)
+    {
+      return ((Number) value).longValue();
+    }
+
+    if (null != value)
+    {
+      try
+      {
+        return Long.parseLong(value.toString().trim());
+      }
+      catch (NumberFormatException ex)
+      {
+        Logger.getLogger("org.ccsds.moims.mo.mal.impl.util").log(Level.WARNING,
+                "Ignoring non numeric value of property {0} : {1}", new Object[]
+        {
+          name, value
+        });
+      }
+    }
+
+    return defaultValue;
+  }
+
   /**
    * Converts a identifier list version of a domain name to a single, dot delimited, String.
    *